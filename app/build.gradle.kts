@@ -1,3 +1,7 @@
+import groovy.json.JsonSlurper
+import java.io.DataOutputStream
+import javax.inject.Inject
+
 plugins {
     alias(libs.plugins.android.application)
 }
@@ -29,6 +33,186 @@ android {
         sourceCompatibility = JavaVersion.VERSION_11
         targetCompatibility = JavaVersion.VERSION_11
     }
+    testOptions {
+        // Robolectric tests inflate and draw real views
+        unitTests.isIncludeAndroidResources = true
+    }
+    androidResources {
+        // Compiled layouts are memory-mapped straight out of the APK
+        noCompress += listOf("gpkl", "gpkd", "gpks")
+    }
+}
+
+/**
+ * Validates the JSON layouts in src/main/layouts and compiles each one into the binary format
+ * read by LayoutBinary in :core (string pool + per-ring index arrays), under assets/layouts/.
+ * A layout with a letter that is on some right ring but on no left one fails the build.
+ */
+abstract class CompileLayoutsTask : DefaultTask() {
+
+    @get:InputDirectory
+    abstract val sourceDir: DirectoryProperty
+
+    @get:OutputDirectory
+    abstract val outputDir: DirectoryProperty
+
+    @TaskAction
+    fun compile() {
+        val targetDir = outputDir.get().dir("layouts").asFile
+        targetDir.deleteRecursively()
+        targetDir.mkdirs()
+        sourceDir.get().asFile.listFiles { file -> file.extension == "json" }!!.forEach { source ->
+            val target = File(targetDir, source.nameWithoutExtension + ".gpkl")
+            DataOutputStream(target.outputStream().buffered()).use { out ->
+                writeLayout(source.name, JsonSlurper().parse(source), out)
+            }
+        }
+    }
+
+    private fun writeLayout(name: String, json: Any?, out: DataOutputStream) {
+        val layers = json as? List<*> ?: throw GradleException("$name: top level must be an array of layers")
+        if (layers.isEmpty() || layers.size > 0xFFFF) {
+            throw GradleException("$name: expected 1..65535 layers, found ${layers.size}")
+        }
+
+        // Rings in CompiledLayout index order: layer, alt, upper, side
+        val pool = LinkedHashMap<String, Int>()
+        val rings = ArrayList<List<Int>>()
+        val leftLetters = HashSet<String>()
+        val rightLetters = HashSet<String>()
+        layers.forEachIndexed { layer, set ->
+            val layerMap = set as? Map<*, *> ?: throw GradleException("$name: layer $layer must be an object")
+            for (pairName in listOf("base", "alt")) {
+                val pair = layerMap[pairName] as Map<*, *>?
+                for (case in listOf("lower", "upper")) {
+                    for (side in listOf("left", "right")) {
+                        val path = "$name: [$layer].$pairName.$side.$case"
+                        val keys = (pair?.get(side) as Map<*, *>?)?.get(case) ?: emptyList<String>()
+                        val list = keys as? List<*> ?: throw GradleException("$path must be an array")
+                        if (list.size > 0xFFFF) throw GradleException("$path has too many keys")
+                        rings.add(list.map { key ->
+                            if (key !is String || key.isEmpty()) {
+                                throw GradleException("$path contains an empty or non-string key")
+                            }
+                            if (key.codePointCount(0, key.length) == 1 && Character.isLetter(key.codePointAt(0))) {
+                                (if (side == "left") leftLetters else rightLetters).add(key.lowercase())
+                            }
+                            pool.getOrPut(key) { pool.size }
+                        })
+                    }
+                }
+            }
+        }
+        if (pool.size > 0xFFFF) throw GradleException("$name: more than 65535 distinct keys")
+        // The right stick picks layers, so only left rings are ever typed from
+        val stranded = rightLetters - leftLetters
+        if (stranded.isNotEmpty()) {
+            throw GradleException("$name: letters only on right rings cannot be typed: ${stranded.sorted()}")
+        }
+
+        out.writeInt(0x47504B4C) // "GPKL"
+        out.writeShort(1)
+        out.writeShort(layers.size)
+        out.writeInt(pool.size)
+        for (key in pool.keys) {
+            val bytes = key.toByteArray(Charsets.UTF_8)
+            out.writeShort(bytes.size)
+            out.write(bytes)
+        }
+        for (ring in rings) {
+            out.writeShort(ring.size)
+            ring.forEach { out.writeShort(it) }
+        }
+    }
+}
+
+val compileLayouts = tasks.register<CompileLayoutsTask>("compileLayouts") {
+    sourceDir.set(layout.projectDirectory.dir("src/main/layouts"))
+}
+
+/**
+ * Compiles the word lists in src/main/dictionaries into assets/dictionaries/<name>.gpkd with
+ * DictionaryCompiler from :core, which also owns the reader for that format.
+ */
+abstract class CompileDictionariesTask : DefaultTask() {
+
+    @get:Classpath
+    abstract val toolClasspath: ConfigurableFileCollection
+
+    @get:InputDirectory
+    abstract val sourceDir: DirectoryProperty
+
+    @get:OutputDirectory
+    abstract val outputDir: DirectoryProperty
+
+    @get:Inject
+    abstract val execOperations: ExecOperations
+
+    @TaskAction
+    fun compile() {
+        val targetDir = outputDir.get().dir("dictionaries").asFile
+        targetDir.deleteRecursively()
+        execOperations.javaexec {
+            classpath = toolClasspath
+            mainClass.set("com.example.gamepadkeyboard.core.DictionaryCompiler")
+            args(sourceDir.get().asFile.path, targetDir.path)
+        }
+    }
+}
+
+val dictionaryTool: Configuration by configurations.creating {
+    isCanBeConsumed = false
+    attributes {
+        attribute(Usage.USAGE_ATTRIBUTE, objects.named(Usage.JAVA_RUNTIME))
+    }
+}
+
+val compileDictionaries = tasks.register<CompileDictionariesTask>("compileDictionaries") {
+    toolClasspath.from(dictionaryTool)
+    sourceDir.set(layout.projectDirectory.dir("src/main/dictionaries"))
+}
+
+/**
+ * Compiles the symbol lists in src/main/symbols into assets/symbols/<name>.gpks with
+ * SymbolTableCompiler from :core, which also owns the reader for that format (SymbolPages).
+ */
+abstract class CompileSymbolsTask : DefaultTask() {
+
+    @get:Classpath
+    abstract val toolClasspath: ConfigurableFileCollection
+
+    @get:InputDirectory
+    abstract val sourceDir: DirectoryProperty
+
+    @get:OutputDirectory
+    abstract val outputDir: DirectoryProperty
+
+    @get:Inject
+    abstract val execOperations: ExecOperations
+
+    @TaskAction
+    fun compile() {
+        val targetDir = outputDir.get().dir("symbols").asFile
+        targetDir.deleteRecursively()
+        execOperations.javaexec {
+            classpath = toolClasspath
+            mainClass.set("com.example.gamepadkeyboard.core.SymbolTableCompiler")
+            args(sourceDir.get().asFile.path, targetDir.path)
+        }
+    }
+}
+
+val compileSymbols = tasks.register<CompileSymbolsTask>("compileSymbols") {
+    toolClasspath.from(dictionaryTool) // The same :core build tools
+    sourceDir.set(layout.projectDirectory.dir("src/main/symbols"))
+}
+
+androidComponents {
+    onVariants { variant ->
+        variant.sources.assets?.addGeneratedSourceDirectory(compileLayouts, CompileLayoutsTask::outputDir)
+        variant.sources.assets?.addGeneratedSourceDirectory(compileDictionaries, CompileDictionariesTask::outputDir)
+        variant.sources.assets?.addGeneratedSourceDirectory(compileSymbols, CompileSymbolsTask::outputDir)
+    }
 }
 
 dependencies {
@@ -37,8 +221,10 @@ dependencies {
     implementation(libs.material)
     implementation(libs.activity)
     implementation(libs.constraintlayout)
-    implementation(libs.jackson.databind)
+    implementation(project(":core"))
+    dictionaryTool(project(":core"))
     testImplementation(libs.junit)
+    testImplementation(libs.robolectric)
     androidTestImplementation(libs.ext.junit)
     androidTestImplementation(libs.espresso.core)
 }
\ No newline at end of file
@@ -0,0 +1,292 @@
+package com.example.gamepadkeyboard;
+
+import android.os.Handler;
+import android.util.Log;
+
+import com.example.gamepadkeyboard.core.AdaptiveLayout;
+import com.example.gamepadkeyboard.core.CompiledLayout;
+import com.example.gamepadkeyboard.core.KeyUsageStats;
+import com.example.gamepadkeyboard.core.LayoutJsonWriter;
+
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.concurrent.Executor;
+
+/**
+ * Usage-adaptive slice ordering: counts the keys committed on the current base layout, keeps the
+ * counts in an append-only file, and every so often reorders the layout so the most used keys
+ * are on layer 0 and the cardinal slices (see {@link AdaptiveLayout}).
+ *
+ * In {@link #MODE_PROPOSE} the reordered layout is only written to {@link #PROPOSAL_FILE}, to be
+ * reviewed and copied over the user layout by hand. In {@link #MODE_AUTO} it replaces the base
+ * layout at the next {@link #takeLayout()}, which the service calls when a field starts input,
+ * so keys never move under a word being typed.
+ *
+ * Counting and the decisions run on the main thread; file I/O, fingerprinting a new base layout
+ * and reordering run on the I/O executor, whose results come back through the main handler or the
+ * volatile pending field.
+ */
+final class AdaptiveOrdering {
+
+    static final int MODE_OFF = 0;
+    static final int MODE_PROPOSE = 1;
+    static final int MODE_AUTO = 2;
+    static final String[] MODE_NAMES = {"off", "propose", "auto"};
+
+    static final String USAGE_FILE = "key_usage.bin"; // In getFilesDir(); key_usage.<pack>.bin for other packs
+    static final String PROPOSAL_FILE = "layout.proposed.json"; // In getFilesDir()
+
+    private static final String TAG = "AdaptiveOrdering";
+    private static final int RECOMPUTE_INTERVAL = 1000; // Commits between reorderings
+    private static final int COMPACT_BYTES = 64 * 1024; // Rewrite the usage file past this size
+
+    /** A reordering of one base layout, ready to be shown. */
+    private static final class Reordering {
+        final CompiledLayout base;
+        final int[] slotMap; // Null to show the base layout itself
+        final CompiledLayout layout;
+
+        Reordering(CompiledLayout base, int[] slotMap, CompiledLayout layout) {
+            this.base = base;
+            this.slotMap = slotMap;
+            this.layout = layout;
+        }
+    }
+
+    private final File dir;
+    private final File proposalFile;
+    private final Executor ioExecutor;
+    private final Handler mainHandler;
+
+    // Main thread only
+    private int mode;
+    private CompiledLayout base;
+    private File usageFile;      // Counts of the base layout's pack
+    private KeyUsageStats stats; // Null while off
+    private boolean loading;     // The usage file is being read; saving waits for it
+    private boolean rewrite;     // The usage file must be rewritten from the counts
+    private long fileBytes;
+    private long computedAt = -1; // Total commits at the last reordering, -1 for none yet
+
+    private volatile Reordering pending;
+
+    AdaptiveOrdering(File dir, Executor ioExecutor, Handler mainHandler) {
+        this.dir = dir;
+        this.usageFile = new File(dir, USAGE_FILE);
+        this.proposalFile = new File(dir, PROPOSAL_FILE);
+        this.ioExecutor = ioExecutor;
+        this.mainHandler = mainHandler;
+    }
+
+    /** @return the mode for a name from {@link #MODE_NAMES}, or -1 if there is none. */
+    static int modeOf(String name) {
+        for (int mode = 0; mode < MODE_NAMES.length; mode++) {
+            if (MODE_NAMES[mode].equals(name)) {
+                return mode;
+            }
+        }
+        return -1;
+    }
+
+    int getMode() {
+        return mode;
+    }
+
+    /**
+     * Changes the mode. Leaving {@link #MODE_AUTO} brings the base layout back at the next
+     * {@link #takeLayout()}.
+     *
+     * @return the stats for the engine to count into, or null if adaptive ordering is now off.
+     */
+    KeyUsageStats setMode(int mode) {
+        boolean leavingAuto = this.mode == MODE_AUTO && mode != MODE_AUTO;
+        this.mode = mode;
+        computedAt = -1;
+        if (mode == MODE_OFF) {
+            save();
+            stats = null;
+        } else if (stats == null && base != null) {
+            stats = new KeyUsageStats(base.getLayerCount());
+            load(stats, base);
+        }
+        pending = leavingAuto && base != null ? new Reordering(base, null, base) : null;
+        return stats;
+    }
+
+    /**
+     * The service switched to another base layout, or was just created. Counts carry over, through
+     * the usage file, if the layout has the same keys in the same places; otherwise counting starts
+     * over and the next save replaces the file. Each built-in pack counts into its own file, so
+     * switching locales does not throw away another locale's counts; the user's layout shares the
+     * default pack's. Nothing here reads the layout's rings; they are fingerprinted on the I/O
+     * executor along with the file read.
+     *
+     * @param pack the built-in pack the layout came from, null for the user's layout.
+     * @return the stats for the engine to count into, or null if adaptive ordering is off.
+     */
+    KeyUsageStats setBase(CompiledLayout layout, String pack) {
+        File file = pack == null || LayoutPacks.DEFAULT_PACK.equals(pack)
+                ? new File(dir, USAGE_FILE) : new File(dir, "key_usage." + pack + ".bin");
+        CompiledLayout previous = base;
+        base = layout;
+        pending = null;
+        computedAt = -1;
+        if (mode == MODE_OFF || layout == null) {
+            save();
+            usageFile = file;
+            stats = null;
+            return null;
+        }
+        if (stats != null && layout == previous && file.equals(usageFile)) {
+            stats.setSlotMap(null);
+            return stats;
+        }
+        // Saving goes through the I/O executor ahead of the load, so the counts so far are in the
+        // file the new stats read if both are for the same layout
+        save();
+        usageFile = file;
+        stats = new KeyUsageStats(layout.getLayerCount());
+        load(stats, layout);
+        return stats;
+    }
+
+    private void load(KeyUsageStats forStats, CompiledLayout layout) {
+        loading = true;
+        File usageFile = this.usageFile;
+        CompiledLayout forLayout = layout.materializeAll(); // Already built for every layout the service shows
+        ioExecutor.execute(() -> {
+            long fingerprint = KeyUsageStats.fingerprint(forLayout);
+            byte[] data = null;
+            try {
+                if (usageFile.isFile()) {
+                    data = Files.readAllBytes(usageFile.toPath());
+                }
+            } catch (IOException e) {
+                Log.w(TAG, "Failed to read " + usageFile, e);
+            }
+            byte[] loaded = data;
+            mainHandler.post(() -> merge(forStats, fingerprint, usageFile, loaded));
+        });
+    }
+
+    private void merge(KeyUsageStats forStats, long fingerprint, File usageFile, byte[] data) {
+        if (forStats != stats) {
+            return; // The base layout changed again meanwhile
+        }
+        stats.setFingerprint(fingerprint);
+        loading = false;
+        rewrite = true;
+        if (data != null) {
+            try {
+                rewrite = !stats.merge(ByteBuffer.wrap(data));
+                fileBytes = data.length;
+            } catch (IllegalArgumentException e) {
+                Log.w(TAG, "Discarding " + usageFile, e);
+            }
+        }
+    }
+
+    /**
+     * Takes the reordering computed since the last call, if it still applies to the base layout.
+     *
+     * @return the layout to show from now on, or null to keep the current one.
+     */
+    CompiledLayout takeLayout() {
+        Reordering reordering = pending;
+        if (reordering == null || reordering.base != base) {
+            return null;
+        }
+        pending = null;
+        if (stats != null) {
+            stats.setSlotMap(reordering.slotMap);
+        }
+        return reordering.layout;
+    }
+
+    /** Input finished: saves the new counts and reorders if enough were added since last time. */
+    void onFinishInput() {
+        save();
+        if (stats == null || loading) {
+            return;
+        }
+        long total = stats.getTotal();
+        if (total < AdaptiveLayout.MIN_COMMITS
+                || (computedAt >= 0 && total - computedAt < RECOMPUTE_INTERVAL)) {
+            return;
+        }
+        computedAt = total;
+        CompiledLayout forBase = base.materializeAll();
+        int[] counts = stats.snapshot();
+        int forMode = mode;
+        ioExecutor.execute(() -> reorder(forBase, counts, forMode));
+    }
+
+    /** Runs on the I/O executor. */
+    private void reorder(CompiledLayout forBase, int[] counts, int forMode) {
+        int[] slotMap = AdaptiveLayout.reorder(forBase, counts);
+        CompiledLayout layout = slotMap != null ? AdaptiveLayout.apply(forBase, slotMap) : forBase;
+        if (forMode == MODE_AUTO) {
+            pending = new Reordering(forBase, slotMap, layout);
+        } else if (slotMap != null) {
+            writeProposal(layout);
+        }
+    }
+
+    private void writeProposal(CompiledLayout layout) {
+        File temp = new File(proposalFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(temp)) {
+            LayoutJsonWriter.write(layout, out);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to write " + proposalFile, e);
+            return;
+        }
+        if (temp.renameTo(proposalFile)) {
+            Log.i(TAG, "Proposed a reordered layout in " + proposalFile);
+        }
+    }
+
+    /** Hands the counts recorded since the last save to the I/O executor. */
+    void save() {
+        if (stats == null || loading) {
+            return;
+        }
+        byte[] data;
+        boolean append = !rewrite && fileBytes < COMPACT_BYTES;
+        if (append) {
+            data = stats.takeUnsaved();
+            if (data == null) {
+                return;
+            }
+            fileBytes += data.length;
+        } else {
+            data = stats.takeAll();
+            fileBytes = data.length;
+            rewrite = false;
+        }
+        File usageFile = this.usageFile;
+        ioExecutor.execute(() -> write(usageFile, data, append));
+    }
+
+    /** Runs on the I/O executor. A whole file is written next to the old one and renamed over it. */
+    private void write(File usageFile, byte[] data, boolean append) {
+        File target = append ? usageFile : new File(usageFile.getPath() + ".tmp");
+        try (FileOutputStream out = new FileOutputStream(target, append)) {
+            out.write(data);
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save " + usageFile, e);
+            return;
+        }
+        if (!append && !target.renameTo(usageFile)) {
+            Log.e(TAG, "Failed to replace " + usageFile);
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "AdaptiveOrdering{mode=" + MODE_NAMES[mode]
+                + ", stats=" + stats + "}";
+    }
+}
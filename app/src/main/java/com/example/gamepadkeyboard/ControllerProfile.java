@@ -0,0 +1,122 @@
+package com.example.gamepadkeyboard;
+
+import android.view.InputDevice;
+import android.view.MotionEvent;
+
+import com.example.gamepadkeyboard.core.ButtonBindings;
+import com.example.gamepadkeyboard.core.KeyboardStateMachine;
+import com.example.gamepadkeyboard.core.MotionPipeline;
+import com.example.gamepadkeyboard.core.StickFilter;
+
+/**
+ * What the keyboard knows about one connected input device: whether it is a controller at all,
+ * which axes its sticks report on, their calibrated ranges, its button bindings, and its own
+ * modifier state, so two controllers do not share held triggers.
+ *
+ * Built once from the InputDevice when the device first sends input, and dropped when the device
+ * changes or goes away; events only read the precomputed fields.
+ */
+final class ControllerProfile {
+
+    // Logical axes, in the order the engine takes them
+    static final int LEFT_X = 0;
+    static final int LEFT_Y = 1;
+    static final int RIGHT_X = 2;
+    static final int RIGHT_Y = 3;
+    static final int HAT_X = 4;
+    static final int HAT_Y = 5;
+    static final int AXIS_COUNT = 6;
+
+    final int deviceId;
+    /** A gamepad or joystick; the keyboard ignores other devices' events. */
+    final boolean isGamepad;
+    final KeyboardStateMachine stateMachine = new KeyboardStateMachine();
+    private final String name;
+    private final int vendorId, productId;
+
+    private final int[] axisIds = new int[AXIS_COUNT]; // -1 if the device lacks the axis
+    private final float[] center = new float[AXIS_COUNT];
+    private final float[] scale = new float[AXIS_COUNT];
+    private final float leftDeadZone, rightDeadZone;
+
+    private ControllerProfile(InputDevice device, ButtonBindings.Config bindings) {
+        deviceId = device.getId();
+        isGamepad = device.supportsSource(InputDevice.SOURCE_GAMEPAD)
+                || device.supportsSource(InputDevice.SOURCE_JOYSTICK);
+        name = device.getName();
+        vendorId = device.getVendorId();
+        productId = device.getProductId();
+        applyBindings(bindings);
+        // Most pads put the right stick on Z/RZ, some on RX/RY
+        boolean zRz = device.getMotionRange(MotionEvent.AXIS_Z, InputDevice.SOURCE_JOYSTICK) != null;
+        calibrate(device, LEFT_X, MotionEvent.AXIS_X);
+        calibrate(device, LEFT_Y, MotionEvent.AXIS_Y);
+        calibrate(device, RIGHT_X, zRz ? MotionEvent.AXIS_Z : MotionEvent.AXIS_RX);
+        calibrate(device, RIGHT_Y, zRz ? MotionEvent.AXIS_RZ : MotionEvent.AXIS_RY);
+        calibrate(device, HAT_X, MotionEvent.AXIS_HAT_X);
+        calibrate(device, HAT_Y, MotionEvent.AXIS_HAT_Y);
+        leftDeadZone = deadZone(device, LEFT_X, LEFT_Y);
+        rightDeadZone = deadZone(device, RIGHT_X, RIGHT_Y);
+    }
+
+    static ControllerProfile create(InputDevice device, ButtonBindings.Config bindings) {
+        return new ControllerProfile(device, bindings);
+    }
+
+    /** Picks this device's buttons out of a (re)loaded bindings config. */
+    void applyBindings(ButtonBindings.Config bindings) {
+        stateMachine.setBindings(bindings.forDevice(name, vendorId, productId));
+    }
+
+    private void calibrate(InputDevice device, int logical, int axis) {
+        InputDevice.MotionRange range = device.getMotionRange(axis, InputDevice.SOURCE_JOYSTICK);
+        if (range == null) {
+            // Hats are often missing on pads that report the D-pad as keys; sticks never are
+            axisIds[logical] = logical >= HAT_X ? -1 : axis;
+            center[logical] = 0;
+            scale[logical] = 1;
+            return;
+        }
+        axisIds[logical] = axis;
+        center[logical] = (range.getMin() + range.getMax()) / 2f;
+        scale[logical] = range.getRange() > 0 ? 2f / range.getRange() : 1f;
+    }
+
+    /** The stick's dead zone: ours, or the device's flat region if that is wider. */
+    private float deadZone(InputDevice device, int logicalX, int logicalY) {
+        float flat = 0;
+        for (int logical = logicalX; logical <= logicalY; logical++) {
+            InputDevice.MotionRange range = axisIds[logical] >= 0
+                    ? device.getMotionRange(axisIds[logical], InputDevice.SOURCE_JOYSTICK) : null;
+            if (range != null) {
+                flat = Math.max(flat, range.getFlat() * scale[logical]);
+            }
+        }
+        return Math.min(Math.max(StickFilter.DEFAULT_DEAD_ZONE, flat), StickFilter.DEFAULT_SATURATION / 2);
+    }
+
+    /** Points the stick filters at this device's dead zones. */
+    void applyTo(MotionPipeline pipeline) {
+        pipeline.getLeftFilter().configure(leftDeadZone, StickFilter.DEFAULT_SATURATION,
+                StickFilter.DEFAULT_MIN_CUTOFF_HZ, StickFilter.DEFAULT_BETA, StickFilter.DEFAULT_HYSTERESIS);
+        pipeline.getRightFilter().configure(rightDeadZone, StickFilter.DEFAULT_SATURATION,
+                StickFilter.DEFAULT_MIN_CUTOFF_HZ, StickFilter.DEFAULT_BETA, StickFilter.DEFAULT_HYSTERESIS);
+    }
+
+    /**
+     * Reads every logical axis of one sample, normalized to [-1, 1] around the calibrated center.
+     *
+     * @param pos The historical sample index, or -1 for the current one.
+     */
+    void read(MotionEvent event, int pos, float[] out) {
+        for (int logical = 0; logical < AXIS_COUNT; logical++) {
+            int axis = axisIds[logical];
+            if (axis < 0) {
+                out[logical] = 0;
+                continue;
+            }
+            float raw = pos < 0 ? event.getAxisValue(axis) : event.getHistoricalAxisValue(axis, pos);
+            out[logical] = Math.max(-1f, Math.min(1f, (raw - center[logical]) * scale[logical]));
+        }
+    }
+}
@@ -1,187 +1,476 @@
 package com.example.gamepadkeyboard;
 
+import android.content.res.AssetFileDescriptor;
+import android.hardware.input.InputManager;
 import android.inputmethodservice.InputMethodService;
 import android.inputmethodservice.KeyboardView;
+import android.os.FileObserver;
+import android.os.Handler;
+import android.os.Looper;
+import android.os.SystemClock;
 import android.util.Log;
+import android.util.SparseArray;
+import android.view.Choreographer;
 import android.view.InputDevice;
+import android.view.InputEvent;
 import android.view.KeyEvent;
 import android.view.MotionEvent;
 import android.view.View;
 import android.view.inputmethod.EditorInfo;
 import android.view.inputmethod.InputConnection;
+import android.view.inputmethod.InputMethodManager;
+import android.view.inputmethod.InputMethodSubtype;
+import android.view.inputmethod.SurroundingText;
+import android.widget.TextView;
 
-import com.fasterxml.jackson.core.JsonProcessingException;
-import com.fasterxml.jackson.core.type.TypeReference;
-import com.fasterxml.jackson.databind.ObjectMapper;
+import androidx.annotation.Nullable;
 
-import java.util.List;
+import com.example.gamepadkeyboard.core.ButtonBindings;
+import com.example.gamepadkeyboard.core.CompiledLayout;
+import com.example.gamepadkeyboard.core.EditBatcher;
+import com.example.gamepadkeyboard.core.GamepadTrace;
+import com.example.gamepadkeyboard.core.GestureDecoder;
+import com.example.gamepadkeyboard.core.InputLatency;
+import com.example.gamepadkeyboard.core.KeyboardEngine;
+import com.example.gamepadkeyboard.core.RenderHandoff;
+import com.example.gamepadkeyboard.core.StreamingLayoutLoader;
+import com.example.gamepadkeyboard.core.SurroundingTextCache;
+import com.example.gamepadkeyboard.core.SymbolPages;
+import com.example.gamepadkeyboard.core.WordCompleter;
+import com.example.gamepadkeyboard.core.WordDictionary;
 
+import java.io.File;
+import java.io.FileDescriptor;
+import java.io.FileInputStream;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.PrintWriter;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
 
-public class CustomKeyboardApp extends InputMethodService {
+
+public class CustomKeyboardApp extends InputMethodService implements KeyboardEngine.Host {
 
     private static final String TAG = "CustomKeyboardApp";
     private RadialMenuView radialMenuViewLeft, radialMenuViewRight; // Reference to our custom view
-    private static final float JOYSTICK_DEAD_ZONE = 0.15f;
-    private boolean isL2Pressed;
-    private boolean isR2Pressed;
-    private boolean isUpper;
-    private boolean isAlt;
-    private int layerIndex;
-    private final ObjectMapper objectMapper = new ObjectMapper();
-    private List<RadialMenuSet> menuSets;
-    private static final double deadZoneRadius = 0.1;
+    private static final String USER_LAYOUT_FILE = "layout.json"; // In getFilesDir(), hot-reloaded
+    // Event timestamps are uptimeMillis, which shares CLOCK_MONOTONIC with System.nanoTime
+    private final InputLatency inputLatency = new InputLatency(System::nanoTime);
+    private static final String DICTIONARY_ASSET = "dictionaries/en.gpkd"; // Compiled by :app:compileDictionaries
+    private static final int SUGGESTION_COUNT = 3;
+    private static final String SYMBOLS_ASSET = "symbols/symbols.gpks"; // Compiled by :app:compileSymbols
+    private TextView[] suggestionViews;
+    // All key, stick and edit logic; this service only adapts Android events and views to it
+    private final KeyboardEngine engine = new KeyboardEngine(this);
+    private boolean flushScheduled;
+    private final Choreographer.FrameCallback flushCallback = frameTimeNanos -> {
+        flushScheduled = false;
+        engine.flushEdits();
+    };
+    private final Choreographer.FrameCallback repeatCallback = new Choreographer.FrameCallback() {
+        @Override
+        public void doFrame(long frameTimeNanos) {
+            if (engine.onFrame(frameTimeNanos)) {
+                Choreographer.getInstance().postFrameCallback(this);
+            }
+        }
+    };
+
+    // Trace recording, toggled with: adb shell dumpsys activity service <ime> trace start|stop
+    private static final String TRACE_DIR = "traces";
+    private final Handler mainHandler = new Handler(Looper.getMainLooper());
+    private final ExecutorService ioExecutor = Executors.newSingleThreadExecutor();
+    private GamepadTrace.Writer traceWriter; // Non-null while recording; main thread only
+
+    // Controllers by device id: built on first input, dropped when the device changes or goes away
+    private final SparseArray<ControllerProfile> profiles = new SparseArray<>();
+    private ControllerProfile activeProfile; // The controller that sent the latest input
+    private final float[] axes = new float[ControllerProfile.AXIS_COUNT];
+    private InputManager inputManager;
+    // Button bindings, hot-reloaded like the user layout and handed to every profile on the main thread
+    private static final String BINDINGS_FILE = "bindings.json"; // In getFilesDir()
+    private ButtonBindings.Config bindings = ButtonBindings.Config.DEFAULT; // Main thread only
+
+    // User layout hot reload: layoutObserver notices edits of USER_LAYOUT_FILE, ioExecutor parses
+    // and validates the file into a fully built layout and publishes it in latestLayout, and the
+    // input path swaps it in between events. The main thread never parses JSON. Subtype changes
+    // take the same path with the locale's built-in pack, unless a user layout overrides it.
+    private FileObserver layoutObserver;
+    private LayoutPacks layoutPacks;
+    private volatile String layoutPack = LayoutPacks.DEFAULT_PACK; // The pack the current subtype asks for
+    private String publishedPack; // ioExecutor only: the pack in use, null while the user layout is
+    private volatile LayoutPacks.Pack latestLayout;
+    private LayoutPacks.Pack appliedLayout; // Main thread only
+    private WordDictionary dictionary; // Null until loaded, or if it failed to load
+    private final InputManager.InputDeviceListener deviceListener = new InputManager.InputDeviceListener() {
+        @Override
+        public void onInputDeviceAdded(int deviceId) {
+            // Profiled on its first input
+        }
+
+        @Override
+        public void onInputDeviceRemoved(int deviceId) {
+            forgetDevice(deviceId);
+        }
+
+        @Override
+        public void onInputDeviceChanged(int deviceId) {
+            forgetDevice(deviceId); // Axes or ranges may differ now; re-read on the next input
+        }
+    };
+
+    // Render mode, toggled with: adb shell dumpsys activity service <ime> render thread|view
+    private static final String PREFS = "keyboard";
+    private static final String PREF_RENDER_THREAD = "render_thread";
+    private final RenderHandoff renderHandoff = new RenderHandoff();
+    private RadialRenderThread renderThread; // Created the first time the threaded mode is used
+    private boolean renderOnThread; // Menus are RadialMenuSurfaceViews fed through renderHandoff
+
+    // Usage-adaptive slice ordering, set with: adb shell dumpsys activity service <ime> adaptive off|propose|auto
+    private static final String PREF_ADAPTIVE = "adaptive";
+    private AdaptiveOrdering adaptiveOrdering;
+
+    /** Sends flushed edits to one field's InputConnection and records their latency. */
+    private final class InputConnectionTarget implements EditBatcher.Target {
+        private final InputConnection connection;
+
+        InputConnectionTarget(InputConnection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public void beginBatchEdit() {
+            connection.beginBatchEdit();
+        }
+
+        @Override
+        public void endBatchEdit() {
+            connection.endBatchEdit();
+        }
 
+        @Override
+        public void commitText(CharSequence text) {
+            connection.commitText(text, 1);
+            inputLatency.record(InputLatency.COMMIT_TEXT, engine.getEditBatcher().getSendingEventTime());
+        }
+
+        @Override
+        public void deleteBefore(int count) {
+            connection.deleteSurroundingText(count, 0);
+            inputLatency.record(InputLatency.DELETE_SURROUNDING_TEXT, engine.getEditBatcher().getSendingEventTime());
+        }
+
+        @Override
+        public void setSelection(int start, int end) {
+            connection.setSelection(start, end);
+            inputLatency.record(InputLatency.SET_SELECTION, engine.getEditBatcher().getSendingEventTime());
+        }
+
+        @Override
+        public void moveCursor(int direction) {
+            int keyCode = direction < 0 ? KeyEvent.KEYCODE_DPAD_LEFT : KeyEvent.KEYCODE_DPAD_RIGHT;
+            connection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, keyCode));
+            connection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, keyCode));
+            inputLatency.record(InputLatency.SEND_KEY_EVENT, engine.getEditBatcher().getSendingEventTime());
+        }
+    }
+
+
+    @Override
+    public void onCreate() {
+        super.onCreate();
+        inputManager = getSystemService(InputManager.class);
+        inputManager.registerInputDeviceListener(deviceListener, mainHandler);
+        adaptiveOrdering = new AdaptiveOrdering(getFilesDir(), ioExecutor, mainHandler);
+        int adaptiveMode = AdaptiveOrdering.modeOf(
+                getSharedPreferences(PREFS, MODE_PRIVATE).getString(PREF_ADAPTIVE, null));
+        adaptiveOrdering.setMode(Math.max(adaptiveMode, AdaptiveOrdering.MODE_OFF));
+        layoutPacks = new LayoutPacks(getAssets());
+        layoutPack = LayoutPacks.nameFor(
+                getSystemService(InputMethodManager.class).getCurrentInputMethodSubtype());
+        publishedPack = layoutPack; // Shown by onCreateInputView, no need to publish it
+        layoutObserver = new FileObserver(getFilesDir(),
+                FileObserver.CLOSE_WRITE | FileObserver.MOVED_TO | FileObserver.DELETE | FileObserver.MOVED_FROM) {
+            @Override
+            public void onEvent(int event, @Nullable String path) {
+                if (USER_LAYOUT_FILE.equals(path)) {
+                    ioExecutor.execute(CustomKeyboardApp.this::reloadLayout);
+                } else if (BINDINGS_FILE.equals(path)) {
+                    ioExecutor.execute(CustomKeyboardApp.this::reloadBindings);
+                }
+            }
+        };
+        layoutObserver.startWatching();
+        ioExecutor.execute(this::reloadLayout); // Picks up a layout saved while we were not running
+        ioExecutor.execute(this::reloadBindings);
+    }
 
     @Override
     public View onCreateInputView() {
-        View rootLayout = getLayoutInflater().inflate(R.layout.custom_keyboard_layout, null);
-
-        try {
-            String jsonString = "[\n" +
-                    "  {\n" +
-                    "    \"base\": {\n" +
-                    "      \"left\": {\n" +
-                    "        \"lower\": [\"q\", \"w\", \"e\", \"r\", \"t\", \"y\", \"u\", \"i\", \"o\", \"p\"],\n" +
-                    "        \"upper\": [\"Q\", \"W\", \"E\", \"R\", \"T\", \"A\", \"S\", \"D\", \"F\", \"G\", \"Z\", \"X\", \"C\", \"V\"]\n" +
-                    "      },\n" +
-                    "      \"right\": {\n" +
-                    "        \"lower\": [\"y\", \"u\", \"i\", \"o\", \"p\", \"h\", \"j\", \"k\", \"l\", \"b\", \"n\", \"m\"],\n" +
-                    "        \"upper\": [\"Y\", \"U\", \"I\", \"O\", \"P\", \"H\", \"J\", \"K\", \"L\", \"B\", \"N\", \"M\"]\n" +
-                    "      }\n" +
-                    "    },\n" +
-                    "    \"alt\": {\n" +
-                    "      \"left\": {\n" +
-                    "        \"lower\": [\"1\", \"2\", \"3\", \"4\", \"5\"],\n" +
-                    "        \"upper\": [\"!\", \"@\", \"#\", \"$\", \"%\"]\n" +
-                    "      },\n" +
-                    "      \"right\": {\n" +
-                    "        \"lower\": [\"6\", \"7\", \"8\", \"9\", \"0\"],\n" +
-                    "        \"upper\": [\"^\", \"&\", \"*\", \"(\", \")\"]\n" +
-                    "      }\n" +
-                    "    }\n" +
-                    "  },\n" +
-                    "  {\n" +
-                    "    \"base\": {\n" +
-                    "      \"left\": {\n" +
-                    "        \"lower\": [\"a\", \"s\", \"d\", \"f\", \"g\", \"h\", \"j\", \"k\", \"l\"],\n" +
-                    "        \"upper\": [\"Q\", \"W\", \"E\", \"R\", \"T\", \"A\", \"S\", \"D\", \"F\", \"G\"]\n" +
-                    "      },\n" +
-                    "      \"right\": {\n" +
-                    "        \"lower\": [\")\", \"$\", \"&\", \"@\", \"\\\"\", \"!\", \"'\"],\n" +
-                    "        \"upper\": [\"Y\", \"U\", \"I\", \"O\", \"P\", \"H\", \"J\", \"K\", \"L\"]\n" +
-                    "      }\n" +
-                    "    },\n" +
-                    "    \"alt\": {\n" +
-                    "      \"left\": {\n" +
-                    "        \"lower\": [\"[\", \"]\", \"{\", \"}\", \"#\", \"_\", \"\\\\\", \"|\", \"~\", \"<\"],\n" +
-                    "        \"upper\": [\"A\"]\n" +
-                    "      },\n" +
-                    "      \"right\": {\n" +
-                    "        \"lower\": [\"%\", \"^\", \"*\", \"+\", \"=\", \">\", \"€\", \"£\", \"¥\", \"⋅\"],\n" +
-                    "        \"upper\": [\"B\"]\n" +
-                    "      }\n" +
-                    "    }\n" +
-                    "  },\n" +
-                    "  {\n" +
-                    "    \"base\": {\n" +
-                    "      \"left\": {\n" +
-                    "        \"lower\": [\"z\", \"x\", \"c\", \"v\", \"b\", \"n\", \"m\"],\n" +
-                    "        \"upper\": [\"Q\", \"W\", \"E\", \"R\", \"T\", \"A\", \"S\", \"D\", \"F\", \"G\"]\n" +
-                    "      },\n" +
-                    "      \"right\": {\n" +
-                    "        \"lower\": [\")\", \"$\", \"&\", \"@\", \"\\\"\", \"!\", \"'\"],\n" +
-                    "        \"upper\": [\"Y\", \"U\", \"I\", \"O\", \"P\", \"H\", \"J\", \"K\", \"L\"]\n" +
-                    "      }\n" +
-                    "    },\n" +
-                    "    \"alt\": {\n" +
-                    "      \"left\": {\n" +
-                    "        \"lower\": [\"[\", \"]\", \"{\", \"}\", \"#\", \"_\", \"\\\\\", \"|\", \"~\", \"<\"],\n" +
-                    "        \"upper\": [\"A\"]\n" +
-                    "      },\n" +
-                    "      \"right\": {\n" +
-                    "        \"lower\": [\"%\", \"^\", \"*\", \"+\", \"=\", \">\", \"€\", \"£\", \"¥\", \"⋅\"],\n" +
-                    "        \"upper\": [\"B\"]\n" +
-                    "      }\n" +
-                    "    }\n" +
-                    "  }\n" +
-                    "]";
-            menuSets = objectMapper.readValue(
-                    jsonString,
-                    new TypeReference<List<RadialMenuSet>>() {}
-            );
-        } catch (JsonProcessingException e) {
-            throw new RuntimeException(e);
-        }
-        if (menuSets == null || menuSets.isEmpty()) {
-            Log.e(TAG, "Failed to parse JSON");
+        renderOnThread = getSharedPreferences(PREFS, MODE_PRIVATE).getBoolean(PREF_RENDER_THREAD, false);
+        View rootLayout = getLayoutInflater().inflate(renderOnThread
+                ? R.layout.custom_keyboard_layout_threaded : R.layout.custom_keyboard_layout, null);
+        radialMenuViewLeft = radialMenuViewRight = null;
+        if (renderOnThread && renderThread == null) {
+            renderThread = new RadialRenderThread(renderHandoff);
+        }
+
+        if (engine.getLayout() == null) {
+            // Through the cache, so switching back to this locale later does not decode it again
+            LayoutPacks.Pack pack = layoutPacks.get(layoutPack);
+            if (pack != null) {
+                engine.setLayout(pack.layout);
+                engine.setKeyUsageStats(adaptiveOrdering.setBase(pack.layout, pack.name));
+            }
+        }
+        if (engine.getWordCompleter() == null) {
+            dictionary = loadDictionary();
+            if (dictionary != null) {
+                engine.setWordCompleter(new WordCompleter(dictionary, SUGGESTION_COUNT));
+                if (engine.getLayout() != null) {
+                    engine.setGestureDecoder(new GestureDecoder(dictionary, engine.getLayout()));
+                }
+            }
+        }
+        if (engine.getSymbolPages() == null) {
+            engine.setSymbolPages(loadSymbolPages());
+        }
+        suggestionViews = new TextView[] {
+                rootLayout.findViewById(R.id.suggestion_0),
+                rootLayout.findViewById(R.id.suggestion_1),
+                rootLayout.findViewById(R.id.suggestion_2)
+        };
+        if (engine.getLayout() == null) {
             return rootLayout;
         }
 
-        isUpper = isAlt = isR2Pressed = isL2Pressed = false;
-        layerIndex = 0;
-        radialMenuViewLeft = (RadialMenuView) rootLayout.findViewById(R.id.radial_menu_left);
-        radialMenuViewRight = (RadialMenuView) rootLayout.findViewById(R.id.radial_menu_right);
+        if (renderOnThread) {
+            ((RadialMenuSurfaceView) rootLayout.findViewById(R.id.radial_menu_left))
+                    .bind(renderThread, CompiledLayout.LEFT);
+            ((RadialMenuSurfaceView) rootLayout.findViewById(R.id.radial_menu_right))
+                    .bind(renderThread, CompiledLayout.RIGHT);
+        } else {
+            radialMenuViewLeft = (RadialMenuView) rootLayout.findViewById(R.id.radial_menu_left);
+            radialMenuViewRight = (RadialMenuView) rootLayout.findViewById(R.id.radial_menu_right);
+        }
 
         return rootLayout;
     }
 
+    /**
+     * Publishes the layout that should be in use for the input path: the user's layout file,
+     * parsed and validated into a fully built layout, or else the current subtype's built-in pack.
+     * Runs on ioExecutor. An invalid file leaves the current layout in place; a deleted one brings
+     * back the pack.
+     */
+    private void reloadLayout() {
+        File file = new File(getFilesDir(), USER_LAYOUT_FILE);
+        LayoutPacks.Pack layout;
+        if (file.isFile()) {
+            try {
+                layout = new LayoutPacks.Pack(null,
+                        StreamingLayoutLoader.loadAll(Files.readAllBytes(file.toPath())));
+            } catch (IOException e) {
+                Log.w(TAG, "Keeping the current layout, " + file + " is invalid", e);
+                return;
+            }
+        } else {
+            String pack = layoutPack;
+            if (pack.equals(publishedPack)) {
+                return; // Already in use
+            }
+            layout = layoutPacks.get(pack);
+            if (layout == null) {
+                return;
+            }
+        }
+        publishedPack = layout.name;
+        latestLayout = layout;
+        mainHandler.post(this::applyLatestLayout); // In case no input arrives for a while
+    }
+
+    @Override
+    protected void onCurrentInputMethodSubtypeChanged(InputMethodSubtype newSubtype) {
+        super.onCurrentInputMethodSubtypeChanged(newSubtype);
+        layoutPack = LayoutPacks.nameFor(newSubtype);
+        ioExecutor.execute(this::reloadLayout);
+    }
+
+    /**
+     * Swaps in the layout the background reload published last, if it is not in use yet. Called
+     * between input events, and skipped while a gesture or auto-repeat is under way so nothing in
+     * flight changes layout halfway; the next event tries again.
+     */
+    private void applyLatestLayout() {
+        LayoutPacks.Pack layout = latestLayout;
+        if (layout == null || layout == appliedLayout || engine.isMidInput()) {
+            return;
+        }
+        appliedLayout = layout;
+        showLayout(layout.layout);
+        engine.setKeyUsageStats(adaptiveOrdering.setBase(layout.layout, layout.name));
+        engine.refreshHost();
+    }
+
+    /**
+     * Parses the user's button bindings and hands them to every controller on the main thread.
+     * Runs on ioExecutor. An invalid file keeps the current bindings; a deleted one brings back
+     * the built-in ones.
+     */
+    private void reloadBindings() {
+        File file = new File(getFilesDir(), BINDINGS_FILE);
+        ButtonBindings.Config config = ButtonBindings.Config.DEFAULT;
+        if (file.isFile()) {
+            try {
+                config = ButtonBindings.parseConfig(Files.readAllBytes(file.toPath()));
+            } catch (IOException e) {
+                Log.w(TAG, "Keeping the current button bindings, " + file + " is invalid", e);
+                return;
+            }
+        }
+        ButtonBindings.Config loaded = config;
+        mainHandler.post(() -> {
+            bindings = loaded;
+            for (int i = 0; i < profiles.size(); i++) {
+                profiles.valueAt(i).applyBindings(loaded);
+            }
+        });
+    }
+
+    /** Puts a layout in use, with a gesture decoder that knows its neighboring letters. */
+    private void showLayout(CompiledLayout layout) {
+        engine.setLayout(layout);
+        if (dictionary != null) {
+            engine.setGestureDecoder(new GestureDecoder(dictionary, layout));
+        }
+    }
+
+    /**
+     * Memory-maps the compiled dictionary from the APK. Lookups walk the mapped trie directly, so
+     * nothing but the header is read until the user starts typing.
+     *
+     * @return the dictionary, or null if it could not be loaded (completion is then disabled).
+     */
+    private WordDictionary loadDictionary() {
+        try (AssetFileDescriptor afd = getAssets().openFd(DICTIONARY_ASSET);
+             FileInputStream in = afd.createInputStream()) {
+            MappedByteBuffer buffer = in.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength());
+            return WordDictionary.read(buffer);
+        } catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+            Log.e(TAG, "Failed to load " + DICTIONARY_ASSET, e);
+            return null;
+        }
+    }
+
+    /**
+     * Memory-maps the compiled symbol table from the APK; pages are decoded as they are shown.
+     *
+     * @return the symbol pages, or null if they could not be loaded (D-pad down then does nothing).
+     */
+    private SymbolPages loadSymbolPages() {
+        try (AssetFileDescriptor afd = getAssets().openFd(SYMBOLS_ASSET);
+             FileInputStream in = afd.createInputStream()) {
+            MappedByteBuffer buffer = in.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength());
+            return SymbolPages.read(buffer);
+        } catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+            Log.e(TAG, "Failed to load " + SYMBOLS_ASSET, e);
+            return null;
+        }
+    }
+
     @Override
     public void onStartInputView(EditorInfo info, boolean restarting) {
         super.onStartInputView(info, restarting);
-        isUpper = isAlt = isR2Pressed = isL2Pressed = false;
-        layerIndex = 0;
-        if (radialMenuViewLeft != null && radialMenuViewRight != null) {
-            radialMenuViewLeft.updateHover(0,0);
-            radialMenuViewRight.updateHover(0,0);
-            menuUpdater();
+        for (int i = 0; i < profiles.size(); i++) {
+            profiles.valueAt(i).stateMachine.reset();
         }
+        // A reordering computed while the last field had focus moves keys only now, between fields
+        CompiledLayout reordered = adaptiveOrdering.takeLayout();
+        if (reordered != null) {
+            showLayout(reordered);
+        }
+        InputConnection inputConnection = getCurrentInputConnection();
+        engine.startInput(inputConnection != null ? new InputConnectionTarget(inputConnection) : null);
     }
 
     @Override
     public void onFinishInputView(boolean finishingInput) {
         super.onFinishInputView(finishingInput);
-        if (radialMenuViewLeft != null) radialMenuViewLeft.updateHover(0,0);
-        if (radialMenuViewRight != null) radialMenuViewRight.updateHover(0,0);
+        Log.d(TAG, engine.getMotionPipeline().toString());
+        Log.d(TAG, engine.getEditBatcher().toString());
+        engine.finishInput(); // Sends what is still queued to the field that is going away
+        adaptiveOrdering.onFinishInput();
     }
 
-    private void handleTriggerPress(RadialMenuView rmv) {
-        InputConnection inputConnection = getCurrentInputConnection();
-        if (rmv == null) {
-            return;
+    @Override
+    public void onRingsChanged(CompiledLayout.Ring left, CompiledLayout.Ring right) {
+        if (renderOnThread) {
+            renderHandoff.publishRings(left, right);
+            renderThread.requestRender();
+        } else if (radialMenuViewLeft != null && radialMenuViewRight != null) {
+            radialMenuViewLeft.setRing(left);
+            radialMenuViewRight.setRing(right);
         }
-
-        String key = rmv.getHoveredKey();
-        if (key != null) inputConnection.commitText(key, 1);
     }
 
-    public void menuUpdater() {
-        if (isUpper) {
-            radialMenuViewLeft.setMenuItems(menuSets.get(layerIndex).getPair(isAlt).getLeft().getUpper());
-            radialMenuViewRight.setMenuItems(menuSets.get(layerIndex).getPair(isAlt).getRight().getUpper());
-        } else {
-            radialMenuViewLeft.setMenuItems(menuSets.get(layerIndex).getPair(isAlt).getLeft().getLower());
-            radialMenuViewRight.setMenuItems(menuSets.get(layerIndex).getPair(isAlt).getRight().getLower());
+    @Override
+    public void onHoverChanged(int side, int slice) {
+        if (renderOnThread) {
+            renderHandoff.publishHover(side, slice);
+            renderThread.requestRender();
+            return;
+        }
+        RadialMenuView view = side == CompiledLayout.LEFT ? radialMenuViewLeft : radialMenuViewRight;
+        if (view != null) {
+            view.setHoveredSlice(slice);
         }
     }
 
-    public void dpadHandler(int x, int y) {
-        InputConnection inputConnection = getCurrentInputConnection();
-        if (inputConnection == null) {
+    @Override
+    public void onSuggestionsChanged() {
+        if (suggestionViews == null || suggestionViews[0] == null) {
             return;
         }
-        if (y == -1) {
-            isUpper = !isUpper;
-            menuUpdater();
-        } else if (y == 1) {
-            menuUpdater();
-        } else if (x == -1) {
-            inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_LEFT));
-            inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_DPAD_LEFT));
-        } else if (x == 1) {
-            inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_DOWN, KeyEvent.KEYCODE_DPAD_RIGHT));
-            inputConnection.sendKeyEvent(new KeyEvent(KeyEvent.ACTION_UP, KeyEvent.KEYCODE_DPAD_RIGHT));
+        WordCompleter wordCompleter = engine.getWordCompleter();
+        int count = wordCompleter.getSuggestionCount();
+        for (int i = 0; i < suggestionViews.length; i++) {
+            suggestionViews[i].setText(i < count ? wordCompleter.getSuggestion(i) : "");
         }
+    }
+
+    @Override
+    public void requestFlush() {
+        if (!flushScheduled) {
+            flushScheduled = true;
+            Choreographer.getInstance().postFrameCallback(flushCallback);
+        }
+    }
 
+    @Override
+    public void requestFrames() {
+        Choreographer.getInstance().removeFrameCallback(repeatCallback);
+        Choreographer.getInstance().postFrameCallback(repeatCallback);
+    }
+
+    /** Reads the text around the cursor once; edits after this keep the cache current. */
+    @Override
+    public boolean readSurroundingText(SurroundingTextCache cache) {
+        InputConnection inputConnection = getCurrentInputConnection();
+        SurroundingText surrounding = inputConnection != null
+                ? inputConnection.getSurroundingText(SurroundingTextCache.WINDOW, SurroundingTextCache.WINDOW, 0)
+                : null;
+        if (surrounding == null) {
+            return false;
+        }
+        cache.reset(surrounding.getText(), surrounding.getSelectionStart(),
+                surrounding.getSelectionEnd(), surrounding.getOffset());
+        return true;
     }
 
     @Override
@@ -190,54 +479,17 @@ public class CustomKeyboardApp extends InputMethodService {
             return super.onKeyDown(keyCode, event);
         }
         InputConnection inputConnection = getCurrentInputConnection();
-        if (event != null && inputConnection != null) {
-            if ((event.getSource() & InputDevice.SOURCE_GAMEPAD) == InputDevice.SOURCE_GAMEPAD ||
-                    (event.getSource() & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK) {
-                if (event.getRepeatCount() > 0) {
-                    if (keyCode == KeyEvent.KEYCODE_BUTTON_X) {
-                        inputConnection.deleteSurroundingText(1, 0);
-                        return true;
-                    }
-                    return super.onKeyDown(keyCode, event);
-                }
-
-                if (keyCode == KeyEvent.KEYCODE_BUTTON_A) {
-                    layerIndex = (layerIndex + 1) % menuSets.size();
-                    isUpper = false;
-                    menuUpdater();
-                    return true;
-                } else if (keyCode == KeyEvent.KEYCODE_BUTTON_B) {
-                    Log.d(TAG, "Gamepad 'B' button pressed! Consuming event.");
-                    return true;
-                } else if (keyCode == KeyEvent.KEYCODE_BUTTON_X) {
-                    inputConnection.deleteSurroundingText(1, 0);
-                    return true;
-                } else if (keyCode == KeyEvent.KEYCODE_BUTTON_Y) {
-                    inputConnection.commitText(" ", 1);
-                    return true;
-                } else if (keyCode == KeyEvent.KEYCODE_DPAD_DOWN) {
-                    dpadHandler(0, 1);
-                    return true;
-                } else if (keyCode == KeyEvent.KEYCODE_DPAD_UP) {
-                    dpadHandler(0, -1);
-                    return true;
-                } else if (keyCode == KeyEvent.KEYCODE_BUTTON_L2 || keyCode == KeyEvent.KEYCODE_BUTTON_Z || keyCode == KeyEvent.KEYCODE_BUTTON_R2) { // Or other potential trigger codes
-                    if (keyCode == KeyEvent.KEYCODE_BUTTON_L2 || keyCode == KeyEvent.KEYCODE_BUTTON_Z) isL2Pressed = true;
-                    if (keyCode == KeyEvent.KEYCODE_BUTTON_R2) isR2Pressed = true;
-                    isAlt = true;
-                    menuUpdater();
-                    return true;
-                }
-                else if (keyCode == KeyEvent.KEYCODE_BUTTON_L1) {
-                    handleTriggerPress(radialMenuViewLeft);
-                    return true;
-                }
-                else if (keyCode == KeyEvent.KEYCODE_BUTTON_R1) { // Or other potential trigger codes
-                    handleTriggerPress(radialMenuViewRight);
-                    return true; // Consume the event
-                }
+        // Only controllers get profiles; the key code then picks an action from the profile's bindings
+        if (event != null && inputConnection != null && profileFor(event) != null) {
+            applyLatestLayout();
+            if (traceWriter != null) {
+                traceWriter.key(true, event.getEventTime(), keyCode, event.getRepeatCount());
+            }
+            if (engine.onKeyDown(keyCode, event.getRepeatCount(), eventTimeNanos(event.getEventTime()))) {
+                return true;
+            }
+            if (event.getRepeatCount() == 0) {
                 Log.d(TAG, "Gamepad/Joystick - Unhandled KeyCode in switch: " + keyCode);
-
             }
         }
         return super.onKeyDown(keyCode, event);
@@ -248,39 +500,149 @@ public class CustomKeyboardApp extends InputMethodService {
         if (!isInputViewShown()) {
             return super.onKeyUp(keyCode, event);
         }
-        if (event != null) {
-            if ((event.getSource() & InputDevice.SOURCE_GAMEPAD) == InputDevice.SOURCE_GAMEPAD ||
-                    (event.getSource() & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK) {
-
-                 if (keyCode == KeyEvent.KEYCODE_BUTTON_L2 || keyCode == KeyEvent.KEYCODE_BUTTON_Z || keyCode == KeyEvent.KEYCODE_BUTTON_R2) { // Or other potential trigger codes
-                     if (keyCode == KeyEvent.KEYCODE_BUTTON_L2 || keyCode == KeyEvent.KEYCODE_BUTTON_Z) isL2Pressed = false;
-                     if (keyCode == KeyEvent.KEYCODE_BUTTON_R2) isR2Pressed = false;
-                     if (!isL2Pressed && !isR2Pressed) {
-                         isAlt = false;
-                         menuUpdater();
-                     }
-                     return true;
-                 }
+        if (event != null && profileFor(event) != null) {
+            applyLatestLayout();
+            if (traceWriter != null) {
+                traceWriter.key(false, event.getEventTime(), keyCode, 0);
+            }
+            if (engine.onKeyUp(keyCode, eventTimeNanos(event.getEventTime()))) {
+                return true;
             }
         }
         return super.onKeyUp(keyCode, event);
     }
 
-    private void setCursorPos(RadialMenuView rmv, float x, float y) {
-        if (Math.abs(x) < JOYSTICK_DEAD_ZONE) {
-            x = 0.0f;
+    @Override
+    public void onUpdateSelection(int oldSelStart, int oldSelEnd, int newSelStart, int newSelEnd,
+                                  int candidatesStart, int candidatesEnd) {
+        super.onUpdateSelection(oldSelStart, oldSelEnd, newSelStart, newSelEnd,
+                candidatesStart, candidatesEnd);
+        engine.onUpdateSelection(newSelStart, newSelEnd);
+    }
+
+    private static long eventTimeNanos(long eventTimeMillis) {
+        return eventTimeMillis * 1_000_000L;
+    }
+
+    @Override
+    protected void dump(FileDescriptor fd, PrintWriter fout, String[] args) {
+        if (args != null && args.length == 2 && "trace".equals(args[0])) {
+            dumpTraceCommand(fout, args[1]);
+            return;
+        }
+        if (args != null && args.length == 2 && "render".equals(args[0])) {
+            dumpRenderCommand(fout, args[1]);
+            return;
+        }
+        if (args != null && args.length == 2 && "adaptive".equals(args[0])) {
+            dumpAdaptiveCommand(fout, args[1]);
+            return;
+        }
+        super.dump(fd, fout, args);
+        inputLatency.dump(fout, "  ");
+        if (radialMenuViewLeft != null && radialMenuViewRight != null) {
+            fout.println("  Left menu:");
+            radialMenuViewLeft.getRenderMetrics().dump(fout, "    ");
+            fout.println("  Right menu:");
+            radialMenuViewRight.getRenderMetrics().dump(fout, "    ");
         }
-        if (Math.abs(y) < JOYSTICK_DEAD_ZONE) {
-            y = 0.0f;
+        fout.println("  " + engine);
+        fout.println("  " + engine.getMotionPipeline());
+        fout.println("  " + engine.getEditBatcher());
+        fout.println("  " + engine.getSurroundingText());
+        fout.println("  " + layoutPacks + " current=" + layoutPack);
+        fout.println("  " + adaptiveOrdering);
+        fout.println("  " + bindings);
+        if (activeProfile != null) {
+            fout.println("  active " + activeProfile.stateMachine.getBindings());
         }
+        if (engine.getSymbolPages() != null) {
+            fout.println("  " + engine.getSymbolPages());
+        }
+        if (renderThread != null) {
+            fout.println("  " + renderThread);
+        }
+    }
+
+    /** Switches the menus between main-thread views and the render thread, and rebuilds the view. */
+    private void dumpRenderCommand(PrintWriter fout, String mode) {
+        if (!"thread".equals(mode) && !"view".equals(mode)) {
+            fout.println("Usage: render thread|view");
+            return;
+        }
+        getSharedPreferences(PREFS, MODE_PRIVATE).edit()
+                .putBoolean(PREF_RENDER_THREAD, "thread".equals(mode))
+                .apply();
+        mainHandler.post(() -> {
+            setInputView(onCreateInputView());
+            engine.refreshHost();
+        });
+        fout.println("Radial menus now render on the " + ("thread".equals(mode) ? "render thread" : "main thread"));
+    }
+
+    /** Sets the adaptive ordering mode; it takes effect from the next field on. */
+    private void dumpAdaptiveCommand(PrintWriter fout, String name) {
+        int mode = AdaptiveOrdering.modeOf(name);
+        if (mode < 0) {
+            fout.println("Usage: adaptive off|propose|auto");
+            return;
+        }
+        getSharedPreferences(PREFS, MODE_PRIVATE).edit().putString(PREF_ADAPTIVE, name).apply();
+        mainHandler.post(() -> engine.setKeyUsageStats(adaptiveOrdering.setMode(mode)));
+        if (mode == AdaptiveOrdering.MODE_PROPOSE) {
+            fout.println("Reordered layouts will be proposed in "
+                    + new File(getFilesDir(), AdaptiveOrdering.PROPOSAL_FILE));
+        } else {
+            fout.println("Adaptive ordering is now " + name);
+        }
+    }
 
-        rmv.updateHover(x, y);
+    /** Starts or stops trace recording; dump() runs on a binder thread, recording on main. */
+    private void dumpTraceCommand(PrintWriter fout, String command) {
+        if ("start".equals(command)) {
+            mainHandler.post(() -> traceWriter = new GamepadTrace.Writer(SystemClock.uptimeMillis()));
+            fout.println("Trace recording started");
+        } else if ("stop".equals(command)) {
+            File file = new File(new File(getFilesDir(), TRACE_DIR),
+                    "trace-" + System.currentTimeMillis() + ".gpkt");
+            mainHandler.post(() -> {
+                GamepadTrace.Writer writer = traceWriter;
+                traceWriter = null;
+                if (writer != null) {
+                    ioExecutor.execute(() -> saveTrace(writer, file));
+                }
+            });
+            fout.println("Trace recording stopped, saving to " + file);
+        } else {
+            fout.println("Usage: trace start|stop");
+        }
+    }
 
-        if (x == 0.0f && y == 0.0f) {
-            rmv.updateHover(0, 0);
+    private static void saveTrace(GamepadTrace.Writer writer, File file) {
+        File dir = file.getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            Log.e(TAG, "Failed to create " + dir);
+            return;
+        }
+        try (FileOutputStream out = new FileOutputStream(file)) {
+            out.write(writer.toByteArray());
+        } catch (IOException e) {
+            Log.e(TAG, "Failed to save " + file, e);
         }
     }
 
+    @Override
+    public void onDestroy() {
+        inputManager.unregisterInputDeviceListener(deviceListener);
+        layoutObserver.stopWatching();
+        adaptiveOrdering.save();
+        ioExecutor.shutdown();
+        if (renderThread != null) {
+            renderThread.quitSafely();
+        }
+        super.onDestroy();
+    }
+
     @Override
     public boolean onGenericMotionEvent(MotionEvent event) {
         if (!isInputViewShown()) {
@@ -289,27 +651,78 @@ public class CustomKeyboardApp extends InputMethodService {
 
         if ((event.getSource() & InputDevice.SOURCE_JOYSTICK) == InputDevice.SOURCE_JOYSTICK &&
                 event.getAction() == MotionEvent.ACTION_MOVE) {
-            float x = event.getAxisValue(MotionEvent.AXIS_X);
-            float y = event.getAxisValue(MotionEvent.AXIS_Y);
-            float rx = event.getAxisValue(MotionEvent.AXIS_Z);
-            float ry = event.getAxisValue(MotionEvent.AXIS_RZ);
-
-            if (rx > deadZoneRadius || ry > deadZoneRadius) {
-                setCursorPos(radialMenuViewLeft, x, y);
-                //setCursorPos(radialMenuViewRight, rx, ry);
-
-                double angleRadians = Math.atan2(rx, ry);
-                float angleDegrees = ((180 - (float)Math.toDegrees(angleRadians) + 360) % 360);
-                double sliceDegrees = 360.0 / (double)menuSets.size();
-                int slice = (int)Math.floor(angleDegrees / sliceDegrees);
-                layerIndex = slice;
-                menuUpdater();
-                return true;
+            applyLatestLayout();
+            ControllerProfile profile = profileFor(event);
+            if (profile == null) {
+                return super.onGenericMotionEvent(event);
             }
-
-            dpadHandler(Math.round(event.getAxisValue(MotionEvent.AXIS_HAT_X)), Math.round(event.getAxisValue(MotionEvent.AXIS_HAT_Y)));
+            int historySize = event.getHistorySize();
+            if (traceWriter != null) {
+                traceWriter.beginMotion(historySize + 1);
+            }
+            boolean handled = engine.beginMotion(eventTimeNanos(event.getEventTime()));
+            // Feed every batched sample in order, then apply only what changed. The trace gets the
+            // calibrated values, so a replay sees exactly what the engine saw.
+            for (int h = 0; h <= historySize; h++) {
+                int pos = h < historySize ? h : -1;
+                long time = pos < 0 ? event.getEventTime() : event.getHistoricalEventTime(pos);
+                profile.read(event, pos, axes);
+                if (traceWriter != null) {
+                    traceWriter.sample(time, axes[ControllerProfile.LEFT_X], axes[ControllerProfile.LEFT_Y],
+                            axes[ControllerProfile.RIGHT_X], axes[ControllerProfile.RIGHT_Y],
+                            axes[ControllerProfile.HAT_X], axes[ControllerProfile.HAT_Y]);
+                }
+                if (handled) {
+                    engine.addMotionSample(eventTimeNanos(time),
+                            axes[ControllerProfile.LEFT_X], axes[ControllerProfile.LEFT_Y],
+                            axes[ControllerProfile.RIGHT_X], axes[ControllerProfile.RIGHT_Y],
+                            axes[ControllerProfile.HAT_X], axes[ControllerProfile.HAT_Y]);
+                }
+            }
+            if (!handled) {
+                return super.onGenericMotionEvent(event);
+            }
+            engine.endMotion();
             return true;
         }
         return super.onGenericMotionEvent(event);
     }
+
+    /**
+     * The profile of the controller that sent {@code event}, created on its first input. Switching
+     * to a different controller than last time hands its modifier state, bindings and dead zones
+     * to the engine.
+     *
+     * @return null if the event has no device or the device is not a controller.
+     */
+    private ControllerProfile profileFor(InputEvent event) {
+        int deviceId = event.getDeviceId();
+        ControllerProfile profile = activeProfile;
+        if (profile != null && profile.deviceId == deviceId) {
+            return profile;
+        }
+        profile = profiles.get(deviceId);
+        if (profile == null) {
+            InputDevice device = event.getDevice();
+            if (device == null) {
+                return null;
+            }
+            profile = ControllerProfile.create(device, bindings);
+            profiles.put(deviceId, profile);
+        }
+        if (!profile.isGamepad) {
+            return null;
+        }
+        activeProfile = profile;
+        profile.applyTo(engine.getMotionPipeline());
+        engine.useStateMachine(profile.stateMachine);
+        return profile;
+    }
+
+    private void forgetDevice(int deviceId) {
+        profiles.remove(deviceId);
+        if (activeProfile != null && activeProfile.deviceId == deviceId) {
+            activeProfile = null;
+        }
+    }
 }
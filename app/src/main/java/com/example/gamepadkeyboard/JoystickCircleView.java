@@ -13,6 +13,7 @@ import androidx.annotation.Nullable;
 public class JoystickCircleView extends View {
 
     private Paint circlePaint;
+    private final RenderMetrics metrics = new RenderMetrics("JoystickCircleView");
     private float circleX, circleY;
     private float initialX, initialY; // To store the initial center position
     private float radius = 30f; // Radius of the circle
@@ -61,12 +62,19 @@ public class JoystickCircleView extends View {
         isInitialized = true; // Ensure this is set after initialX/Y are calculated
     }
 
+    @Override
+    protected void onAttachedToWindow() {
+        super.onAttachedToWindow();
+        metrics.attach(this);
+    }
 
     @Override
     protected void onDraw(Canvas canvas) {
         super.onDraw(canvas);
         if (isInitialized) {
+            long start = metrics.beginDraw();
             canvas.drawCircle(circleX, circleY, radius, circlePaint);
+            metrics.endDraw(start);
         }
     }
 
@@ -76,6 +84,7 @@ public class JoystickCircleView extends View {
      * The view will scale these to its own bounds.
      */
     public void updatePosition(float normalizedX, float normalizedY) {
+        metrics.onUpdate();
         if (!isInitialized) return;
 
         // For simplicity, let's assume the joystick moves the circle within its bounds.
@@ -83,14 +92,19 @@ public class JoystickCircleView extends View {
         float maxTravelX = (getWidth() / 2f) - radius;
         float maxTravelY = (getHeight() / 2f) - radius;
 
-        circleX = initialX + (normalizedX * maxTravelX);
-        circleY = initialY + (normalizedY * maxTravelY);
+        float x = initialX + (normalizedX * maxTravelX);
+        float y = initialY + (normalizedY * maxTravelY);
 
         // Keep circle within the bounds of this view
-        circleX = Math.max(radius, Math.min(circleX, getWidth() - radius));
-        circleY = Math.max(radius, Math.min(circleY, getHeight() - radius));
-
-        invalidate(); // Request a redraw
+        x = Math.max(radius, Math.min(x, getWidth() - radius));
+        y = Math.max(radius, Math.min(y, getHeight() - radius));
+
+        // A stick held still (or pinned at the edge) reports the same spot over and over
+        if (x != circleX || y != circleY) {
+            circleX = x;
+            circleY = y;
+            redraw();
+        }
     }
 
     /**
@@ -100,16 +114,26 @@ public class JoystickCircleView extends View {
         if (!isInitialized) return;
         circleX = initialX;
         circleY = initialY;
-        invalidate(); // Request a redraw
+        redraw();
     }
 
     public void setCircleColor(int color) {
         circlePaint.setColor(color);
-        invalidate();
+        redraw();
     }
 
     public void setCircleRadius(float radius) {
         this.radius = radius;
+        redraw();
+    }
+
+    private void redraw() {
+        metrics.onInvalidate();
         invalidate();
     }
+
+    /** Updates asked for, invalidates, draws and frame drops since the view was created. */
+    RenderMetrics getRenderMetrics() {
+        return metrics;
+    }
 }
\ No newline at end of file
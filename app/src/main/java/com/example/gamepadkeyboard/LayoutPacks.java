@@ -0,0 +1,116 @@
+package com.example.gamepadkeyboard;
+
+import android.content.res.AssetFileDescriptor;
+import android.content.res.AssetManager;
+import android.util.Log;
+import android.util.LruCache;
+import android.view.inputmethod.InputMethodSubtype;
+
+import androidx.annotation.Nullable;
+
+import com.example.gamepadkeyboard.core.CompiledLayout;
+import com.example.gamepadkeyboard.core.LayoutBinary;
+
+import java.io.FileInputStream;
+import java.io.IOException;
+import java.nio.BufferUnderflowException;
+import java.nio.MappedByteBuffer;
+import java.nio.channels.FileChannel;
+
+/**
+ * The built-in layouts, one compiled pack per locale under assets/layouts/, picked by the
+ * {@code layout} extra value of the current InputMethodSubtype (see res/xml/custom_method.xml).
+ *
+ * Packs are memory-mapped from the APK like the default layout always was. Every one handed out,
+ * the first layout shown included, is fully built and kept in a small LRU, so switching back to a
+ * recent locale reuses its rings (and the render cache keyed by them) instead of decoding the pack
+ * again, while the number of built layouts held stays bounded.
+ */
+final class LayoutPacks {
+
+    static final String DEFAULT_PACK = "default";
+
+    private static final String TAG = "LayoutPacks";
+    private static final String ASSET_DIR = "layouts/"; // Compiled by :app:compileLayouts
+    private static final String EXTRA_LAYOUT = "layout";
+    private static final int WARM_PACKS = 3;
+
+    /** A layout and the pack it came from. */
+    static final class Pack {
+        /** Null for a layout that is not a built-in pack, such as the user's. */
+        @Nullable final String name;
+        final CompiledLayout layout;
+
+        Pack(@Nullable String name, CompiledLayout layout) {
+            this.name = name;
+            this.layout = layout;
+        }
+    }
+
+    private final AssetManager assets;
+    private final LruCache<String, Pack> warm = new LruCache<>(WARM_PACKS);
+
+    LayoutPacks(AssetManager assets) {
+        this.assets = assets;
+    }
+
+    /** The pack a subtype asks for, the default one if it names none. */
+    static String nameFor(@Nullable InputMethodSubtype subtype) {
+        String name = subtype != null && subtype.containsExtraValueKey(EXTRA_LAYOUT)
+                ? subtype.getExtraValueOf(EXTRA_LAYOUT) : null;
+        return name != null && !name.isEmpty() ? name : DEFAULT_PACK;
+    }
+
+    /**
+     * A fully built pack, which may be handed to any thread. Recently used packs come from the
+     * cache; others are mapped and decoded on the calling thread. LayoutBinary builds every ring as
+     * it reads, so a miss costs the same whether it is the first layout shown on the main thread or
+     * a switch on the I/O executor. Falls back to the default pack.
+     *
+     * @return the pack, or null if not even the default one could be loaded.
+     */
+    @Nullable
+    Pack get(String name) {
+        Pack pack = warm.get(name);
+        if (pack == null) {
+            pack = map(name);
+            if (pack == null) {
+                return null;
+            }
+            pack.layout.materializeAll();
+            warm.put(name, pack);
+        }
+        return pack;
+    }
+
+    @Nullable
+    private Pack map(String name) {
+        CompiledLayout layout = read(name);
+        if (layout == null && !DEFAULT_PACK.equals(name)) {
+            name = DEFAULT_PACK;
+            layout = read(name);
+        }
+        return layout != null ? new Pack(name, layout) : null;
+    }
+
+    @Nullable
+    private CompiledLayout read(String name) {
+        String asset = ASSET_DIR + name + ".gpkl";
+        try (AssetFileDescriptor afd = assets.openFd(asset);
+             FileInputStream in = afd.createInputStream()) {
+            MappedByteBuffer buffer = in.getChannel().map(
+                    FileChannel.MapMode.READ_ONLY, afd.getStartOffset(), afd.getLength());
+            return LayoutBinary.read(buffer);
+        } catch (IOException | IllegalArgumentException | BufferUnderflowException e) {
+            Log.e(TAG, "Failed to load " + asset, e);
+            return null;
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "LayoutPacks{warm=" + warm.snapshot().keySet()
+                + ", hits=" + warm.hitCount()
+                + ", loads=" + warm.missCount() + "}";
+    }
+}
@@ -0,0 +1,177 @@
+package com.example.gamepadkeyboard;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.graphics.Color;
+import android.graphics.Paint;
+import android.graphics.Rect;
+import android.graphics.RectF;
+import android.graphics.Typeface;
+import android.util.LruCache;
+
+import com.example.gamepadkeyboard.core.CompiledLayout;
+
+/**
+ * Draws one radial menu: a ring of slices with their labels and a hollow center, plus the hovered
+ * slice on top. Shared by {@link RadialMenuView}, which draws on the main thread, and
+ * {@link RadialRenderThread}, which draws into a surface on its own thread. Not thread-safe; each
+ * instance belongs to whichever thread draws with it.
+ */
+final class RadialMenuRenderer {
+
+    // Render cache: each ring is drawn once per size into a bitmap, and frames only blit it and
+    // paint the hovered slice on top. Bounded by bytes, least recently shown ring goes first.
+    private static final long RENDER_CACHE_MAX_BYTES = 8L * 1024 * 1024;
+
+    private final Paint slicePaint;
+    private final Paint textPaint;
+    private final Paint hoverSlicePaint;
+    private final Paint centerPaint;
+    private final RectF sliceArcRect = new RectF(); // Reusable RectF for drawing arcs
+    private final Rect textBounds = new Rect(); // Reused for label measuring
+    private final LruCache<CompiledLayout.Ring, Bitmap> renderCache;
+
+    private int width, height;
+    private float centerX, centerY;
+    private float outerRadius;
+    private final float innerRadiusRatio = 0.4f; // 40% of outerRadius for the hollow center
+    private float actualInnerRadius;
+
+    private CompiledLayout.Ring ring = CompiledLayout.Ring.EMPTY; // Ring the base and labels are for
+    private Bitmap baseBitmap; // Cached rendering of the current ring, null until drawn
+    private float[] labelX = new float[0], labelY = new float[0];
+    private boolean labelsDirty = true;
+
+    RadialMenuRenderer() {
+        hoverSlicePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        hoverSlicePaint.setStyle(Paint.Style.FILL);
+        hoverSlicePaint.setColor(Color.GRAY); // Hover color
+        slicePaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        slicePaint.setStyle(Paint.Style.FILL);
+        slicePaint.setColor(Color.BLACK); // Slices are black
+
+        textPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        textPaint.setColor(Color.WHITE); // Text is white
+        textPaint.setTextSize(60f); // Adjusted for better visibility
+        textPaint.setTextAlign(Paint.Align.CENTER);
+        textPaint.setTypeface(Typeface.create(Typeface.DEFAULT, Typeface.BOLD));
+
+        centerPaint = new Paint(Paint.ANTI_ALIAS_FLAG);
+        // Set color to whatever the background of the menu's parent is.
+        // For now, a solid color matching a typical dark theme.
+        centerPaint.setColor(Color.parseColor("#333333")); // A common dark keyboard background
+        centerPaint.setStyle(Paint.Style.FILL);
+
+        int maxBytes = (int) Math.min(RENDER_CACHE_MAX_BYTES, Runtime.getRuntime().maxMemory() / 16);
+        renderCache = new LruCache<CompiledLayout.Ring, Bitmap>(maxBytes) {
+            @Override
+            protected int sizeOf(CompiledLayout.Ring key, Bitmap value) {
+                return value.getByteCount();
+            }
+        };
+    }
+
+    void setSize(int w, int h) {
+        if (w == width && h == height) {
+            return;
+        }
+        width = w;
+        height = h;
+        centerX = w / 2f;
+        centerY = h / 2f;
+        outerRadius = (Math.min(w, h) / 2f) * 0.95f; // Use 95% of available space
+        actualInnerRadius = outerRadius * innerRadiusRatio;
+
+        // Define the bounding box for the arcs (the outer circle)
+        sliceArcRect.set(centerX - outerRadius, centerY - outerRadius, centerX + outerRadius, centerY + outerRadius);
+
+        // Every cached rendering was for the old size
+        renderCache.evictAll();
+        baseBitmap = null;
+        labelsDirty = true;
+    }
+
+    /** Draws {@code newRing} with slice {@code hovered} highlighted (-1 for none). */
+    void draw(Canvas canvas, CompiledLayout.Ring newRing, int hovered) {
+        if (newRing != ring) {
+            ring = newRing;
+            baseBitmap = null;
+            labelsDirty = true;
+        }
+        if (ring.size() == 0 || outerRadius <= 0) {
+            return;
+        }
+        if (labelsDirty) {
+            layoutLabels();
+        }
+        if (baseBitmap == null) {
+            baseBitmap = renderCache.get(ring);
+            if (baseBitmap == null) {
+                baseBitmap = renderBase();
+                renderCache.put(ring, baseBitmap);
+            }
+        }
+        canvas.drawBitmap(baseBitmap, 0, 0, null);
+
+        // Only the hovered slice changes between frames, so paint just that one over the base
+        if (hovered >= 0 && hovered < ring.size()) {
+            float sweepAngle = 360f / ring.size();
+            float startAngle = -90f - (sweepAngle / 2f) + hovered * sweepAngle;
+            canvas.drawArc(sliceArcRect, startAngle, sweepAngle, true, hoverSlicePaint);
+            canvas.drawText(ring.key(hovered), labelX[hovered], labelY[hovered], textPaint);
+            if (actualInnerRadius > 0) {
+                canvas.drawCircle(centerX, centerY, actualInnerRadius, centerPaint);
+            }
+        }
+    }
+
+    /**
+     * Draws every slice, label and the hollow center, unhovered, into a bitmap of the drawing size.
+     */
+    private Bitmap renderBase() {
+        Bitmap bitmap = Bitmap.createBitmap(width, height, Bitmap.Config.ARGB_8888);
+        Canvas canvas = new Canvas(bitmap);
+
+        float sweepAngle = 360f / ring.size();
+        // Start drawing from the top, adjusting so the middle of the first slice is at 12 o'clock
+        float currentDrawAngle = -90f - (sweepAngle / 2f);
+        for (int i = 0; i < ring.size(); i++) {
+            canvas.drawArc(sliceArcRect, currentDrawAngle, sweepAngle, true, slicePaint);
+            canvas.drawText(ring.key(i), labelX[i], labelY[i], textPaint);
+            currentDrawAngle += sweepAngle;
+        }
+
+        // Draw the hollow center (optional, if innerRadiusRatio > 0)
+        if (actualInnerRadius > 0) {
+            canvas.drawCircle(centerX, centerY, actualInnerRadius, centerPaint);
+        }
+        return bitmap;
+    }
+
+    /**
+     * Measures every label once per ring and size, so the hover overlay can redraw one label
+     * without measuring it again.
+     */
+    private void layoutLabels() {
+        int count = ring.size();
+        if (labelX.length < count) {
+            labelX = new float[count];
+            labelY = new float[count];
+        }
+
+        float sweepAngle = 360f / count;
+        // Radius for the text: midpoint between inner and outer radius
+        float textRadius = actualInnerRadius + (outerRadius - actualInnerRadius) / 2;
+        for (int i = 0; i < count; i++) {
+            String text = ring.key(i);
+            textPaint.getTextBounds(text, 0, text.length(), textBounds);
+
+            // Angle for the center of the current slice's arc
+            float textAngleRad = (float) Math.toRadians(-90f + i * sweepAngle);
+            labelX[i] = centerX + textRadius * (float) Math.cos(textAngleRad);
+            // Adjust Y for text height to truly center it vertically within its drawn height
+            labelY[i] = centerY + textRadius * (float) Math.sin(textAngleRad) + textBounds.height() / 2f;
+        }
+        labelsDirty = false;
+    }
+}
@@ -0,0 +1,72 @@
+package com.example.gamepadkeyboard;
+
+import android.content.Context;
+import android.graphics.PixelFormat;
+import android.util.AttributeSet;
+import android.view.SurfaceHolder;
+import android.view.SurfaceView;
+
+import androidx.annotation.NonNull;
+import androidx.annotation.Nullable;
+
+/**
+ * A radial menu drawn by a {@link RadialRenderThread} instead of the main thread. The view only
+ * hands its surface to the thread; what it shows comes from the thread's handoff.
+ */
+public class RadialMenuSurfaceView extends SurfaceView implements SurfaceHolder.Callback {
+
+    private RadialRenderThread renderThread;
+    private int side;
+    private boolean surfaceReady;
+
+    public RadialMenuSurfaceView(Context context) {
+        super(context);
+        init();
+    }
+
+    public RadialMenuSurfaceView(Context context, @Nullable AttributeSet attrs) {
+        super(context, attrs);
+        init();
+    }
+
+    public RadialMenuSurfaceView(Context context, @Nullable AttributeSet attrs, int defStyleAttr) {
+        super(context, attrs, defStyleAttr);
+        init();
+    }
+
+    private void init() {
+        // Transparent around the ring, and above the window so the keyboard background shows through
+        getHolder().setFormat(PixelFormat.TRANSLUCENT);
+        setZOrderOnTop(true);
+        getHolder().addCallback(this);
+    }
+
+    /** Lets {@code thread} draw the {@code side} menu into this view. */
+    public void bind(RadialRenderThread thread, int side) {
+        this.renderThread = thread;
+        this.side = side;
+        if (surfaceReady) {
+            thread.setSurface(side, getHolder(), getWidth(), getHeight());
+        }
+    }
+
+    @Override
+    public void surfaceCreated(@NonNull SurfaceHolder holder) {
+    }
+
+    @Override
+    public void surfaceChanged(@NonNull SurfaceHolder holder, int format, int width, int height) {
+        surfaceReady = true;
+        if (renderThread != null) {
+            renderThread.setSurface(side, holder, width, height);
+        }
+    }
+
+    @Override
+    public void surfaceDestroyed(@NonNull SurfaceHolder holder) {
+        surfaceReady = false;
+        if (renderThread != null) {
+            renderThread.removeSurface(side);
+        }
+    }
+}
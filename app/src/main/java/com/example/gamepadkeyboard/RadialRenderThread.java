@@ -0,0 +1,146 @@
+package com.example.gamepadkeyboard;
+
+import android.graphics.Canvas;
+import android.graphics.PorterDuff;
+import android.os.Handler;
+import android.os.HandlerThread;
+import android.os.Process;
+import android.util.Log;
+import android.view.Choreographer;
+import android.view.SurfaceHolder;
+
+import com.example.gamepadkeyboard.core.CompiledLayout;
+import com.example.gamepadkeyboard.core.RenderHandoff;
+
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicBoolean;
+
+/**
+ * Draws both radial menus into their surfaces on its own thread, so hover feedback keeps up with
+ * the stick even while the main thread is stuck in binder calls to the editor.
+ *
+ * The input side publishes into a {@link RenderHandoff} and calls {@link #requestRender()}. While
+ * awake the thread reads the handoff once per vsync of its own Choreographer and redraws only the
+ * surfaces whose ring or hover changed; after {@link #IDLE_FRAMES} frames without a change it stops
+ * asking for vsyncs until the next request.
+ */
+final class RadialRenderThread extends HandlerThread implements Choreographer.FrameCallback {
+
+    private static final String TAG = "RadialRenderThread";
+    private static final int IDLE_FRAMES = 30;
+    private static final long SURFACE_RELEASE_TIMEOUT_MILLIS = 500;
+
+    private final RenderHandoff handoff;
+    private final AtomicBoolean awake = new AtomicBoolean();
+
+    // Render thread only
+    private final RenderHandoff.Snapshot snapshot = new RenderHandoff.Snapshot();
+    private final SurfaceHolder[] holders = new SurfaceHolder[2];
+    private final RadialMenuRenderer[] renderers = {new RadialMenuRenderer(), new RadialMenuRenderer()};
+    private final CompiledLayout.Ring[] drawnRing = new CompiledLayout.Ring[2];
+    private final int[] drawnHover = {-1, -1};
+    private Choreographer choreographer;
+    private int idleFrames;
+    private long frames, draws;
+
+    private final Handler handler;
+
+    RadialRenderThread(RenderHandoff handoff) {
+        super(TAG, Process.THREAD_PRIORITY_DISPLAY);
+        this.handoff = handoff;
+        start();
+        handler = new Handler(getLooper());
+        handler.post(() -> choreographer = Choreographer.getInstance());
+    }
+
+    /** Wakes the thread after something was published. Any thread; cheap if already awake. */
+    void requestRender() {
+        if (awake.compareAndSet(false, true)) {
+            handler.post(this::wake);
+        }
+    }
+
+    /** A side's surface was created or resized. Main thread. */
+    void setSurface(int side, SurfaceHolder holder, int width, int height) {
+        handler.post(() -> {
+            holders[side] = holder;
+            renderers[side].setSize(width, height);
+            drawnRing[side] = null; // Fresh or resized surface, draw it whatever the handoff says
+        });
+        awake.set(true);
+        handler.post(this::wake);
+    }
+
+    /**
+     * A side's surface is going away. Main thread; blocks until the render thread no longer draws
+     * into it, as SurfaceHolder.Callback.surfaceDestroyed requires.
+     */
+    void removeSurface(int side) {
+        CountDownLatch released = new CountDownLatch(1);
+        handler.post(() -> {
+            holders[side] = null;
+            released.countDown();
+        });
+        try {
+            if (!released.await(SURFACE_RELEASE_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                Log.w(TAG, "Render thread did not release surface " + side);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void wake() {
+        idleFrames = 0;
+        choreographer.removeFrameCallback(this);
+        choreographer.postFrameCallback(this);
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frames++;
+        boolean changed = handoff.read(snapshot);
+        for (int side = CompiledLayout.LEFT; side <= CompiledLayout.RIGHT; side++) {
+            CompiledLayout.Ring ring = snapshot.ring(side);
+            int hover = snapshot.hover(side);
+            if (holders[side] != null && (ring != drawnRing[side] || hover != drawnHover[side])) {
+                draw(side, ring, hover);
+                changed = true;
+            }
+        }
+        if (changed) {
+            idleFrames = 0;
+        } else if (++idleFrames >= IDLE_FRAMES) {
+            awake.set(false);
+            // A publish that saw us awake did not post a wake, so look once more before sleeping
+            if (!handoff.hasChanged(snapshot) || !awake.compareAndSet(false, true)) {
+                return;
+            }
+            idleFrames = 0;
+        }
+        choreographer.postFrameCallback(this);
+    }
+
+    private void draw(int side, CompiledLayout.Ring ring, int hover) {
+        SurfaceHolder holder = holders[side];
+        Canvas canvas = holder.getSurface().isValid() ? holder.lockHardwareCanvas() : null;
+        if (canvas == null) {
+            return;
+        }
+        try {
+            canvas.drawColor(0, PorterDuff.Mode.CLEAR);
+            renderers[side].draw(canvas, ring, hover);
+        } finally {
+            holder.unlockCanvasAndPost(canvas);
+        }
+        drawnRing[side] = ring;
+        drawnHover[side] = hover;
+        draws++;
+    }
+
+    @Override
+    public String toString() {
+        return "RadialRenderThread{awake=" + awake.get() + ", frames=" + frames + ", draws=" + draws + "}";
+    }
+}
@@ -0,0 +1,132 @@
+package com.example.gamepadkeyboard;
+
+import android.view.Choreographer;
+import android.view.Display;
+import android.view.View;
+
+import com.example.gamepadkeyboard.core.LatencyHistogram;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * How often one view is asked to change, how often that turns into an invalidate, how long its
+ * onDraw takes, and how many frames went by late while it was redrawing.
+ *
+ * Everything is allocated with the view: counters are plain longs written on the main thread and
+ * read racily by dump(), and draw times go into a {@link LatencyHistogram}. Dropped frames are
+ * counted by following the Choreographer only while the view keeps invalidating: each vsync that
+ * sees a new invalidate posts the next callback, and the gap between two callbacks, in frame
+ * intervals, says how many frames were missed. An idle view posts no callbacks.
+ */
+final class RenderMetrics implements Choreographer.FrameCallback {
+
+    private static final long DEFAULT_FRAME_INTERVAL_NANOS = 16_666_667; // 60 Hz until attached
+
+    private final String name;
+    private final LatencyHistogram drawNanos = new LatencyHistogram();
+    private long updates, invalidations, draws;
+    private long frames, droppedFrames;
+
+    // Frame tracking, main thread only
+    private Choreographer choreographer;
+    private long frameIntervalNanos = DEFAULT_FRAME_INTERVAL_NANOS;
+    private boolean framePosted;
+    private long lastFrameNanos; // 0 when the previous vsync is not being followed
+    private long invalidationsAtFrame;
+
+    RenderMetrics(String name) {
+        this.name = name;
+    }
+
+    /** Takes the frame interval from the view's display. Call from onAttachedToWindow. */
+    void attach(View view) {
+        Display display = view.getDisplay();
+        if (display != null && display.getRefreshRate() > 0) {
+            frameIntervalNanos = (long) (1e9 / display.getRefreshRate());
+        }
+    }
+
+    /** The view was asked to show something, whether or not it changed. */
+    void onUpdate() {
+        updates++;
+    }
+
+    /** The view invalidated itself; starts following vsyncs if it was idle. */
+    void onInvalidate() {
+        invalidations++;
+        if (!framePosted) {
+            if (choreographer == null) {
+                choreographer = Choreographer.getInstance();
+            }
+            framePosted = true;
+            invalidationsAtFrame = invalidations;
+            choreographer.postFrameCallback(this);
+        }
+    }
+
+    /** @return the start time to hand to {@link #endDraw}. */
+    long beginDraw() {
+        return System.nanoTime();
+    }
+
+    void endDraw(long startNanos) {
+        drawNanos.recordNanos(System.nanoTime() - startNanos);
+        draws++;
+    }
+
+    @Override
+    public void doFrame(long frameTimeNanos) {
+        frames++;
+        if (lastFrameNanos != 0) {
+            long missed = (frameTimeNanos - lastFrameNanos + frameIntervalNanos / 2) / frameIntervalNanos - 1;
+            if (missed > 0) {
+                droppedFrames += missed;
+            }
+        }
+        if (invalidations != invalidationsAtFrame) {
+            // Still changing: keep following so the next gap can be measured
+            lastFrameNanos = frameTimeNanos;
+            invalidationsAtFrame = invalidations;
+            choreographer.postFrameCallback(this);
+        } else {
+            lastFrameNanos = 0;
+            framePosted = false;
+        }
+    }
+
+    long getUpdates() {
+        return updates;
+    }
+
+    long getInvalidations() {
+        return invalidations;
+    }
+
+    long getDraws() {
+        return draws;
+    }
+
+    long getDroppedFrames() {
+        return droppedFrames;
+    }
+
+    LatencyHistogram getDrawNanos() {
+        return drawNanos;
+    }
+
+    void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + name + ": updates=" + updates
+                + " invalidations=" + invalidations
+                + " draws=" + draws
+                + " frames=" + frames
+                + " droppedFrames=" + droppedFrames);
+        writer.println(prefix + "  onDraw: p50=" + millis(drawNanos.getPercentileNanos(50))
+                + " p99=" + millis(drawNanos.getPercentileNanos(99))
+                + " max=" + millis(drawNanos.getMaxNanos()));
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / 1e6);
+    }
+}
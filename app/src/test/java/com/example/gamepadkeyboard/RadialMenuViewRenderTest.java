@@ -0,0 +1,125 @@
+package com.example.gamepadkeyboard;
+
+import android.graphics.Bitmap;
+import android.graphics.Canvas;
+import android.view.View;
+
+import com.example.gamepadkeyboard.core.CompiledLayout;
+
+import org.junit.Before;
+import org.junit.Test;
+import org.junit.runner.RunWith;
+import org.robolectric.RobolectricTestRunner;
+import org.robolectric.RuntimeEnvironment;
+import org.robolectric.annotation.GraphicsMode;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * Sweeps a stick around the radial menu and draws the view offscreen the way the frame loop
+ * would: once per frame, and only if the view is dirty, that is invalidated since it last drew.
+ * A sweep must cost about one draw per slice crossed, however many samples the stick reports.
+ * Draws and invalidates are checked apart, since several invalidates in one frame make one draw.
+ */
+@RunWith(RobolectricTestRunner.class)
+@GraphicsMode(GraphicsMode.Mode.NATIVE)
+public class RadialMenuViewRenderTest {
+
+    private static final int SIZE = 400;
+    private static final int SLICES = 8;
+    private static final int SAMPLES_PER_FRAME = 4; // Batched motion history, as from a 250 Hz pad
+    private static final String[] KEYS = {"a", "b", "c", "d", "e", "f", "g", "h"};
+
+    private final Canvas canvas = new Canvas(Bitmap.createBitmap(SIZE, SIZE, Bitmap.Config.ARGB_8888));
+    private RadialMenuView view;
+
+    @Before
+    public void setUp() {
+        view = new RadialMenuView(RuntimeEnvironment.getApplication());
+        view.measure(View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY),
+                View.MeasureSpec.makeMeasureSpec(SIZE, View.MeasureSpec.EXACTLY));
+        view.layout(0, 0, SIZE, SIZE);
+        CompiledLayout layout = new CompiledLayout.Builder(1)
+                .setKeys(0, false, false, CompiledLayout.LEFT, KEYS)
+                .build();
+        view.setRing(layout.ring(0, false, false, CompiledLayout.LEFT));
+        view.draw(canvas); // The first frame after layout, which leaves the view clean
+    }
+
+    @Test
+    public void sweepDrawsOncePerSliceCrossed() {
+        int revolutions = 2;
+        int samples = 360 * revolutions;
+        RenderMetrics metrics = view.getRenderMetrics();
+        long drawsBefore = metrics.getDraws();
+        long invalidationsBefore = metrics.getInvalidations();
+        for (int i = 0; i < samples; i++) {
+            double angle = Math.toRadians(i);
+            view.updateHover((float) Math.sin(angle), (float) -Math.cos(angle));
+            if (i % SAMPLES_PER_FRAME == SAMPLES_PER_FRAME - 1) {
+                frame();
+            }
+        }
+        frame();
+
+        long draws = metrics.getDraws() - drawsBefore;
+        assertTrue("Sweep drew " + draws + " times", draws <= SLICES * revolutions + 1);
+        assertTrue("Sweep drew " + draws + " times", draws >= SLICES * revolutions);
+        long invalidations = metrics.getInvalidations() - invalidationsBefore;
+        assertTrue("Sweep invalidated " + invalidations + " times", invalidations <= SLICES * revolutions + 1);
+        assertTrue("Sweep invalidated " + invalidations + " times", invalidations >= draws);
+        assertEquals(metrics.getDraws(), metrics.getDrawNanos().getCount());
+    }
+
+    @Test
+    public void invalidatesWithinOneFrameDrawOnce() {
+        RenderMetrics metrics = view.getRenderMetrics();
+        long draws = metrics.getDraws();
+        long invalidations = metrics.getInvalidations();
+        view.setHoveredSlice(0);
+        view.setHoveredSlice(1);
+        view.setHoveredSlice(2);
+        assertEquals(invalidations + 3, metrics.getInvalidations());
+        assertEquals(draws, metrics.getDraws());
+        frame();
+        assertEquals(draws + 1, metrics.getDraws());
+        frame();
+        assertEquals(draws + 1, metrics.getDraws());
+    }
+
+    @Test
+    public void stickHeldStillDoesNotRedraw() {
+        view.updateHover(0f, -1f);
+        frame();
+        RenderMetrics metrics = view.getRenderMetrics();
+        long draws = metrics.getDraws();
+        long invalidations = metrics.getInvalidations();
+        long updates = metrics.getUpdates();
+        for (int i = 0; i < 100; i++) {
+            view.updateHover(0.01f * (i % 3), -1f); // Jitter inside one slice
+            frame();
+        }
+        assertEquals(updates + 100, metrics.getUpdates());
+        assertEquals(invalidations, metrics.getInvalidations());
+        assertEquals(draws, metrics.getDraws());
+    }
+
+    @Test
+    public void sameRingDoesNotRedraw() {
+        RenderMetrics metrics = view.getRenderMetrics();
+        long invalidations = metrics.getInvalidations();
+        long draws = metrics.getDraws();
+        view.setRing(view.getRing());
+        frame();
+        assertEquals(invalidations, metrics.getInvalidations());
+        assertEquals(draws, metrics.getDraws());
+    }
+
+    /** One vsync: draws if the view was invalidated since it last drew. */
+    private void frame() {
+        if (view.isDirty()) {
+            view.draw(canvas);
+        }
+    }
+}
@@ -0,0 +1,83 @@
+// Plain JVM module for the Android-free parts of the keyboard, so they can be tested
+// (./gradlew :core:test), benchmarked (./gradlew :core:jmh) and reused without an emulator.
+plugins {
+    `java-library`
+    alias(libs.plugins.jmh)
+}
+
+java {
+    sourceCompatibility = JavaVersion.VERSION_11
+    targetCompatibility = JavaVersion.VERSION_11
+}
+
+dependencies {
+    api(libs.jackson.core)
+    api(libs.jackson.annotations)
+    testImplementation(libs.junit)
+    jmh(libs.jackson.databind)
+}
+
+jmh {
+    jmhVersion.set(libs.versions.jmh)
+}
+
+// Retained heap of the databind and streaming layout loaders, which JMH does not measure
+tasks.register<JavaExec>("layoutHeapReport") {
+    group = "verification"
+    classpath = sourceSets["jmh"].runtimeClasspath
+    mainClass.set("com.example.gamepadkeyboard.core.LayoutHeapReport")
+}
+
+// Headless replay of a trace recorded on a device (see GamepadTrace), for throughput checks on CI:
+//   ./gradlew :core:replayTrace -Ptrace=session.gpkt [-Playout=...] [-Pdictionary=...]
+tasks.register<JavaExec>("replayTrace") {
+    group = "verification"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.gamepadkeyboard.core.TraceReplay")
+    // Paths are relative to the root project
+    fun path(property: String, default: String) =
+        rootProject.file(providers.gradleProperty(property).getOrElse(default)).path
+    args(
+        path("trace", "trace.gpkt"),
+        path("layout", "app/src/main/layouts/default.json"),
+        path("dictionary", "app/src/main/dictionaries/en.txt")
+    )
+}
+
+// Simulated typist typing a corpus on one or more layouts, printed as key=value blocks:
+//   ./gradlew :core:simulateTypist [-Playouts=a.json,b.gpkl] [-Pcorpus=text.txt]
+tasks.register<JavaExec>("simulateTypist") {
+    group = "verification"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.gamepadkeyboard.core.TypistSimulation")
+    // Paths are relative to the root project
+    val layouts = providers.gradleProperty("layouts").getOrElse("app/src/main/layouts/default.json")
+    args(
+        listOf(rootProject.file(providers.gradleProperty("corpus").getOrElse("core/corpus/en.txt")).path)
+                + layouts.split(',').map { rootProject.file(it.trim()).path }
+    )
+}
+
+// Parallel annealing search for a faster layout on a corpus, written as JSON and then compared
+// with the input by the simulated typist:
+//   ./gradlew :core:optimizeLayout [-Playout=...] [-Pcorpus=...] [-Poutput=...] [-Pchains=16 -Piterations=2000000]
+tasks.register<JavaExec>("optimizeLayout") {
+    group = "verification"
+    classpath = sourceSets["main"].runtimeClasspath
+    mainClass.set("com.example.gamepadkeyboard.core.LayoutOptimizer")
+    // Paths are relative to the root project, except the output, which goes under core/build
+    fun path(property: String, default: String) =
+        rootProject.file(providers.gradleProperty(property).getOrElse(default)).path
+    val chains = providers.gradleProperty("chains").orNull
+    val iterations = providers.gradleProperty("iterations").orNull
+    args(
+        listOfNotNull(
+            path("corpus", "core/corpus/en.txt"),
+            path("layout", "app/src/main/layouts/default.json"),
+            providers.gradleProperty("output").map { rootProject.file(it).path }
+                .getOrElse(layout.buildDirectory.file("optimized-layout.json").get().asFile.path),
+            chains ?: iterations?.let { "0" },
+            iterations
+        )
+    )
+}
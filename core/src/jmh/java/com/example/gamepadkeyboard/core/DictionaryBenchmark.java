@@ -0,0 +1,80 @@
+package com.example.gamepadkeyboard.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Top-3 completion for short prefixes against a synthetic 200k word dictionary, i.e. the work done
+ * for every committed letter. The image is read from a direct buffer like the mapped asset.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class DictionaryBenchmark {
+
+    private static final int WORD_COUNT = 200_000;
+    private static final int PREFIX_COUNT = 1024;
+
+    @Param({"1", "2", "4"})
+    public int prefixLength;
+
+    private WordDictionary dictionary;
+    private final StringBuilder[] results = new StringBuilder[3];
+    private final String[] prefixes = new String[PREFIX_COUNT];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        Set<String> words = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        while (words.size() < WORD_COUNT) {
+            word.setLength(0);
+            int length = 2 + random.nextInt(10);
+            for (int i = 0; i < length; i++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words.add(word.toString());
+        }
+        List<String> wordList = new ArrayList<>(words);
+        byte[] image = DictionaryCompiler.compile(wordList);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(image.length);
+        buffer.put(image).flip();
+        dictionary = WordDictionary.read(buffer);
+
+        for (int i = 0; i < PREFIX_COUNT; i++) {
+            String source = wordList.get(random.nextInt(wordList.size()));
+            prefixes[i] = source.substring(0, Math.min(prefixLength, source.length()));
+        }
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new StringBuilder(WordDictionary.MAX_WORD_LENGTH);
+        }
+    }
+
+    @Benchmark
+    public int complete() {
+        next = (next + 1) & (PREFIX_COUNT - 1);
+        return dictionary.complete(prefixes[next], results);
+    }
+}
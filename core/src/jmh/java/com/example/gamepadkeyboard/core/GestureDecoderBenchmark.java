@@ -0,0 +1,98 @@
+package com.example.gamepadkeyboard.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Random;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Decoding one gesture against a synthetic 100k word dictionary, which has to fit in a frame
+ * (8 ms) since it runs when L1 is released. Paths spell a dictionary word with a transit visit
+ * between most letters, like a stick sweeping around the ring.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class GestureDecoderBenchmark {
+
+    private static final int WORD_COUNT = 100_000;
+    private static final int PATH_COUNT = 256;
+    private static final long VISIT_NANOS = 120_000_000L;
+    private static final long TRANSIT_NANOS = 20_000_000L;
+
+    @Param({"4", "8"})
+    public int wordLength;
+
+    private GestureDecoder decoder;
+    private final GesturePath[] paths = new GesturePath[PATH_COUNT];
+    private final StringBuilder[] results = new StringBuilder[4];
+    private int next;
+
+    @Setup
+    public void setUp() throws IOException {
+        Random random = new Random(42);
+        Set<String> words = new LinkedHashSet<>();
+        StringBuilder word = new StringBuilder();
+        while (words.size() < WORD_COUNT) {
+            word.setLength(0);
+            int length = 2 + random.nextInt(10);
+            for (int i = 0; i < length; i++) {
+                word.append((char) ('a' + random.nextInt(26)));
+            }
+            words.add(word.toString());
+        }
+        List<String> wordList = new ArrayList<>(words);
+        byte[] image = DictionaryCompiler.compile(wordList);
+        ByteBuffer buffer = ByteBuffer.allocateDirect(image.length);
+        buffer.put(image).flip();
+        CompiledLayout layout = StreamingLayoutLoader.load(LayoutFixtures.layoutJson(3));
+        decoder = new GestureDecoder(WordDictionary.read(buffer), layout);
+
+        for (int p = 0; p < PATH_COUNT; p++) {
+            String source;
+            do {
+                source = wordList.get(random.nextInt(wordList.size()));
+            } while (source.length() != wordLength);
+            GesturePath path = new GesturePath();
+            path.begin();
+            long time = 0;
+            for (int i = 0; i < source.length(); i++) {
+                path.visit(String.valueOf(source.charAt(i)), time);
+                time += VISIT_NANOS;
+                if (i + 1 < source.length() && random.nextBoolean()) {
+                    path.visit(String.valueOf((char) ('a' + random.nextInt(26))), time);
+                    time += TRANSIT_NANOS;
+                }
+            }
+            paths[p] = path;
+        }
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new StringBuilder(WordDictionary.MAX_WORD_LENGTH);
+        }
+    }
+
+    @Benchmark
+    public int decode() {
+        next = (next + 1) & (PATH_COUNT - 1);
+        return decoder.decode(paths[next], results);
+    }
+}
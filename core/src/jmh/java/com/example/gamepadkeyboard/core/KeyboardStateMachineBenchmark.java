@@ -0,0 +1,59 @@
+package com.example.gamepadkeyboard.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Cost of one button transition: a fixed press/release sequence covering layer cycling, case
+ * toggling, the alt triggers, commits and delete repeat, run through the state machine.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class KeyboardStateMachineBenchmark {
+
+    private static final int[] KEYS = {
+            KeyboardStateMachine.KEYCODE_BUTTON_A,
+            KeyboardStateMachine.KEYCODE_DPAD_UP,
+            KeyboardStateMachine.KEYCODE_BUTTON_L1,
+            KeyboardStateMachine.KEYCODE_BUTTON_L2,
+            KeyboardStateMachine.KEYCODE_BUTTON_L1,
+            KeyboardStateMachine.KEYCODE_BUTTON_R2,
+            KeyboardStateMachine.KEYCODE_BUTTON_Y,
+            KeyboardStateMachine.KEYCODE_BUTTON_X,
+            KeyboardStateMachine.KEYCODE_BUTTON_B,
+    };
+
+    private final KeyboardStateMachine stateMachine = new KeyboardStateMachine();
+
+    @Setup
+    public void setUp() {
+        stateMachine.setLayerCount(3);
+    }
+
+    /** Returns the folded actions and final state so nothing is dead-code eliminated. */
+    @Benchmark
+    public int pressAndReleaseAll() {
+        int actions = 0;
+        for (int keyCode : KEYS) {
+            actions += stateMachine.onKeyDown(keyCode, 0);
+            actions += stateMachine.onKeyUp(keyCode);
+        }
+        actions += stateMachine.onHat(-1, 0);
+        actions += stateMachine.onHat(0, 0);
+        return actions ^ stateMachine.getState();
+    }
+}
@@ -0,0 +1,55 @@
+package com.example.gamepadkeyboard.core;
+
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Synthetic layout JSON in the RadialMenuSet schema, shaped like the default layout but with as
+ * many layers as a benchmark asks for.
+ */
+final class LayoutFixtures {
+
+    private static final String[] LOWER = {
+            "q", "w", "e", "r", "t", "y", "u", "i", "o", "p", "a", "s", "d", "f"};
+    private static final String[] UPPER = {
+            "Q", "W", "E", "R", "T", "Y", "U", "I", "O", "P", "A", "S", "D", "F"};
+
+    private LayoutFixtures() {
+    }
+
+    static byte[] layoutJson(int layerCount) {
+        StringBuilder json = new StringBuilder("[\n");
+        for (int layer = 0; layer < layerCount; layer++) {
+            json.append("  {");
+            appendPair(json, "base", layer);
+            json.append(',');
+            appendPair(json, "alt", layer + 1);
+            json.append("}").append(layer + 1 < layerCount ? ",\n" : "\n");
+        }
+        return json.append("]").toString().getBytes(StandardCharsets.UTF_8);
+    }
+
+    private static void appendPair(StringBuilder json, String name, int seed) {
+        json.append('"').append(name).append("\": {");
+        appendKeys(json, "left", seed);
+        json.append(',');
+        appendKeys(json, "right", seed + 3);
+        json.append('}');
+    }
+
+    private static void appendKeys(StringBuilder json, String side, int seed) {
+        int count = 5 + seed % 10; // Ring sizes vary like the hand-made layouts do
+        json.append('"').append(side).append("\": {\"lower\": ");
+        appendArray(json, LOWER, count);
+        json.append(", \"upper\": ");
+        appendArray(json, UPPER, count);
+        json.append('}');
+    }
+
+    private static void appendArray(StringBuilder json, String[] keys, int count) {
+        json.append('[');
+        for (int i = 0; i < count; i++) {
+            json.append(i > 0 ? ", \"" : "\"").append(keys[i % keys.length]).append('"');
+        }
+        json.append(']');
+    }
+}
@@ -0,0 +1,66 @@
+package com.example.gamepadkeyboard.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import java.util.List;
+
+/**
+ * Prints the heap retained per loaded layout, after layer 0 has been shown, for the databind path
+ * and for {@link StreamingLayoutLoader}. Run with ./gradlew :core:layoutHeapReport.
+ */
+public final class LayoutHeapReport {
+
+    private static final int COPIES = 50; // Enough copies to drown out GC noise
+
+    private interface Loader {
+        Object load(byte[] json) throws Exception;
+    }
+
+    public static void main(String[] args) throws Exception {
+        ObjectMapper objectMapper = new ObjectMapper();
+        Loader databind = json -> {
+            List<RadialMenuSet> menuSets = objectMapper.readValue(
+                    json, new TypeReference<List<RadialMenuSet>>() {});
+            CompiledLayout layout = RadialMenuSet.compile(menuSets);
+            layout.ring(0, false, false, CompiledLayout.LEFT);
+            return layout;
+        };
+        Loader streaming = json -> {
+            CompiledLayout layout = StreamingLayoutLoader.load(json);
+            layout.ring(0, false, false, CompiledLayout.LEFT);
+            return layout;
+        };
+
+        System.out.println("layers,loader,retainedBytes");
+        for (int layerCount : new int[]{3, 30, 300}) {
+            byte[] json = LayoutFixtures.layoutJson(layerCount);
+            // The streaming loader keeps the file bytes; count them against it
+            System.out.println(layerCount + ",databind," + retained(databind, json, 0));
+            System.out.println(layerCount + ",streaming," + retained(streaming, json, json.length));
+        }
+    }
+
+    private static long retained(Loader loader, byte[] json, long sharedBytes) throws Exception {
+        loader.load(json); // Class loading and warm-up out of the measurement
+        Object[] keep = new Object[COPIES];
+        long before = usedHeap();
+        for (int i = 0; i < COPIES; i++) {
+            keep[i] = loader.load(json);
+        }
+        long after = usedHeap();
+        if (keep[COPIES - 1] == null) {
+            throw new IllegalStateException();
+        }
+        return (after - before) / COPIES + sharedBytes;
+    }
+
+    private static long usedHeap() throws InterruptedException {
+        Runtime runtime = Runtime.getRuntime();
+        for (int i = 0; i < 3; i++) {
+            System.gc();
+            Thread.sleep(50);
+        }
+        return runtime.totalMemory() - runtime.freeMemory();
+    }
+}
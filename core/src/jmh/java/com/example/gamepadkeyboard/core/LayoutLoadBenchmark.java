@@ -0,0 +1,61 @@
+package com.example.gamepadkeyboard.core;
+
+import com.fasterxml.jackson.core.type.TypeReference;
+import com.fasterxml.jackson.databind.ObjectMapper;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Time to first frame for a layout file: load it and fetch both rings of layer 0, which is what
+ * the input view needs before it can draw. Compares the databind path (whole tree, then compile
+ * every layer) with {@link StreamingLayoutLoader}. Run layoutHeapReport for retained heap.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class LayoutLoadBenchmark {
+
+    @Param({"3", "30", "300"})
+    public int layerCount;
+
+    private final ObjectMapper objectMapper = new ObjectMapper();
+    private byte[] json;
+
+    @Setup
+    public void setUp() {
+        json = LayoutFixtures.layoutJson(layerCount);
+    }
+
+    @Benchmark
+    public CompiledLayout.Ring databindFirstFrame() throws IOException {
+        List<RadialMenuSet> menuSets = objectMapper.readValue(
+                json, new TypeReference<List<RadialMenuSet>>() {});
+        CompiledLayout layout = RadialMenuSet.compile(menuSets);
+        layout.ring(0, false, false, CompiledLayout.LEFT);
+        return layout.ring(0, false, false, CompiledLayout.RIGHT);
+    }
+
+    @Benchmark
+    public CompiledLayout.Ring streamingFirstFrame() throws IOException {
+        CompiledLayout layout = StreamingLayoutLoader.load(json);
+        layout.ring(0, false, false, CompiledLayout.LEFT);
+        return layout.ring(0, false, false, CompiledLayout.RIGHT);
+    }
+}
@@ -0,0 +1,115 @@
+package com.example.gamepadkeyboard.core;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares {@link SliceResolver} with the atan2 math it replaced in RadialMenuView.updateHover
+ * (centered slices) and in the right-stick layer selection (slices starting at the top).
+ * Each invocation resolves a whole batch of stick samples, roughly one second of 1 kHz polling.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class SliceResolverBenchmark {
+
+    private static final int SAMPLES = 1024;
+
+    @Param({"3", "10", "14"})
+    public int sliceCount;
+
+    private final float[] xs = new float[SAMPLES];
+    private final float[] ys = new float[SAMPLES];
+    private SliceResolver hoverResolver;
+    private SliceResolver layerResolver;
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(42);
+        for (int i = 0; i < SAMPLES; i++) {
+            xs[i] = random.nextFloat() * 2f - 1f;
+            ys[i] = random.nextFloat() * 2f - 1f;
+        }
+        hoverResolver = new SliceResolver(sliceCount, true);
+        layerResolver = new SliceResolver(sliceCount, false);
+    }
+
+    @Benchmark
+    public int hoverAtan2() {
+        int sum = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            sum += atan2Hover(xs[i], ys[i], sliceCount);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int hoverResolver() {
+        int sum = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            sum += hoverResolver.resolve(xs[i], ys[i]);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int layerAtan2() {
+        int sum = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            sum += atan2Layer(xs[i], ys[i], sliceCount);
+        }
+        return sum;
+    }
+
+    @Benchmark
+    public int layerResolver() {
+        int sum = 0;
+        for (int i = 0; i < SAMPLES; i++) {
+            sum += layerResolver.resolve(xs[i], ys[i]);
+        }
+        return sum;
+    }
+
+    // The previous RadialMenuView.updateHover math.
+    private static int atan2Hover(float x, float y, int count) {
+        if (x == 0 && y == 0) {
+            return -1;
+        }
+        float angleDegrees = (float) Math.toDegrees(Math.atan2(y, x));
+        if (angleDegrees < 0) {
+            angleDegrees += 360;
+        }
+        float sweepAngle = 360f / count;
+        float adjustedAngle = angleDegrees - (-90f - (sweepAngle / 2f));
+        if (adjustedAngle < 0) {
+            adjustedAngle += 360;
+        }
+        if (adjustedAngle >= 360) {
+            adjustedAngle -= 360;
+        }
+        int index = (int) (adjustedAngle / sweepAngle);
+        return index >= count ? count - 1 : index;
+    }
+
+    // The previous CustomKeyboardApp.onGenericMotionEvent layer math.
+    private static int atan2Layer(float rx, float ry, int count) {
+        float angleDegrees = ((180 - (float) Math.toDegrees(Math.atan2(rx, ry)) + 360) % 360);
+        double sliceDegrees = 360.0 / (double) count;
+        return (int) Math.floor(angleDegrees / sliceDegrees);
+    }
+}
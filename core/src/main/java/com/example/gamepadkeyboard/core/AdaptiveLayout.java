@@ -0,0 +1,177 @@
+package com.example.gamepadkeyboard.core;
+
+import java.util.Arrays;
+
+/**
+ * Reorders a layout by how much each key is used, so the keys committed most sit where they are
+ * quickest to reach: on layer 0, which needs no right stick, and within a ring on the slices
+ * closest to straight up, right, down or left, which need no diagonal stick motion.
+ *
+ * Keys only move within their group of rings, the same (alt, side) across all layers, so a key
+ * never changes stick or modifier. A slice's lower and upper key move as one, ranked by how much
+ * both were used together, so a letter and its capital always share a slice. Ring sizes stay as
+ * they are. Keys that were never used keep their slice where they can, so a reordering with little
+ * data moves little.
+ *
+ * The result is a slot map in the terms of {@link KeyUsageStats}: entry {@code s} is the base slot
+ * whose key goes on slot {@code s}. Both methods only read the base layout, so they can run on a
+ * background thread once the layout is fully materialized.
+ */
+public final class AdaptiveLayout {
+
+    /** Below this many commits the counts say more about the last few sentences than the user. */
+    public static final int MIN_COMMITS = 500;
+
+    // Which cases a layer's rings come in, as reorderGroup sorts them
+    private static final int LOWER = 1;
+    private static final int UPPER = 2;
+    private static final int BOTH_CASES = LOWER | UPPER;
+
+    private AdaptiveLayout() {
+    }
+
+    /**
+     * Computes the ordering for the usage in {@code counts}, a {@link KeyUsageStats#snapshot()}
+     * taken on {@code base}.
+     *
+     * @return the slot map, or null if every key is already where it should be.
+     */
+    public static int[] reorder(CompiledLayout base, int[] counts) {
+        int[] map = new int[counts.length];
+        for (int slot = 0; slot < map.length; slot++) {
+            map[slot] = slot;
+        }
+        boolean moved = false;
+        for (int group = 0; group < 4; group++) {
+            for (int cases = LOWER; cases <= BOTH_CASES; cases++) {
+                moved |= reorderGroup(base, counts, (group & 2) != 0, group & 1, cases, map);
+            }
+        }
+        return moved ? map : null;
+    }
+
+    /**
+     * Reorders the layers of one (alt, side) group whose rings come in {@code cases}. With both
+     * cases, a slice is one position holding a lower and an upper key, ranked by their combined
+     * usage and moved together.
+     */
+    private static boolean reorderGroup(CompiledLayout base, int[] counts, boolean alt, int side, int cases,
+                                        int[] map) {
+        // Every position of the group, as (ease << 32 | position) and (usage << 32 | position)
+        int layers = base.getLayerCount();
+        int capacity = layers * KeyUsageStats.MAX_SLICES;
+        int[] lowerSlot = new int[capacity];
+        int[] upperSlot = new int[capacity];
+        long[] byEase = new long[capacity];
+        long[] byUsage = new long[capacity];
+        int positions = 0;
+        int used = 0;
+        for (int layer = 0; layer < layers; layer++) {
+            int lowerSize = Math.min(base.ring(layer, alt, false, side).size(), KeyUsageStats.MAX_SLICES);
+            int upperSize = Math.min(base.ring(layer, alt, true, side).size(), KeyUsageStats.MAX_SLICES);
+            if (((lowerSize > 0 ? LOWER : 0) | (upperSize > 0 ? UPPER : 0)) != cases) {
+                continue;
+            }
+            // Where the two cases differ in size, the slices only one of them has stay put
+            int size = cases == BOTH_CASES ? Math.min(lowerSize, upperSize) : Math.max(lowerSize, upperSize);
+            int ringSize = lowerSize > 0 ? lowerSize : upperSize;
+            for (int slice = 0; slice < size; slice++) {
+                int position = positions++;
+                lowerSlot[position] = lowerSize > 0 ? KeyUsageStats.slot(layer, alt, false, side, slice) : -1;
+                upperSlot[position] = upperSize > 0 ? KeyUsageStats.slot(layer, alt, true, side, slice) : -1;
+                byEase[position] = ((long) ((layer << 12) | cardinalDistance(slice, ringSize)) << 32) | position;
+                long usage = countAt(counts, lowerSlot[position]) + countAt(counts, upperSlot[position]);
+                if (usage > 0) {
+                    byUsage[used++] = ((long) (Integer.MAX_VALUE - (int) Math.min(usage, Integer.MAX_VALUE)) << 32)
+                            | position;
+                }
+            }
+        }
+        if (used == 0) {
+            return false;
+        }
+        // Ties go to the lower position, so equal keys keep their relative order
+        Arrays.sort(byEase, 0, positions);
+        Arrays.sort(byUsage, 0, used);
+
+        int[] source = new int[positions];
+        boolean[] taken = new boolean[positions];
+        boolean[] placed = new boolean[positions];
+        for (int i = 0; i < used; i++) {
+            int target = (int) byEase[i];
+            int from = (int) byUsage[i];
+            source[target] = from;
+            taken[target] = placed[from] = true;
+        }
+        // Unused keys stay put if their position is free, the rest fill the free positions in order
+        for (int position = 0; position < positions; position++) {
+            if (!taken[position] && !placed[position]) {
+                source[position] = position;
+                taken[position] = placed[position] = true;
+            }
+        }
+        int next = 0;
+        for (int position = 0; position < positions; position++) {
+            if (!taken[position]) {
+                while (placed[next]) {
+                    next++;
+                }
+                source[position] = next++;
+            }
+        }
+
+        // One permutation for both cases
+        boolean moved = false;
+        for (int position = 0; position < positions; position++) {
+            int from = source[position];
+            if (lowerSlot[position] >= 0) {
+                map[lowerSlot[position]] = lowerSlot[from];
+            }
+            if (upperSlot[position] >= 0) {
+                map[upperSlot[position]] = upperSlot[from];
+            }
+            moved |= from != position;
+        }
+        return moved;
+    }
+
+    private static long countAt(int[] counts, int slot) {
+        return slot >= 0 ? counts[slot] : 0;
+    }
+
+    /**
+     * How far the center of a slice is from the nearest of the four stick directions, in units of
+     * 1/size degree. Slice 0 is centered on 12 o'clock, as on the radial menus.
+     */
+    static int cardinalDistance(int slice, int size) {
+        int quarter = 90 * size;
+        int offset = (slice * 360) % quarter;
+        return Math.min(offset, quarter - offset);
+    }
+
+    /** Builds the layout a slot map from {@link #reorder} describes. */
+    public static CompiledLayout apply(CompiledLayout base, int[] slotMap) {
+        int layers = base.getLayerCount();
+        CompiledLayout.Builder builder = new CompiledLayout.Builder(layers);
+        for (int layer = 0; layer < layers; layer++) {
+            for (int variant = 0; variant < 8; variant++) {
+                boolean alt = (variant & 4) != 0;
+                boolean upper = (variant & 2) != 0;
+                CompiledLayout.Ring ring = base.ring(layer, alt, upper, variant & 1);
+                String[] keys = new String[ring.size()];
+                for (int slice = 0; slice < keys.length; slice++) {
+                    int slot = KeyUsageStats.slot(layer, alt, upper, variant & 1, slice);
+                    keys[slice] = slot < 0 ? ring.key(slice) : keyAt(base, slotMap[slot]);
+                }
+                builder.setKeys(layer, alt, upper, variant & 1, keys);
+            }
+        }
+        return builder.build();
+    }
+
+    private static String keyAt(CompiledLayout base, int slot) {
+        int index = slot / KeyUsageStats.MAX_SLICES;
+        return base.ring(index >> 3, (index & 4) != 0, (index & 2) != 0, index & 1)
+                .key(slot % KeyUsageStats.MAX_SLICES);
+    }
+}
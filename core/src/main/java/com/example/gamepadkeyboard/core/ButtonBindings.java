@@ -0,0 +1,251 @@
+package com.example.gamepadkeyboard.core;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.Locale;
+import java.util.Map;
+
+/**
+ * Which keyboard action each button performs, as a dense table indexed by key code, so finding a
+ * button's action is one array read. Tables are immutable and shared; a {@link Config} holds the
+ * one for every controller, built once per config from the defaults and the user's overrides.
+ *
+ * The user's overrides are a JSON object, in the files directory as bindings.json:
+ * <pre>
+ *   {
+ *     "default": { "BUTTON_THUMBR": "space", "BUTTON_Y": "none" },
+ *     "devices": {
+ *       "Xbox Wireless Controller": { "BUTTON_L1": "nextLayer" },
+ *       "045e:0b13": { ... }
+ *     }
+ *   }
+ * </pre>
+ * Buttons are named as in Android's KeyEvent, with or without the KEYCODE_ prefix, or given by
+ * number; actions are named in {@link #ACTION_NAMES}, and "none" unbinds a button. A controller
+ * gets the built-in bindings, then "default", then the entry matching its name or its
+ * vendor:product id in hex, name first.
+ */
+public final class ButtonBindings {
+
+    // What a button does; see KeyboardStateMachine for the details of each
+    public static final int NONE = 0;
+    public static final int NEXT_LAYER = 1;
+    public static final int ACCEPT_SUGGESTION = 2;
+    public static final int DELETE = 3;
+    public static final int SPACE = 4;
+    public static final int UPPER_CASE = 5;
+    public static final int SYMBOLS = 6;
+    /** Held for the alt rings; the two alt actions are tracked apart, so either may stay held. */
+    public static final int ALT_LEFT = 7;
+    public static final int ALT_RIGHT = 8;
+    public static final int COMMIT_LEFT = 9;
+    public static final int COMMIT_RIGHT = 10;
+    public static final int CURSOR_LEFT = 11;
+    public static final int CURSOR_RIGHT = 12;
+    public static final int ACTION_COUNT = 13;
+    static final String[] ACTION_NAMES = {
+            "none", "nextLayer", "acceptSuggestion", "delete", "space", "upperCase", "symbols",
+            "altLeft", "altRight", "commitLeft", "commitRight", "cursorLeft", "cursorRight"
+    };
+
+    /** Key codes at or above this are never bound. */
+    public static final int KEYCODE_LIMIT = 512;
+
+    // Buttons a config can name, with their Android key codes
+    private static final String[] KEY_NAMES = {
+            "DPAD_UP", "DPAD_DOWN", "DPAD_LEFT", "DPAD_RIGHT", "DPAD_CENTER",
+            "BUTTON_A", "BUTTON_B", "BUTTON_C", "BUTTON_X", "BUTTON_Y", "BUTTON_Z",
+            "BUTTON_L1", "BUTTON_R1", "BUTTON_L2", "BUTTON_R2",
+            "BUTTON_THUMBL", "BUTTON_THUMBR", "BUTTON_START", "BUTTON_SELECT", "BUTTON_MODE"
+    };
+    private static final int[] KEY_CODES = {
+            19, 20, 21, 22, 23,
+            96, 97, 98, 99, 100, 101,
+            102, 103, 104, 105,
+            106, 107, 108, 109, 110
+    };
+    private static final int KEYCODE_BUTTON_1 = 188; // BUTTON_1 to BUTTON_16 follow in order
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    /** The built-in bindings. */
+    public static final ButtonBindings DEFAULT = new ButtonBindings(defaultTable());
+
+    private final byte[] actions;
+
+    private ButtonBindings(byte[] actions) {
+        this.actions = actions;
+    }
+
+    private static byte[] defaultTable() {
+        byte[] table = new byte[KEYCODE_LIMIT];
+        table[KeyboardStateMachine.KEYCODE_BUTTON_A] = NEXT_LAYER;
+        table[KeyboardStateMachine.KEYCODE_BUTTON_B] = ACCEPT_SUGGESTION;
+        table[KeyboardStateMachine.KEYCODE_BUTTON_X] = DELETE;
+        table[KeyboardStateMachine.KEYCODE_BUTTON_Y] = SPACE;
+        table[KeyboardStateMachine.KEYCODE_DPAD_UP] = UPPER_CASE;
+        table[KeyboardStateMachine.KEYCODE_DPAD_DOWN] = SYMBOLS;
+        table[KeyboardStateMachine.KEYCODE_BUTTON_L2] = ALT_LEFT;
+        table[KeyboardStateMachine.KEYCODE_BUTTON_Z] = ALT_LEFT;
+        table[KeyboardStateMachine.KEYCODE_BUTTON_R2] = ALT_RIGHT;
+        table[KeyboardStateMachine.KEYCODE_BUTTON_L1] = COMMIT_LEFT;
+        table[KeyboardStateMachine.KEYCODE_BUTTON_R1] = COMMIT_RIGHT;
+        return table;
+    }
+
+    /** The action bound to {@code keyCode}, {@link #NONE} if there is none. */
+    public int actionFor(int keyCode) {
+        return keyCode >= 0 && keyCode < KEYCODE_LIMIT ? actions[keyCode] : NONE;
+    }
+
+    /** @return the action with that name, or -1 if there is none. */
+    public static int actionOf(String name) {
+        for (int action = 0; action < ACTION_NAMES.length; action++) {
+            if (ACTION_NAMES[action].equals(name)) {
+                return action;
+            }
+        }
+        return -1;
+    }
+
+    /** @return the key code for a button name or number, or -1 if it is neither. */
+    static int keyCodeOf(String name) {
+        String key = name.toUpperCase(Locale.ROOT);
+        if (key.startsWith("KEYCODE_")) {
+            key = key.substring("KEYCODE_".length());
+        }
+        for (int i = 0; i < KEY_NAMES.length; i++) {
+            if (KEY_NAMES[i].equals(key)) {
+                return KEY_CODES[i];
+            }
+        }
+        try {
+            int number = key.startsWith("BUTTON_") ? Integer.parseInt(key.substring("BUTTON_".length())) : -1;
+            if (number >= 1 && number <= 16) {
+                return KEYCODE_BUTTON_1 + number - 1;
+            }
+            int keyCode = Integer.parseInt(key);
+            return keyCode >= 0 && keyCode < KEYCODE_LIMIT ? keyCode : -1;
+        } catch (NumberFormatException e) {
+            return -1;
+        }
+    }
+
+    @Override
+    public String toString() {
+        StringBuilder out = new StringBuilder("ButtonBindings{");
+        String separator = "";
+        for (int keyCode = 0; keyCode < KEYCODE_LIMIT; keyCode++) {
+            if (actions[keyCode] != NONE) {
+                out.append(separator).append(keyCode).append('=').append(ACTION_NAMES[actions[keyCode]]);
+                separator = ", ";
+            }
+        }
+        return out.append('}').toString();
+    }
+
+    /** The bindings of every controller, from one user config. Immutable. */
+    public static final class Config {
+
+        /** The built-in bindings for every controller. */
+        public static final Config DEFAULT = new Config(ButtonBindings.DEFAULT, new HashMap<>());
+
+        private final ButtonBindings defaults;
+        private final Map<String, ButtonBindings> devices; // By name and by "vvvv:pppp"
+
+        private Config(ButtonBindings defaults, Map<String, ButtonBindings> devices) {
+            this.defaults = defaults;
+            this.devices = devices;
+        }
+
+        /** The bindings for a controller; look them up once, when it first sends input. */
+        public ButtonBindings forDevice(String name, int vendorId, int productId) {
+            ButtonBindings bindings = name != null ? devices.get(name) : null;
+            if (bindings == null) {
+                bindings = devices.get(String.format(Locale.ROOT, "%04x:%04x", vendorId, productId));
+            }
+            return bindings != null ? bindings : defaults;
+        }
+
+        @Override
+        public String toString() {
+            return "ButtonBindings.Config{devices=" + devices.keySet() + ", default=" + defaults + "}";
+        }
+    }
+
+    /**
+     * Parses a user config (UTF-8 JSON, see the class comment) into the tables for every
+     * controller. Unknown top-level fields are ignored; unknown buttons or actions are errors, so
+     * a typo does not silently leave a button unbound.
+     *
+     * @throws IOException if the JSON is malformed or names an unknown button or action.
+     */
+    public static Config parseConfig(byte[] json) throws IOException {
+        byte[] defaults = defaultTable();
+        Map<String, byte[]> devices = new HashMap<>();
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_OBJECT) {
+                throw new IOException("Bindings must be an object");
+            }
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if ("default".equals(name) && value == JsonToken.START_OBJECT) {
+                    readTable(parser, defaults);
+                } else if ("devices".equals(name) && value == JsonToken.START_OBJECT) {
+                    while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                        String device = parser.getCurrentName();
+                        if (parser.nextToken() != JsonToken.START_OBJECT) {
+                            throw new IOException("Bindings for " + device + " must be an object");
+                        }
+                        byte[] overrides = new byte[KEYCODE_LIMIT];
+                        Arrays.fill(overrides, (byte) -1); // -1 keeps the default
+                        readTable(parser, overrides);
+                        devices.put(device, overrides);
+                    }
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        }
+        // Device tables start from the defaults, including the user's
+        Map<String, ButtonBindings> tables = new HashMap<>();
+        for (Map.Entry<String, byte[]> device : devices.entrySet()) {
+            byte[] table = defaults.clone();
+            byte[] overrides = device.getValue();
+            for (int keyCode = 0; keyCode < KEYCODE_LIMIT; keyCode++) {
+                if (overrides[keyCode] >= 0) {
+                    table[keyCode] = overrides[keyCode];
+                }
+            }
+            String key = device.getKey();
+            if (key.matches("[0-9A-Fa-f]{4}:[0-9A-Fa-f]{4}")) {
+                key = key.toLowerCase(Locale.ROOT); // As forDevice formats ids
+            }
+            tables.put(key, new ButtonBindings(table));
+        }
+        return new Config(new ButtonBindings(defaults), tables);
+    }
+
+    private static void readTable(JsonParser parser, byte[] table) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String button = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            int keyCode = keyCodeOf(button);
+            if (keyCode < 0) {
+                throw new IOException("Unknown button " + button);
+            }
+            int action = value == JsonToken.VALUE_NULL ? NONE
+                    : value == JsonToken.VALUE_STRING ? actionOf(parser.getText()) : -1;
+            if (action < 0) {
+                throw new IOException("Unknown action for " + button + ": " + parser.getText());
+            }
+            table[keyCode] = (byte) action;
+        }
+    }
+}
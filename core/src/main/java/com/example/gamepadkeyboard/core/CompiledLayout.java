@@ -0,0 +1,175 @@
+package com.example.gamepadkeyboard.core;
+
+import java.util.List;
+
+/**
+ * Immutable, flattened form of the radial menu layout.
+ *
+ * Every (layer, alt, case, side) combination is compiled once into a {@link Ring}: a plain
+ * String[] plus the {@link SliceResolver} for its slice count. Switching what a RadialMenuView
+ * shows is then just handing it a different Ring reference, with no list copying on the way.
+ *
+ * A layout can also be created {@link #lazy lazily}, in which case each layer's rings are only
+ * built the first time one of them is asked for.
+ */
+public final class CompiledLayout {
+
+    public static final int LEFT = 0;
+    public static final int RIGHT = 1;
+
+    /**
+     * Supplies the keys of one layer the first time it is needed.
+     */
+    public interface LayerLoader {
+        /** Sets the keys of {@code layer} on the builder; anything left unset is an empty ring. */
+        void load(int layer, Builder builder);
+    }
+
+    private final int layerCount;
+    private final Ring[] rings; // Null entries belong to layers not materialized yet
+    private final SliceResolver layerResolver;
+    private final Builder lazyBuilder;
+    private final LayerLoader loader;
+
+    private CompiledLayout(int layerCount, Ring[] rings, Builder lazyBuilder, LayerLoader loader) {
+        this.layerCount = layerCount;
+        this.rings = rings;
+        this.layerResolver = new SliceResolver(layerCount, false);
+        this.lazyBuilder = lazyBuilder;
+        this.loader = loader;
+    }
+
+    /**
+     * Creates a layout whose layers are materialized through {@code loader} on first access.
+     * Like the views that read it, a lazy layout must only be used from one thread.
+     */
+    public static CompiledLayout lazy(int layerCount, LayerLoader loader) {
+        Builder builder = new Builder(layerCount);
+        return new CompiledLayout(layerCount, builder.rings, builder, loader);
+    }
+
+    public int getLayerCount() {
+        return layerCount;
+    }
+
+    /** Right stick angle -> layer, with layer 0 starting at the top. */
+    public SliceResolver getLayerResolver() {
+        return layerResolver;
+    }
+
+    public Ring ring(int layer, boolean alt, boolean upper, int side) {
+        Ring ring = rings[index(layer, alt, upper, side)];
+        if (ring == null) {
+            materialize(layer);
+            ring = rings[index(layer, alt, upper, side)];
+        }
+        return ring;
+    }
+
+    public boolean isMaterialized(int layer) {
+        return rings[layer << 3] != null;
+    }
+
+    /**
+     * Builds every layer that is not built yet. Afterwards the layout never touches its loader
+     * again, so once published safely it can be read from any thread.
+     *
+     * @return this layout.
+     */
+    public CompiledLayout materializeAll() {
+        for (int layer = 0; layer < layerCount; layer++) {
+            if (!isMaterialized(layer)) {
+                materialize(layer);
+            }
+        }
+        return this;
+    }
+
+    private void materialize(int layer) {
+        loader.load(layer, lazyBuilder);
+        for (int i = layer << 3; i < (layer + 1) << 3; i++) {
+            if (rings[i] == null) {
+                rings[i] = Ring.EMPTY;
+            }
+        }
+    }
+
+    static int index(int layer, boolean alt, boolean upper, int side) {
+        return (((layer << 1) | (alt ? 1 : 0)) << 2) | ((upper ? 1 : 0) << 1) | side;
+    }
+
+    /**
+     * One ring of keys as shown by a single RadialMenuView.
+     */
+    public static final class Ring {
+
+        public static final Ring EMPTY = new Ring(new String[0], new SliceResolver(0, true));
+
+        private final String[] keys;
+        private final SliceResolver resolver;
+
+        Ring(String[] keys, SliceResolver resolver) {
+            this.keys = keys;
+            this.resolver = resolver;
+        }
+
+        public int size() {
+            return keys.length;
+        }
+
+        public String key(int slice) {
+            return slice >= 0 && slice < keys.length ? keys[slice] : null;
+        }
+
+        public SliceResolver getResolver() {
+            return resolver;
+        }
+    }
+
+    public static final class Builder {
+
+        private final int layerCount;
+        private final Ring[] rings;
+        private SliceResolver[] resolvers = new SliceResolver[16]; // Shared per slice count
+
+        public Builder(int layerCount) {
+            this.layerCount = layerCount;
+            this.rings = new Ring[layerCount * 8];
+        }
+
+        public Builder setKeys(int layer, boolean alt, boolean upper, int side, List<String> keys) {
+            return setKeys(layer, alt, upper, side,
+                    keys == null ? null : keys.toArray(new String[0]));
+        }
+
+        public Builder setKeys(int layer, boolean alt, boolean upper, int side, String[] keys) {
+            Ring ring = Ring.EMPTY;
+            if (keys != null && keys.length > 0) {
+                ring = new Ring(keys.clone(), resolverFor(keys.length));
+            }
+            rings[index(layer, alt, upper, side)] = ring;
+            return this;
+        }
+
+        public CompiledLayout build() {
+            for (int i = 0; i < rings.length; i++) {
+                if (rings[i] == null) {
+                    rings[i] = Ring.EMPTY;
+                }
+            }
+            return new CompiledLayout(layerCount, rings.clone(), null, null);
+        }
+
+        private SliceResolver resolverFor(int sliceCount) {
+            if (sliceCount >= resolvers.length) {
+                SliceResolver[] grown = new SliceResolver[sliceCount * 2];
+                System.arraycopy(resolvers, 0, grown, 0, resolvers.length);
+                resolvers = grown;
+            }
+            if (resolvers[sliceCount] == null) {
+                resolvers[sliceCount] = new SliceResolver(sliceCount, true);
+            }
+            return resolvers[sliceCount];
+        }
+    }
+}
@@ -0,0 +1,143 @@
+package com.example.gamepadkeyboard.core;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.TreeMap;
+
+/**
+ * Build-time tool that compiles word lists into the {@link WordDictionary} format.
+ *
+ * A word list is UTF-8 text with one word per line, most frequent first; the line order is the
+ * rank. Blank lines and lines starting with '#' are skipped, words are lowercased, and repeats
+ * keep their first (best) rank. Run by the app module's compileDictionaries task as
+ * {@code DictionaryCompiler <sourceDir> <outputDir>}, turning every {@code name.txt} into
+ * {@code name.gpkd}.
+ */
+public final class DictionaryCompiler {
+
+    private static final class Node {
+        final TreeMap<Character, Node> children = new TreeMap<>();
+        int rank = -1;
+        int bestRank = Integer.MAX_VALUE;
+        int offset;
+    }
+
+    private DictionaryCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: DictionaryCompiler <sourceDir> <outputDir>");
+        }
+        File[] sources = new File(args[0]).listFiles((dir, name) -> name.endsWith(".txt"));
+        File outputDir = new File(args[1]);
+        if (sources == null) {
+            throw new IOException("Not a directory: " + args[0]);
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        for (File source : sources) {
+            List<String> words = readWordList(source);
+            String name = source.getName().substring(0, source.getName().length() - 4);
+            Files.write(new File(outputDir, name + ".gpkd").toPath(), compile(words));
+        }
+    }
+
+    static List<String> readWordList(File source) throws IOException {
+        List<String> words = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Files.newInputStream(source.toPath()), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.startsWith("#")) {
+                    continue;
+                }
+                if (line.length() >= WordDictionary.MAX_WORD_LENGTH || line.indexOf(' ') >= 0) {
+                    throw new IOException(source.getName() + ":" + lineNumber + ": not a single word");
+                }
+                words.add(line);
+            }
+        }
+        return words;
+    }
+
+    /**
+     * Compiles words, most frequent first, into a dictionary image.
+     */
+    public static byte[] compile(List<String> wordsByRank) throws IOException {
+        Node root = new Node();
+        int wordCount = 0;
+        for (String word : wordsByRank) {
+            String lower = word.toLowerCase(Locale.ROOT);
+            if (lower.isEmpty() || lower.length() >= WordDictionary.MAX_WORD_LENGTH) {
+                continue;
+            }
+            Node node = root;
+            for (int i = 0; i < lower.length(); i++) {
+                node = node.children.computeIfAbsent(lower.charAt(i), c -> new Node());
+            }
+            if (node.rank < 0) {
+                node.rank = wordCount++;
+            }
+        }
+        computeBestRanks(root);
+
+        // Lay nodes out breadth-first so the levels a prefix walk touches sit close together
+        List<Node> order = new ArrayList<>();
+        ArrayDeque<Node> queue = new ArrayDeque<>();
+        queue.add(root);
+        int offset = 0;
+        while (!queue.isEmpty()) {
+            Node node = queue.removeFirst();
+            node.offset = offset;
+            offset += WordDictionary.NODE_HEADER_BYTES + node.children.size() * WordDictionary.CHILD_BYTES;
+            order.add(node);
+            queue.addAll(node.children.values());
+        }
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(WordDictionary.HEADER_BYTES + offset);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(WordDictionary.MAGIC);
+        out.writeShort(WordDictionary.VERSION);
+        out.writeInt(wordCount);
+        out.writeInt(offset);
+        for (Node node : order) {
+            if (node.children.size() > 0xFFFF) {
+                throw new IOException("Too many distinct characters after one prefix");
+            }
+            out.writeShort(node.children.size());
+            out.writeInt(node.rank);
+            out.writeInt(node.bestRank);
+            for (Map.Entry<Character, Node> child : node.children.entrySet()) {
+                out.writeChar(child.getKey());
+                out.writeInt(child.getValue().offset);
+            }
+        }
+        out.flush();
+        return bytes.toByteArray();
+    }
+
+    private static int computeBestRanks(Node node) {
+        int best = node.rank >= 0 ? node.rank : Integer.MAX_VALUE;
+        for (Node child : node.children.values()) {
+            best = Math.min(best, computeBestRanks(child));
+        }
+        node.bestRank = best;
+        return best;
+    }
+}
@@ -0,0 +1,270 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * Queues the edits made while handling input and sends them to the editor in as few calls as
+ * possible, normally once per frame.
+ *
+ * Edits are merged as they are queued: consecutive commits are concatenated, a delete first eats
+ * into text that was committed but not sent yet, consecutive deletes add up, cursor moves add up
+ * (and cancel out), and only the last of consecutive selection changes is kept. {@link #flush}
+ * then replays what is left, wrapped in a batch edit when it takes more than one call so the
+ * editor only relayouts once. Not thread-safe; everything runs on
+ * the main thread.
+ *
+ * Each queued edit also remembers the time of the input event that caused it (see
+ * {@link #setEventTime}), so latency can be measured per edit when it is finally sent, however
+ * many frames and events later that is.
+ */
+public final class EditBatcher {
+
+    /** The editor side, normally an InputConnection. */
+    public interface Target {
+        void beginBatchEdit();
+
+        void endBatchEdit();
+
+        void commitText(CharSequence text);
+
+        /** Deletes {@code count} UTF-16 units before the cursor. */
+        void deleteBefore(int count);
+
+        /** Moves the cursor one character: -1 left, +1 right (a key down/up pair, two calls). */
+        void moveCursor(int direction);
+
+        void setSelection(int start, int end);
+    }
+
+    private static final int COMMIT = 0;
+    private static final int DELETE = 1;
+    private static final int MOVE = 2;
+    private static final int SELECT = 3;
+
+    private static final int CAPACITY = 16;
+
+    private final int[] opType = new int[CAPACITY];
+    private final int[] opCount = new int[CAPACITY];          // Delete count, signed move count or selection start
+    private final int[] opEnd = new int[CAPACITY];            // Selection end
+    private final StringBuilder[] opText = new StringBuilder[CAPACITY];
+    private final long[] opEventTime = new long[CAPACITY];    // Earliest event merged in, -1 for none
+    private int opSize;
+    private long eventTimeNanos = -1;
+    private long sendingEventTimeNanos = -1;
+
+    private Target target;
+    private Runnable onFlushed; // Null for none
+
+    private long callsRequested; // Calls the edits would have taken if each was sent right away
+    private long callsSent;
+    private long flushes;
+
+    public EditBatcher() {
+        for (int i = 0; i < CAPACITY; i++) {
+            opText[i] = new StringBuilder();
+        }
+    }
+
+    /**
+     * Sets where edits go. Queued edits are flushed to the previous target first, since they
+     * were meant for the field that had focus when they were made.
+     */
+    public void setTarget(Target target) {
+        if (target != this.target) {
+            flush();
+            this.target = target;
+        }
+    }
+
+    public boolean hasTarget() {
+        return target != null;
+    }
+
+    /** Runs after every flush that sent edits to a target, including flushes of a full queue. */
+    public void setOnFlushed(Runnable onFlushed) {
+        this.onFlushed = onFlushed;
+    }
+
+    /**
+     * The time of the input event the next edits come from, or -1 for edits no event caused. Edits
+     * merged into an earlier one keep the earlier event's time.
+     */
+    public void setEventTime(long eventTimeNanos) {
+        this.eventTimeNanos = eventTimeNanos;
+    }
+
+    /**
+     * While a Target call made by {@link #flush} runs, the time of the event behind the edit being
+     * sent; -1 if no event caused it, or outside a flush.
+     */
+    public long getSendingEventTime() {
+        return sendingEventTimeNanos;
+    }
+
+    /** @return true if this is the first queued edit, i.e. a flush needs to be scheduled. */
+    public boolean commitText(CharSequence text) {
+        callsRequested++;
+        if (text.length() == 0) {
+            return false;
+        }
+        if (opSize > 0 && opType[opSize - 1] == COMMIT) {
+            opText[opSize - 1].append(text);
+            merged(opSize - 1);
+            return false;
+        }
+        int op = push(COMMIT);
+        opText[op].setLength(0);
+        opText[op].append(text);
+        return opSize == 1;
+    }
+
+    /**
+     * @param count UTF-16 units, like the editor's deleteSurroundingText; a surrogate pair is only
+     *              split if the count ends inside it.
+     * @return true if this is the first queued edit, i.e. a flush needs to be scheduled.
+     */
+    public boolean deleteBefore(int count) {
+        callsRequested++;
+        // Take the characters back out of text that has not reached the editor yet
+        while (count > 0 && opSize > 0 && opType[opSize - 1] == COMMIT) {
+            StringBuilder text = opText[opSize - 1];
+            int remove = Math.min(count, text.length());
+            text.setLength(text.length() - remove);
+            count -= remove;
+            if (text.length() == 0) {
+                opSize--;
+            }
+        }
+        if (count == 0) {
+            return false;
+        }
+        if (opSize > 0 && opType[opSize - 1] == DELETE) {
+            opCount[opSize - 1] += count;
+            merged(opSize - 1);
+            return false;
+        }
+        int op = push(DELETE);
+        opCount[op] = count;
+        return opSize == 1;
+    }
+
+    /** @return true if this is the first queued edit, i.e. a flush needs to be scheduled. */
+    public boolean moveCursor(int direction) {
+        callsRequested += 2;
+        if (opSize > 0 && opType[opSize - 1] == MOVE) {
+            opCount[opSize - 1] += direction;
+            if (opCount[opSize - 1] == 0) {
+                opSize--;
+            } else {
+                merged(opSize - 1);
+            }
+            return false;
+        }
+        int op = push(MOVE);
+        opCount[op] = direction;
+        return opSize == 1;
+    }
+
+    /** @return true if this is the first queued edit, i.e. a flush needs to be scheduled. */
+    public boolean setSelection(int start, int end) {
+        callsRequested++;
+        if (opSize > 0 && opType[opSize - 1] == SELECT) {
+            opCount[opSize - 1] = start;
+            opEnd[opSize - 1] = end;
+            merged(opSize - 1);
+            return false;
+        }
+        int op = push(SELECT);
+        opCount[op] = start;
+        opEnd[op] = end;
+        return opSize == 1;
+    }
+
+    public boolean isEmpty() {
+        return opSize == 0;
+    }
+
+    /** Sends everything queued to the target, or drops it if there is no target. */
+    public void flush() {
+        if (opSize == 0) {
+            return;
+        }
+        if (target == null) {
+            opSize = 0;
+            return;
+        }
+        int calls = 0;
+        for (int i = 0; i < opSize; i++) {
+            calls += opType[i] == MOVE ? 2 * Math.abs(opCount[i]) : 1;
+        }
+        boolean batch = calls > 1;
+        if (batch) {
+            target.beginBatchEdit();
+            calls += 2;
+        }
+        for (int i = 0; i < opSize; i++) {
+            sendingEventTimeNanos = opEventTime[i];
+            switch (opType[i]) {
+                case COMMIT:
+                    target.commitText(opText[i]);
+                    break;
+                case DELETE:
+                    target.deleteBefore(opCount[i]);
+                    break;
+                case SELECT:
+                    target.setSelection(opCount[i], opEnd[i]);
+                    break;
+                default:
+                    int direction = opCount[i] < 0 ? -1 : 1;
+                    for (int n = Math.abs(opCount[i]); n > 0; n--) {
+                        target.moveCursor(direction);
+                    }
+                    break;
+            }
+        }
+        sendingEventTimeNanos = -1;
+        if (batch) {
+            target.endBatchEdit();
+        }
+        opSize = 0;
+        callsSent += calls;
+        flushes++;
+        if (onFlushed != null) {
+            onFlushed.run();
+        }
+    }
+
+    public long getCallsRequested() {
+        return callsRequested;
+    }
+
+    public long getCallsSent() {
+        return callsSent;
+    }
+
+    /** Editor calls avoided so far; can dip below zero if batches rarely merge anything. */
+    public long getCallsSaved() {
+        return callsRequested - callsSent;
+    }
+
+    @Override
+    public String toString() {
+        return "EditBatcher{callsRequested=" + callsRequested
+                + ", callsSent=" + callsSent
+                + ", callsSaved=" + getCallsSaved()
+                + ", flushes=" + flushes + "}";
+    }
+
+    private int push(int type) {
+        if (opSize == CAPACITY) {
+            flush();
+        }
+        opType[opSize] = type;
+        opEventTime[opSize] = eventTimeNanos;
+        return opSize++;
+    }
+
+    private void merged(int op) {
+        if (opEventTime[op] < 0) {
+            opEventTime[op] = eventTimeNanos;
+        }
+    }
+}
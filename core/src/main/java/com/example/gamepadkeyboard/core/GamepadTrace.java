@@ -0,0 +1,247 @@
+package com.example.gamepadkeyboard.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * Compact binary recording of the gamepad events that reached the keyboard, for replaying a real
+ * session off-device with {@link TraceReplay}.
+ *
+ * Format, big-endian header followed by variable-length records:
+ * <pre>
+ *   int    magic          'GPKT'
+ *   short  version        1
+ *   long   baseTimeMillis event time the first delta is relative to
+ *   records until the end of the data x {
+ *       byte  type        KEY_DOWN, KEY_UP or MOTION
+ *       KEY_DOWN / KEY_UP: varint timeDelta, varint keyCode, varint repeatCount
+ *       MOTION: varint sampleCount, sampleCount x {
+ *           varint timeDelta, byte x, byte y, byte z, byte rz, byte hatX, byte hatY
+ *       }
+ *   }
+ * </pre>
+ * Times are milliseconds, each delta relative to the previous event or sample time and zigzag
+ * encoded, since key and motion events are not strictly ordered. Axes are quantized to
+ * [-127, 127], which is well below the dead zones and slice widths the keyboard works with.
+ */
+public final class GamepadTrace {
+
+    public static final int MAGIC = 0x47504B54; // "GPKT"
+    public static final int VERSION = 1;
+
+    public static final int KEY_DOWN = 0;
+    public static final int KEY_UP = 1;
+    public static final int MOTION = 2;
+
+    private GamepadTrace() {
+    }
+
+    static byte quantize(float axis) {
+        return (byte) Math.max(-127, Math.min(127, Math.round(axis * 127f)));
+    }
+
+    static float dequantize(byte axis) {
+        return axis / 127f;
+    }
+
+    /** Appends records to a growable in-memory buffer. Writing allocates only to grow it. */
+    public static final class Writer {
+
+        private byte[] data = new byte[64 * 1024];
+        private int size;
+        private long lastTimeMillis;
+        private int pendingSamples;
+
+        public Writer(long baseTimeMillis) {
+            writeInt(MAGIC);
+            writeByte(VERSION >> 8);
+            writeByte(VERSION);
+            for (int shift = 56; shift >= 0; shift -= 8) {
+                writeByte((int) (baseTimeMillis >>> shift));
+            }
+            lastTimeMillis = baseTimeMillis;
+        }
+
+        public void key(boolean down, long timeMillis, int keyCode, int repeatCount) {
+            writeByte(down ? KEY_DOWN : KEY_UP);
+            writeTime(timeMillis);
+            writeVarint(keyCode);
+            writeVarint(repeatCount);
+        }
+
+        /** Starts a motion record; exactly {@code sampleCount} {@link #sample} calls must follow. */
+        public void beginMotion(int sampleCount) {
+            writeByte(MOTION);
+            writeVarint(sampleCount);
+            pendingSamples = sampleCount;
+        }
+
+        public void sample(long timeMillis, float x, float y, float z, float rz, float hatX, float hatY) {
+            if (pendingSamples-- <= 0) {
+                throw new IllegalStateException("More samples than announced");
+            }
+            writeTime(timeMillis);
+            writeByte(quantize(x));
+            writeByte(quantize(y));
+            writeByte(quantize(z));
+            writeByte(quantize(rz));
+            writeByte(quantize(hatX));
+            writeByte(quantize(hatY));
+        }
+
+        public int size() {
+            return size;
+        }
+
+        public byte[] toByteArray() {
+            return Arrays.copyOf(data, size);
+        }
+
+        private void writeTime(long timeMillis) {
+            long delta = timeMillis - lastTimeMillis;
+            lastTimeMillis = timeMillis;
+            writeVarint((delta << 1) ^ (delta >> 63));
+        }
+
+        private void writeVarint(long value) {
+            while ((value & ~0x7FL) != 0) {
+                writeByte((int) ((value & 0x7F) | 0x80));
+                value >>>= 7;
+            }
+            writeByte((int) value);
+        }
+
+        private void writeInt(int value) {
+            writeByte(value >>> 24);
+            writeByte(value >>> 16);
+            writeByte(value >>> 8);
+            writeByte(value);
+        }
+
+        private void writeByte(int value) {
+            if (size == data.length) {
+                data = Arrays.copyOf(data, size * 2);
+            }
+            data[size++] = (byte) value;
+        }
+    }
+
+    /**
+     * Reads records in order. {@link #next()} returns each record's type; for a motion record the
+     * caller then reads its samples with {@link #nextSample()}. Nothing is allocated per record.
+     */
+    public static final class Reader {
+
+        private final ByteBuffer buffer;
+        private long timeMillis;
+        private int keyCode;
+        private int repeatCount;
+        private int samplesLeft;
+        private int sampleCount;
+        private final float[] axes = new float[6];
+
+        /** @throws IllegalArgumentException if the data is not a trace this reader understands. */
+        public Reader(ByteBuffer buffer) {
+            if (buffer.remaining() < 14 || buffer.getInt() != MAGIC) {
+                throw new IllegalArgumentException("Not a gamepad trace");
+            }
+            int version = buffer.getShort() & 0xFFFF;
+            if (version != VERSION) {
+                throw new IllegalArgumentException("Unsupported trace version " + version);
+            }
+            timeMillis = buffer.getLong();
+            this.buffer = buffer;
+        }
+
+        /** @return the next record's type, or -1 at the end of the trace. */
+        public int next() {
+            while (samplesLeft > 0) {
+                nextSample(); // Skip whatever the caller did not read
+            }
+            if (!buffer.hasRemaining()) {
+                return -1;
+            }
+            int type = buffer.get();
+            if (type == KEY_DOWN || type == KEY_UP) {
+                readTime();
+                keyCode = (int) readVarint();
+                repeatCount = (int) readVarint();
+            } else if (type == MOTION) {
+                sampleCount = samplesLeft = (int) readVarint();
+            } else {
+                throw new IllegalArgumentException("Bad record type " + type);
+            }
+            return type;
+        }
+
+        /** Reads the next sample of the current motion record. @return false if there are none left. */
+        public boolean nextSample() {
+            if (samplesLeft == 0) {
+                return false;
+            }
+            samplesLeft--;
+            readTime();
+            for (int i = 0; i < axes.length; i++) {
+                axes[i] = dequantize(buffer.get());
+            }
+            return true;
+        }
+
+        /** Time of the current key record or motion sample. */
+        public long getTimeMillis() {
+            return timeMillis;
+        }
+
+        public int getKeyCode() {
+            return keyCode;
+        }
+
+        public int getRepeatCount() {
+            return repeatCount;
+        }
+
+        public int getSampleCount() {
+            return sampleCount;
+        }
+
+        public float getX() {
+            return axes[0];
+        }
+
+        public float getY() {
+            return axes[1];
+        }
+
+        public float getZ() {
+            return axes[2];
+        }
+
+        public float getRz() {
+            return axes[3];
+        }
+
+        public float getHatX() {
+            return axes[4];
+        }
+
+        public float getHatY() {
+            return axes[5];
+        }
+
+        private void readTime() {
+            long zigzag = readVarint();
+            timeMillis += (zigzag >>> 1) ^ -(zigzag & 1);
+        }
+
+        private long readVarint() {
+            long value = 0;
+            for (int shift = 0; ; shift += 7) {
+                byte b = buffer.get();
+                value |= (long) (b & 0x7F) << shift;
+                if (b >= 0) {
+                    return value;
+                }
+            }
+        }
+    }
+}
@@ -0,0 +1,256 @@
+package com.example.gamepadkeyboard.core;
+
+import java.util.Arrays;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+import java.util.TreeSet;
+
+/**
+ * Turns a {@link GesturePath} into the words it most likely spells, by beam search over the
+ * {@link WordDictionary} trie.
+ *
+ * Every letter of a word has to be explained by a visit, in order. A visit can be matched exactly,
+ * matched by a letter on a neighboring slice (the stick overshot or undershot), or skipped. Skipping
+ * is cheap for visits the stick only passed through on its way around the ring and expensive for
+ * visits it dwelt on; the first and last visits cannot be skipped. One visit may also stand for a
+ * doubled letter. Word frequency enters as a cost per bit of rank, and hypotheses are pruned on
+ * cost plus the best rank still reachable below their trie node, which the trie stores per node.
+ *
+ * Which letters neighbor each other comes from the layout's left rings, worked out on the first
+ * decode rather than in the constructor, so a decoder can be created along with a layout that is
+ * about to be shown without reading all of its layers. The beam, candidate and path buffers are
+ * preallocated, so a decode allocates nothing and its cost depends on the path length and beam
+ * width, not on the dictionary size. Not thread-safe.
+ */
+public final class GestureDecoder {
+
+    public static final int BEAM_WIDTH = 64;
+
+    private static final float NEIGHBOR_COST = 1.0f;
+    private static final float SKIP_TRANSIT_COST = 0.3f;
+    private static final float SKIP_DWELT_COST = 1.5f;
+    private static final float DOUBLE_LETTER_COST = 0.2f;
+    private static final float RANK_COST_PER_BIT = 0.25f;
+    /** Visits shorter than this were the stick passing through on the way to another slice. */
+    private static final long TRANSIT_NANOS = 80_000_000L;
+
+    private static final int CANDIDATE_CAPACITY = BEAM_WIDTH * 16;
+    private static final int SLOT_MASK = CANDIDATE_CAPACITY * 2 - 1;
+    private static final int PATH_CAPACITY = 1 << 16;
+
+    private final WordDictionary dictionary;
+    private final CompiledLayout layout;
+    private char[] letters;      // Every letter on a left ring, sorted; null until the first decode
+    private char[][] neighbors;  // Letters on the slices next to letters[i]
+
+    // The beam after the visits processed so far
+    private final int[] beamNode = new int[BEAM_WIDTH];
+    private final int[] beamPath = new int[BEAM_WIDTH];
+    private final float[] beamCost = new float[BEAM_WIDTH];
+    private int beamSize;
+
+    // Hypotheses for the next beam, deduplicated by trie node through an open-addressed table
+    private final int[] candidateNode = new int[CANDIDATE_CAPACITY];
+    private final int[] candidatePath = new int[CANDIDATE_CAPACITY];
+    private final float[] candidateCost = new float[CANDIDATE_CAPACITY];
+    private int candidateCount;
+    private final int[] slotCandidate = new int[SLOT_MASK + 1];
+    private final int[] slotStamp = new int[SLOT_MASK + 1];
+    private int stamp;
+    private final long[] order = new long[CANDIDATE_CAPACITY];
+
+    // Letters of every hypothesis, as a parent-linked tree
+    private final char[] pathChar = new char[PATH_CAPACITY];
+    private final int[] pathParent = new int[PATH_CAPACITY];
+    private int pathSize;
+    private final char[] wordScratch = new char[WordDictionary.MAX_WORD_LENGTH];
+
+    public GestureDecoder(WordDictionary dictionary, CompiledLayout layout) {
+        this.dictionary = dictionary;
+        this.layout = layout;
+    }
+
+    private void buildAdjacency() {
+        Map<Character, Set<Character>> adjacency = new TreeMap<>();
+        for (int layer = 0; layer < layout.getLayerCount(); layer++) {
+            addRing(adjacency, layout.ring(layer, false, false, CompiledLayout.LEFT));
+        }
+        letters = new char[adjacency.size()];
+        neighbors = new char[adjacency.size()][];
+        int i = 0;
+        for (Map.Entry<Character, Set<Character>> entry : adjacency.entrySet()) {
+            letters[i] = entry.getKey();
+            neighbors[i] = new char[entry.getValue().size()];
+            int j = 0;
+            for (char neighbor : entry.getValue()) {
+                neighbors[i][j++] = neighbor;
+            }
+            i++;
+        }
+    }
+
+    private static void addRing(Map<Character, Set<Character>> adjacency, CompiledLayout.Ring ring) {
+        int count = ring.size();
+        for (int slice = 0; slice < count; slice++) {
+            char c = letterOf(ring.key(slice));
+            if (c == 0) {
+                continue;
+            }
+            Set<Character> set = adjacency.computeIfAbsent(c, k -> new TreeSet<>());
+            if (count > 1) {
+                char previous = letterOf(ring.key((slice + count - 1) % count));
+                char next = letterOf(ring.key((slice + 1) % count));
+                if (previous != 0 && previous != c) {
+                    set.add(previous);
+                }
+                if (next != 0 && next != c) {
+                    set.add(next);
+                }
+            }
+        }
+    }
+
+    private static char letterOf(String key) {
+        return key != null && key.length() == 1 && Character.isLetter(key.charAt(0))
+                ? Character.toLowerCase(key.charAt(0)) : 0;
+    }
+
+    /**
+     * Decodes {@code path} into the most likely words, best first.
+     *
+     * @param results receives the words; its length is the number of alternatives wanted.
+     * @return how many entries of {@code results} were filled.
+     */
+    public int decode(GesturePath path, StringBuilder[] results) {
+        int visits = path.size();
+        if (visits == 0 || results.length == 0) {
+            return 0;
+        }
+        if (letters == null) {
+            buildAdjacency();
+        }
+        pathSize = 0;
+        beamSize = 1;
+        beamNode[0] = WordDictionary.ROOT;
+        beamPath[0] = -1;
+        beamCost[0] = 0;
+
+        for (int v = 0; v < visits && beamSize > 0; v++) {
+            char key = path.key(v);
+            boolean anchored = v == 0 || v == visits - 1;
+            float skipCost = path.dwellNanos(v) < TRANSIT_NANOS ? SKIP_TRANSIT_COST : SKIP_DWELT_COST;
+            int letter = Arrays.binarySearch(letters, key);
+            char[] near = letter >= 0 ? neighbors[letter] : null;
+
+            candidateCount = 0;
+            stamp++;
+            for (int b = 0; b < beamSize; b++) {
+                int node = beamNode[b];
+                float cost = beamCost[b];
+                if (!anchored) {
+                    offer(node, beamPath[b], cost + skipCost);
+                }
+                extend(node, beamPath[b], cost, key);
+                if (near != null) {
+                    for (char c : near) {
+                        extend(node, beamPath[b], cost + NEIGHBOR_COST, c);
+                    }
+                }
+            }
+            prune();
+        }
+
+        // Rank the complete words in the final beam
+        int words = 0;
+        for (int b = 0; b < beamSize; b++) {
+            int rank = dictionary.rankAt(beamNode[b]);
+            if (rank >= 0) {
+                float score = beamCost[b] + rankCost(rank);
+                order[words++] = ((long) Float.floatToIntBits(score) << 32) | b;
+            }
+        }
+        Arrays.sort(order, 0, words);
+        int found = Math.min(words, results.length);
+        for (int i = 0; i < found; i++) {
+            writeWord(beamPath[(int) order[i]], results[i]);
+        }
+        return found;
+    }
+
+    /** Follows letter {@code c} below {@code node}, and once more for a doubled letter. */
+    private void extend(int node, int path, float cost, char c) {
+        int child = dictionary.child(node, c);
+        if (child < 0 || pathSize == PATH_CAPACITY) {
+            return;
+        }
+        int childPath = addPath(c, path);
+        offer(child, childPath, cost);
+        int doubled = dictionary.child(child, c);
+        if (doubled >= 0 && pathSize < PATH_CAPACITY) {
+            offer(doubled, addPath(c, childPath), cost + DOUBLE_LETTER_COST);
+        }
+    }
+
+    private int addPath(char c, int parent) {
+        pathChar[pathSize] = c;
+        pathParent[pathSize] = parent;
+        return pathSize++;
+    }
+
+    /** Adds a hypothesis for the next beam, keeping only the cheapest one per trie node. */
+    private void offer(int node, int path, float cost) {
+        int slot = (node * 0x9E3779B1) >>> 16 & SLOT_MASK;
+        while (slotStamp[slot] == stamp) {
+            int candidate = slotCandidate[slot];
+            if (candidateNode[candidate] == node) {
+                if (cost < candidateCost[candidate]) {
+                    candidateCost[candidate] = cost;
+                    candidatePath[candidate] = path;
+                }
+                return;
+            }
+            slot = (slot + 1) & SLOT_MASK;
+        }
+        if (candidateCount == CANDIDATE_CAPACITY) {
+            return;
+        }
+        int candidate = candidateCount++;
+        candidateNode[candidate] = node;
+        candidatePath[candidate] = path;
+        candidateCost[candidate] = cost;
+        slotStamp[slot] = stamp;
+        slotCandidate[slot] = candidate;
+    }
+
+    /** Keeps the BEAM_WIDTH candidates with the lowest cost plus best reachable rank. */
+    private void prune() {
+        // Costs are non-negative, so their float bits sort like the values
+        for (int i = 0; i < candidateCount; i++) {
+            float priority = candidateCost[i] + rankCost(dictionary.bestRankAt(candidateNode[i]));
+            order[i] = ((long) Float.floatToIntBits(priority) << 32) | i;
+        }
+        Arrays.sort(order, 0, candidateCount);
+        beamSize = Math.min(candidateCount, BEAM_WIDTH);
+        for (int b = 0; b < beamSize; b++) {
+            int candidate = (int) order[b];
+            beamNode[b] = candidateNode[candidate];
+            beamPath[b] = candidatePath[candidate];
+            beamCost[b] = candidateCost[candidate];
+        }
+    }
+
+    /** The frequency cost of a word: a fixed amount per bit of its rank. */
+    private static float rankCost(int rank) {
+        return RANK_COST_PER_BIT * (32 - Integer.numberOfLeadingZeros(rank + 1));
+    }
+
+    private void writeWord(int path, StringBuilder out) {
+        int length = 0;
+        for (int p = path; p >= 0 && length < wordScratch.length; p = pathParent[p]) {
+            wordScratch[wordScratch.length - 1 - length++] = pathChar[p];
+        }
+        out.setLength(0);
+        out.append(wordScratch, wordScratch.length - length, length);
+    }
+}
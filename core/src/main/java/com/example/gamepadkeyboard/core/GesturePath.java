@@ -0,0 +1,53 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * The slices a stick passed through during one gesture, as the letters they showed and when the
+ * stick entered each one. Repeated reports of the same letter collapse into one visit, and keys
+ * that are not a single letter are ignored. Preallocated; recording allocates nothing.
+ */
+public final class GesturePath {
+
+    public static final int CAPACITY = 64;
+
+    private final char[] keys = new char[CAPACITY];
+    private final long[] enteredNanos = new long[CAPACITY];
+    private int size;
+
+    /** Starts a new gesture. */
+    public void begin() {
+        size = 0;
+    }
+
+    /**
+     * Records the stick entering a slice that shows {@code key}.
+     *
+     * @return true if a visit was added.
+     */
+    public boolean visit(String key, long timeNanos) {
+        if (key == null || key.length() != 1 || !Character.isLetter(key.charAt(0))) {
+            return false;
+        }
+        char c = Character.toLowerCase(key.charAt(0));
+        if (size == CAPACITY || (size > 0 && keys[size - 1] == c)) {
+            return false;
+        }
+        keys[size] = c;
+        enteredNanos[size] = timeNanos;
+        size++;
+        return true;
+    }
+
+    public int size() {
+        return size;
+    }
+
+    /** The lower-case letter of visit {@code index}. */
+    public char key(int index) {
+        return keys[index];
+    }
+
+    /** How long the stick stayed on visit {@code index}; the last visit counts as held. */
+    public long dwellNanos(int index) {
+        return index + 1 < size ? enteredNanos[index + 1] - enteredNanos[index] : Long.MAX_VALUE;
+    }
+}
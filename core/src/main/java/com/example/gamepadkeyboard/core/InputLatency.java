@@ -0,0 +1,66 @@
+package com.example.gamepadkeyboard.core;
+
+import java.io.PrintWriter;
+import java.util.Locale;
+
+/**
+ * End-to-end latency from a gamepad event to the InputConnection call it caused, one histogram
+ * per kind of call.
+ *
+ * {@link #record} is called right after each InputConnection call returns, with the timestamp of
+ * the event that caused the call, which {@link EditBatcher} keeps with every queued edit since the
+ * call may go out frames later. Recording happens on the main thread; {@link #dump} may run on a
+ * binder thread and only reads the histograms.
+ */
+public final class InputLatency {
+
+    public static final int COMMIT_TEXT = 0;
+    public static final int DELETE_SURROUNDING_TEXT = 1;
+    public static final int SEND_KEY_EVENT = 2;
+    public static final int SET_SELECTION = 3;
+
+    private static final String[] ACTION_NAMES = {
+            "commitText", "deleteSurroundingText", "sendKeyEvent", "setSelection"};
+
+    /** Source of "now" in the same timebase as the event timestamps, normally System::nanoTime. */
+    public interface Clock {
+        long nanoTime();
+    }
+
+    private final Clock clock;
+    private final LatencyHistogram[] histograms = new LatencyHistogram[ACTION_NAMES.length];
+
+    public InputLatency(Clock clock) {
+        this.clock = clock;
+        for (int i = 0; i < histograms.length; i++) {
+            histograms[i] = new LatencyHistogram();
+        }
+    }
+
+    /** @param eventTimeNanos when the causing event happened, or -1 to record nothing. */
+    public void record(int action, long eventTimeNanos) {
+        if (eventTimeNanos >= 0) {
+            histograms[action].recordNanos(clock.nanoTime() - eventTimeNanos);
+        }
+    }
+
+    public LatencyHistogram getHistogram(int action) {
+        return histograms[action];
+    }
+
+    public void dump(PrintWriter writer, String prefix) {
+        writer.println(prefix + "Input latency (event -> InputConnection call returned):");
+        for (int i = 0; i < histograms.length; i++) {
+            LatencyHistogram histogram = histograms[i];
+            writer.println(prefix + "  " + ACTION_NAMES[i]
+                    + ": count=" + histogram.getCount()
+                    + " p50=" + millis(histogram.getPercentileNanos(50))
+                    + " p99=" + millis(histogram.getPercentileNanos(99))
+                    + " max=" + millis(histogram.getMaxNanos()));
+        }
+    }
+
+    private static String millis(long nanos) {
+        return String.format(Locale.US, "%.2fms", nanos / 1e6);
+    }
+}
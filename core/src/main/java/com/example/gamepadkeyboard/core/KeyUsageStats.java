@@ -0,0 +1,207 @@
+package com.example.gamepadkeyboard.core;
+
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+/**
+ * How often each key of a layout was committed, counted per layout slot: one int per (layer, alt,
+ * case, side, slice), in a flat array. Recording is an array increment and allocates nothing.
+ *
+ * Counts always refer to the slots of the base layout they were collected on, identified by its
+ * {@link #fingerprint}. While a reordered layout is shown, a slot map translates the slots the
+ * user actually pressed back to base slots, so the counts stay comparable across reorderings.
+ *
+ * Saved as an append-only file, big-endian:
+ * <pre>
+ *   int    magic        'GPKU'
+ *   short  version      1
+ *   long   fingerprint  of the base layout
+ *   records until the end of the file x { short slot, int count }
+ * </pre>
+ * Each record adds to the count of its slot, so saving only appends what changed since the last
+ * save; {@link #takeAll()} rewrites the file with one record per used slot when it grew too long.
+ * Everything but the static helpers must be used from one thread.
+ */
+public final class KeyUsageStats {
+
+    public static final int MAGIC = 0x47504B55; // "GPKU"
+    public static final int VERSION = 1;
+    /** Slices past this on a ring are not counted; no sane ring gets close. */
+    public static final int MAX_SLICES = 32;
+
+    static final int HEADER_BYTES = 4 + 2 + 8;
+    static final int RECORD_BYTES = 2 + 4;
+
+    private long fingerprint;
+    private final int[] counts;
+    private final int[] unsaved; // Counts recorded since the last take
+    private int unsavedSlots;
+    private int[] slotMap; // Shown slot -> base slot, or null while the base layout is shown
+    private long total;
+
+    public KeyUsageStats(CompiledLayout base) {
+        this(base.getLayerCount());
+        fingerprint = fingerprint(base);
+    }
+
+    /**
+     * Stats for a base layout whose {@link #fingerprint} is computed elsewhere, such as on a
+     * background thread; set it before merging or taking counts. Recording works right away.
+     */
+    public KeyUsageStats(int layerCount) {
+        counts = new int[layerCount * 8 * MAX_SLICES];
+        unsaved = new int[counts.length];
+    }
+
+    /** Hash of every key in every ring of a layout, including the order of the slices. */
+    public static long fingerprint(CompiledLayout layout) {
+        long hash = 0xcbf29ce484222325L;
+        for (int layer = 0; layer < layout.getLayerCount(); layer++) {
+            for (int variant = 0; variant < 8; variant++) {
+                CompiledLayout.Ring ring = layout.ring(layer, (variant & 4) != 0, (variant & 2) != 0, variant & 1);
+                hash = (hash ^ ring.size()) * 0x100000001b3L;
+                for (int slice = 0; slice < ring.size(); slice++) {
+                    hash = (hash ^ ring.key(slice).hashCode()) * 0x100000001b3L;
+                }
+            }
+        }
+        return hash;
+    }
+
+    /** The counter index of a slice, or -1 if it is not counted. */
+    public static int slot(int layer, boolean alt, boolean upper, int side, int slice) {
+        if (slice < 0 || slice >= MAX_SLICES) {
+            return -1;
+        }
+        return CompiledLayout.index(layer, alt, upper, side) * MAX_SLICES + slice;
+    }
+
+    public long getFingerprint() {
+        return fingerprint;
+    }
+
+    public void setFingerprint(long fingerprint) {
+        this.fingerprint = fingerprint;
+    }
+
+    /** Number of slots, the length of {@link #snapshot()}. */
+    public int getSlotCount() {
+        return counts.length;
+    }
+
+    public int getCount(int slot) {
+        return counts[slot];
+    }
+
+    /** Commits counted, including loaded ones. */
+    public long getTotal() {
+        return total;
+    }
+
+    /**
+     * Tells the stats which layout is shown: null for the base layout, otherwise the map from the
+     * shown layout's slots to the base slots their keys came from (see {@link AdaptiveLayout}).
+     */
+    public void setSlotMap(int[] slotMap) {
+        if (slotMap != null && slotMap.length != counts.length) {
+            throw new IllegalArgumentException("Slot map is for another layout");
+        }
+        this.slotMap = slotMap;
+    }
+
+    /** Counts one commit of the key on a slice of the shown layout. */
+    public void record(int layer, boolean alt, boolean upper, int side, int slice) {
+        int slot = slot(layer, alt, upper, side, slice);
+        if (slot < 0 || slot >= counts.length) {
+            return;
+        }
+        if (slotMap != null) {
+            slot = slotMap[slot];
+        }
+        counts[slot]++;
+        if (unsaved[slot]++ == 0) {
+            unsavedSlots++;
+        }
+        total++;
+    }
+
+    /** A copy of the counts, for reordering on another thread. */
+    public int[] snapshot() {
+        return counts.clone();
+    }
+
+    /**
+     * Adds the counts from a saved file, if it was written for the same base layout.
+     *
+     * @return false if the file belongs to another layout and was ignored.
+     * @throws IllegalArgumentException if the data is not a usage file.
+     */
+    public boolean merge(ByteBuffer buffer) {
+        if (buffer.remaining() < HEADER_BYTES || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a key usage file");
+        }
+        int version = buffer.getShort() & 0xFFFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported key usage version " + version);
+        }
+        if (buffer.getLong() != fingerprint) {
+            return false;
+        }
+        // A trailing partial record is an append cut short, and is dropped
+        while (buffer.remaining() >= RECORD_BYTES) {
+            int slot = buffer.getShort() & 0xFFFF;
+            int count = buffer.getInt();
+            if (slot < counts.length && count > 0) {
+                counts[slot] += count;
+                total += count;
+            }
+        }
+        return true;
+    }
+
+    /**
+     * Takes the counts recorded since the last take, as records to append to the file.
+     *
+     * @return the records, or null if nothing was recorded.
+     */
+    public byte[] takeUnsaved() {
+        if (unsavedSlots == 0) {
+            return null;
+        }
+        ByteBuffer out = ByteBuffer.allocate(unsavedSlots * RECORD_BYTES);
+        putRecords(out, unsaved);
+        Arrays.fill(unsaved, 0);
+        unsavedSlots = 0;
+        return out.array();
+    }
+
+    /** A whole file holding every count, which also marks everything saved. */
+    public byte[] takeAll() {
+        int used = 0;
+        for (int count : counts) {
+            if (count > 0) {
+                used++;
+            }
+        }
+        ByteBuffer out = ByteBuffer.allocate(HEADER_BYTES + used * RECORD_BYTES);
+        out.putInt(MAGIC).putShort((short) VERSION).putLong(fingerprint);
+        putRecords(out, counts);
+        Arrays.fill(unsaved, 0);
+        unsavedSlots = 0;
+        return out.array();
+    }
+
+    private static void putRecords(ByteBuffer out, int[] source) {
+        for (int slot = 0; slot < source.length; slot++) {
+            if (source[slot] > 0) {
+                out.putShort((short) slot).putInt(source[slot]);
+            }
+        }
+    }
+
+    @Override
+    public String toString() {
+        return "KeyUsageStats{total=" + total
+                + ", reordered=" + (slotMap != null) + "}";
+    }
+}
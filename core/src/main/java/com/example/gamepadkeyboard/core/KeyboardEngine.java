@@ -0,0 +1,585 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * The keyboard's input logic without any Android types: buttons, sticks and the hat go in as
+ * primitives, edits come out through an {@link EditBatcher.Target} and screen updates through a
+ * {@link Host}.
+ *
+ * The InputMethodService is a thin adapter around this class, and the trace replay drives the
+ * very same code on a plain JVM. Modifier and mode state lives in a {@link KeyboardStateMachine};
+ * this class carries out the actions it returns. Everything runs on one thread; time only enters
+ * through the event and frame timestamps passed in, so a replay behaves exactly like the device
+ * did.
+ */
+public final class KeyboardEngine implements MotionPipeline.Listener {
+
+    private static final int GESTURE_RESULTS = 4; // The word plus alternatives for the strip
+
+    /** The screen side of the keyboard. Called on the engine's thread. */
+    public interface Host {
+        /** Different rings should be shown. */
+        void onRingsChanged(CompiledLayout.Ring left, CompiledLayout.Ring right);
+
+        /** The hovered slice on one side changed; -1 means nothing is hovered. */
+        void onHoverChanged(int side, int slice);
+
+        /** The word completer's suggestions changed. */
+        void onSuggestionsChanged();
+
+        /** Edits are queued: call {@link #flushEdits()} on the next frame. */
+        void requestFlush();
+
+        /** Call {@link #onFrame(long)} on the next frame, and again for as long as it returns true. */
+        void requestFrames();
+
+        /**
+         * Reads the editor text around the cursor into {@code cache} with
+         * {@link SurroundingTextCache#reset}.
+         *
+         * @return false if the editor does not provide it.
+         */
+        boolean readSurroundingText(SurroundingTextCache cache);
+    }
+
+
+    private final Host host;
+    // Modifier state of the controller that sent the latest input; see useStateMachine
+    private KeyboardStateMachine stateMachine = new KeyboardStateMachine();
+    private final MotionPipeline motionPipeline = new MotionPipeline(this);
+    // Edits are queued and sent to the editor once per frame, inside one batch edit
+    private final EditBatcher editBatcher = new EditBatcher();
+    private final SurroundingTextCache surroundingText = new SurroundingTextCache();
+    // Held X and D-pad left/right repeat on display frames, accelerating to words and lines
+    private final RepeatScheduler repeatScheduler = new RepeatScheduler();
+    private CompiledLayout layout;
+    private WordCompleter wordCompleter; // Null if there is no dictionary
+    private GestureDecoder gestureDecoder; // Null if there is no dictionary
+    // Holding L1 records the left stick's path; releasing it decodes the path into a word
+    private final GesturePath gesturePath = new GesturePath();
+    private final StringBuilder[] gestureWords = new StringBuilder[GESTURE_RESULTS];
+    private int gestureTapLength; // What L1 committed when the gesture started
+    private KeyUsageStats keyUsageStats; // Null unless adaptive ordering is on
+    // D-pad down swaps the left menu for pages of symbols, flipped with the right stick
+    private SymbolPages symbolPages; // Null if there are none
+    private int symbolPage; // Kept across fields, so the symbols open where they were left
+
+    private final int[] hoveredSlice = {-1, -1};
+    private CompiledLayout.Ring shownLeft, shownRight;
+    private boolean canReadSurroundingText;
+    private long motionTimeNanos;
+
+    private long ringChanges;
+    private long hoverChanges;
+    private long gestures;
+    private long pageFlips;
+
+    public KeyboardEngine(Host host) {
+        this.host = host;
+        // Every flush will be answered by a selection report, whatever we queue meanwhile
+        editBatcher.setOnFlushed(surroundingText::expectSelection);
+        for (int i = 0; i < gestureWords.length; i++) {
+            gestureWords[i] = new StringBuilder(WordDictionary.MAX_WORD_LENGTH);
+        }
+    }
+
+    public void setLayout(CompiledLayout layout) {
+        this.layout = layout;
+        if (layout != null) {
+            stateMachine.setLayerCount(layout.getLayerCount());
+        }
+    }
+
+    public CompiledLayout getLayout() {
+        return layout;
+    }
+
+    public void setWordCompleter(WordCompleter wordCompleter) {
+        this.wordCompleter = wordCompleter;
+    }
+
+    public WordCompleter getWordCompleter() {
+        return wordCompleter;
+    }
+
+    /** Enables gesture typing; build the decoder for the current layout and dictionary. */
+    public void setGestureDecoder(GestureDecoder gestureDecoder) {
+        this.gestureDecoder = gestureDecoder;
+    }
+
+    /** Counts every key committed from a ring into {@code stats}, or stops counting if null. */
+    public void setKeyUsageStats(KeyUsageStats stats) {
+        this.keyUsageStats = stats;
+    }
+
+    /** Enables the symbol pages, or disables them if null. */
+    public void setSymbolPages(SymbolPages symbolPages) {
+        this.symbolPages = symbolPages;
+        symbolPage = 0;
+        stateMachine.setHasSymbols(symbolPages != null);
+    }
+
+    public SymbolPages getSymbolPages() {
+        return symbolPages;
+    }
+
+    /**
+     * A field got focus: resets all modifier state and points edits at {@code target}.
+     * The host's views are brought up to date even if the rings did not change.
+     */
+    public void startInput(EditBatcher.Target target) {
+        stateMachine.reset();
+        motionPipeline.reset();
+        repeatScheduler.release();
+        editBatcher.setTarget(target);
+        surroundingText.clear();
+        seedSurroundingText();
+        if (wordCompleter != null && wordCompleter.reset()) {
+            host.onSuggestionsChanged();
+        }
+        if (layout != null) {
+            shownLeft = shownRight = null;
+            clearHover();
+            menuUpdater();
+        }
+    }
+
+    /**
+     * Switches to another controller's modifier state, when input starts arriving from a different
+     * device than before. Stick state and any auto-repeat belonged to the previous device and are
+     * dropped; the rings follow the new state.
+     */
+    public void useStateMachine(KeyboardStateMachine machine) {
+        if (machine == stateMachine) {
+            return;
+        }
+        repeatScheduler.release();
+        stateMachine = machine;
+        machine.setHasSymbols(symbolPages != null);
+        motionPipeline.reset();
+        if (layout != null) {
+            machine.setLayerCount(layout.getLayerCount());
+            clearHover();
+            menuUpdater();
+        }
+    }
+
+    /** Sends the current rings and hovered slices to the host again, after it replaced its views. */
+    public void refreshHost() {
+        if (layout == null) {
+            return;
+        }
+        shownLeft = shownRight = null;
+        menuUpdater();
+        for (int side = CompiledLayout.LEFT; side <= CompiledLayout.RIGHT; side++) {
+            host.onHoverChanged(side, hoveredSlice[side]);
+        }
+    }
+
+    /** The field lost focus: sends what is still queued to it and forgets the stick state. */
+    public void finishInput() {
+        stateMachine.reset();
+        repeatScheduler.release();
+        editBatcher.setTarget(null);
+        surroundingText.clear();
+        motionPipeline.reset();
+        clearHover();
+    }
+
+    /**
+     * Handles a gamepad button press.
+     *
+     * @param repeatCount    The system key-repeat count; system repeats of X are swallowed
+     *                       because the engine repeats delete itself.
+     * @param eventTimeNanos The event's time, in the timebase of the frame timestamps.
+     * @return true if the key was consumed.
+     */
+    public boolean onKeyDown(int keyCode, int repeatCount, long eventTimeNanos) {
+        if (layout == null) {
+            return false;
+        }
+        editBatcher.setEventTime(eventTimeNanos);
+        boolean handled = perform(stateMachine.onKeyDown(keyCode, repeatCount), eventTimeNanos);
+        editBatcher.setEventTime(-1);
+        return handled;
+    }
+
+    /**
+     * Handles a gamepad button release.
+     *
+     * @param eventTimeNanos The event's time, in the timebase of the frame timestamps.
+     * @return true if the key was consumed.
+     */
+    public boolean onKeyUp(int keyCode, long eventTimeNanos) {
+        if (layout == null) {
+            return false;
+        }
+        editBatcher.setEventTime(eventTimeNanos);
+        boolean handled = perform(stateMachine.onKeyUp(keyCode), eventTimeNanos);
+        editBatcher.setEventTime(-1);
+        return handled;
+    }
+
+    /**
+     * Starts a joystick event; feed its samples oldest first with {@link #addMotionSample} and
+     * finish with {@link #endMotion()}.
+     *
+     * @return false if there is no layout, in which case the event should not be fed.
+     */
+    public boolean beginMotion(long eventTimeNanos) {
+        if (layout == null) {
+            return false;
+        }
+        motionTimeNanos = eventTimeNanos;
+        editBatcher.setEventTime(eventTimeNanos);
+        motionPipeline.beginEvent();
+        return true;
+    }
+
+    /** @param timeNanos The sample's time, in the timebase of the event times. */
+    public void addMotionSample(long timeNanos, float x, float y, float rx, float ry,
+                                float hatX, float hatY) {
+        motionPipeline.addSample(timeNanos, x, y, rx, ry, hatX, hatY);
+    }
+
+    public void endMotion() {
+        motionPipeline.endEvent();
+        editBatcher.setEventTime(-1);
+    }
+
+    /**
+     * Runs one frame of auto-repeat.
+     *
+     * @return true if the host should call again on the next frame.
+     */
+    public boolean onFrame(long frameTimeNanos) {
+        if (!repeatScheduler.isHeld()) {
+            return false;
+        }
+        int granularity = repeatScheduler.onFrame(frameTimeNanos);
+        if (granularity != RepeatScheduler.NO_STEP) {
+            // A repeat step is caused by the frame, not by the press that started repeating
+            editBatcher.setEventTime(frameTimeNanos);
+            repeatStep(granularity);
+            editBatcher.setEventTime(-1);
+            editBatcher.flush(); // Already on a frame, no need to wait for the next one
+        }
+        return true;
+    }
+
+    /** True while a gesture is being recorded or a key is auto-repeating. */
+    public boolean isMidInput() {
+        return repeatScheduler.isHeld() || KeyboardStateMachine.isGesture(stateMachine.getState());
+    }
+
+    public void flushEdits() {
+        editBatcher.flush();
+    }
+
+    /** The editor reported a new selection. */
+    public void onUpdateSelection(int selectionStart, int selectionEnd) {
+        // While our own edits are still queued the editor is behind us, so only compare when idle;
+        // reports of earlier flushes are matched against what those flushes left
+        if (!editBatcher.isEmpty()) {
+            return;
+        }
+        boolean verifiable = surroundingText.hasPositions();
+        if (!surroundingText.onUpdateSelection(selectionStart, selectionEnd) && verifiable
+                && wordCompleter != null && wordCompleter.reset()) {
+            host.onSuggestionsChanged(); // The cursor moved under us, so the typed word is gone
+        }
+    }
+
+    public KeyboardStateMachine getStateMachine() {
+        return stateMachine;
+    }
+
+    public MotionPipeline getMotionPipeline() {
+        return motionPipeline;
+    }
+
+    public EditBatcher getEditBatcher() {
+        return editBatcher;
+    }
+
+    /** The local copy of the text around the cursor, for its counters. */
+    public SurroundingTextCache getSurroundingText() {
+        return surroundingText;
+    }
+
+    /**
+     * Up to {@code length} characters before the cursor, from the local copy of the text. Only if
+     * that lost track is the editor read again, after sending it our queued edits.
+     *
+     * @return the text, or null if the editor does not provide it.
+     */
+    public CharSequence getTextBeforeCursor(int length) {
+        CharSequence text = surroundingText.getTextBeforeCursor(length);
+        if (text == null && resyncSurroundingText()) {
+            text = surroundingText.getTextBeforeCursor(length);
+        }
+        return text;
+    }
+
+    /** Ring swaps plus hover changes reported to the host; each one ends in a redraw. */
+    public long getRedrawRequests() {
+        return ringChanges + hoverChanges;
+    }
+
+    @Override
+    public String toString() {
+        return "KeyboardEngine{ringChanges=" + ringChanges
+                + ", hoverChanges=" + hoverChanges
+                + ", gestures=" + gestures
+                + ", pageFlips=" + pageFlips + "}";
+    }
+
+    @Override
+    public void onLayerChanged(int layer) {
+        if (KeyboardStateMachine.isSymbols(stateMachine.getState())) {
+            // The layer resolver is the navigation ring's while symbols are shown
+            symbolPage = symbolPages.flip(symbolPage, layer);
+            pageFlips++;
+            menuUpdater();
+            return;
+        }
+        perform(stateMachine.onLayerSelected(layer), motionTimeNanos);
+    }
+
+    @Override
+    public void onHoverChanged(int side, int slice) {
+        hoveredSlice[side] = slice;
+        hoverChanges++;
+        if (side == CompiledLayout.LEFT && slice >= 0 && shownLeft != null
+                && KeyboardStateMachine.isGesture(stateMachine.getState())) {
+            gesturePath.visit(shownLeft.key(slice), motionTimeNanos);
+        }
+        host.onHoverChanged(side, slice);
+    }
+
+    @Override
+    public void onHatChanged(int x, int y) {
+        if (editBatcher.hasTarget()) {
+            perform(stateMachine.onHat(x, y), motionTimeNanos);
+        }
+    }
+
+    /**
+     * Carries out the actions a state machine transition returned.
+     *
+     * @return true if the input was handled.
+     */
+    private boolean perform(int actions, long nowNanos) {
+        if ((actions & KeyboardStateMachine.ACTION_REPEAT_STOP) != 0) {
+            repeatScheduler.release();
+        }
+        if ((actions & KeyboardStateMachine.ACTION_RELAYOUT) != 0) {
+            menuUpdater();
+        }
+        if ((actions & KeyboardStateMachine.ACTION_COMMIT_LEFT) != 0) {
+            String key = handleTriggerPress(CompiledLayout.LEFT);
+            gestureTapLength = key != null ? key.length() : 0;
+        }
+        if ((actions & KeyboardStateMachine.ACTION_GESTURE_START) != 0) {
+            gesturePath.begin();
+            if (shownLeft != null) {
+                gesturePath.visit(shownLeft.key(hoveredSlice[CompiledLayout.LEFT]), nowNanos);
+            }
+        }
+        if ((actions & KeyboardStateMachine.ACTION_GESTURE_END) != 0) {
+            finishGesture();
+        }
+        if ((actions & KeyboardStateMachine.ACTION_COMMIT_RIGHT) != 0) {
+            handleTriggerPress(CompiledLayout.RIGHT);
+        }
+        if ((actions & KeyboardStateMachine.ACTION_COMMIT_SPACE) != 0) {
+            commitText(" ");
+        }
+        if ((actions & KeyboardStateMachine.ACTION_ACCEPT_SUGGESTION) != 0) {
+            acceptSuggestion();
+        }
+        if ((actions & KeyboardStateMachine.ACTION_REPEAT_START) != 0) {
+            startRepeat(nowNanos);
+        }
+        return actions != 0;
+    }
+
+    private void menuUpdater() {
+        int state = stateMachine.getState();
+        boolean symbols = KeyboardStateMachine.isSymbols(state) && symbolPages != null;
+        CompiledLayout.Ring left, right;
+        if (symbols) {
+            left = symbolPages.page(symbolPage);
+            right = symbolPages.navigation(symbolPage);
+        } else {
+            int layer = KeyboardStateMachine.layerOf(state);
+            boolean alt = KeyboardStateMachine.isAlt(state);
+            boolean upper = KeyboardStateMachine.isUpper(state);
+            left = layout.ring(layer, alt, upper, CompiledLayout.LEFT);
+            right = layout.ring(layer, alt, upper, CompiledLayout.RIGHT);
+        }
+        if (left != shownLeft || right != shownRight) {
+            shownLeft = left;
+            shownRight = right;
+            ringChanges++;
+            host.onRingsChanged(left, right);
+        }
+        // The right stick picks layers or pages, so only the left ring is hovered by a stick
+        motionPipeline.setResolvers(left.getResolver(), null,
+                symbols ? right.getResolver() : layout.getLayerResolver());
+    }
+
+    private void clearHover() {
+        for (int side = CompiledLayout.LEFT; side <= CompiledLayout.RIGHT; side++) {
+            if (hoveredSlice[side] != -1) {
+                onHoverChanged(side, -1);
+            }
+        }
+    }
+
+    /** Commits the hovered key on {@code side}. @return the key, or null if none was hovered. */
+    private String handleTriggerPress(int side) {
+        CompiledLayout.Ring ring = side == CompiledLayout.LEFT ? shownLeft : shownRight;
+        String key = ring != null ? ring.key(hoveredSlice[side]) : null;
+        if (key != null) {
+            commitText(key);
+            int state = stateMachine.getState();
+            if (keyUsageStats != null && !KeyboardStateMachine.isSymbols(state)) {
+                keyUsageStats.record(KeyboardStateMachine.layerOf(state), KeyboardStateMachine.isAlt(state),
+                        KeyboardStateMachine.isUpper(state), side, hoveredSlice[side]);
+            }
+        }
+        return key;
+    }
+
+    /**
+     * Replaces the key committed when L1 went down with the word the gesture spelled, and offers
+     * the runners-up as suggestions. A press that stayed on one slice is left as the tap it was.
+     */
+    private void finishGesture() {
+        if (gestureDecoder == null || gesturePath.size() < 2) {
+            return;
+        }
+        int found = gestureDecoder.decode(gesturePath, gestureWords);
+        if (found == 0) {
+            return;
+        }
+        gestures++;
+        if (gestureTapLength > 0) {
+            deleteBefore(gestureTapLength);
+        }
+        StringBuilder word = gestureWords[0];
+        if (KeyboardStateMachine.isUpper(stateMachine.getState())) {
+            word.setCharAt(0, Character.toUpperCase(word.charAt(0)));
+        }
+        commitText(word.toString());
+        if (wordCompleter != null) {
+            wordCompleter.offerAlternatives(gestureWords, 1, found - 1, word.length());
+            host.onSuggestionsChanged();
+        }
+    }
+
+    private void commitText(CharSequence text) {
+        if (editBatcher.commitText(text)) {
+            host.requestFlush();
+        }
+        surroundingText.commit(text);
+        if (wordCompleter != null && wordCompleter.onCommit(text)) {
+            host.onSuggestionsChanged();
+        }
+    }
+
+    private void deleteBefore(int count) {
+        if (editBatcher.deleteBefore(count)) {
+            host.requestFlush();
+        }
+        surroundingText.delete(count);
+        if (wordCompleter != null && wordCompleter.onDelete(count)) {
+            host.onSuggestionsChanged();
+        }
+    }
+
+    /** Moves the cursor {@code delta} characters, with one setSelection if the position is known. */
+    private void moveCursor(int delta) {
+        boolean first;
+        if (surroundingText.hasPositions()) {
+            surroundingText.moveCursor(delta);
+            int position = surroundingText.getSelectionStart();
+            first = editBatcher.setSelection(position, position);
+        } else {
+            surroundingText.moveCursor(delta);
+            first = false;
+            for (int n = Math.abs(delta); n > 0; n--) {
+                first |= editBatcher.moveCursor(delta < 0 ? -1 : 1);
+            }
+        }
+        if (first) {
+            host.requestFlush();
+        }
+    }
+
+    /**
+     * Commits the rest of the top suggestion and a space, first deleting the word it replaces if it
+     * is an alternative. @return false if there was none.
+     */
+    private boolean acceptSuggestion() {
+        String remainder = wordCompleter != null ? wordCompleter.getRemainder(0) : null;
+        if (remainder == null) {
+            return false;
+        }
+        int replaced = wordCompleter.getReplacedLength();
+        if (replaced > 0) {
+            deleteBefore(replaced);
+        }
+        commitText(remainder + " ");
+        return true;
+    }
+
+    /** Reads the text around the cursor once; edits after this keep the cache current. */
+    private void seedSurroundingText() {
+        canReadSurroundingText = editBatcher.hasTarget() && host.readSurroundingText(surroundingText);
+        if (!canReadSurroundingText) {
+            surroundingText.invalidate();
+        }
+    }
+
+    /**
+     * Reads the text around the cursor again, flushing first so the read sees our edits.
+     *
+     * @return false if the editor does not provide it.
+     */
+    private boolean resyncSurroundingText() {
+        if (!canReadSurroundingText) {
+            return false;
+        }
+        editBatcher.flush();
+        seedSurroundingText();
+        return canReadSurroundingText;
+    }
+
+    private void startRepeat(long nowNanos) {
+        repeatScheduler.press(nowNanos);
+        repeatStep(SurroundingTextCache.CHAR);
+        host.requestFrames();
+    }
+
+    private void repeatStep(int granularity) {
+        int repeat = KeyboardStateMachine.repeatOf(stateMachine.getState());
+        boolean backwards = repeat != KeyboardStateMachine.REPEAT_RIGHT;
+        int count = backwards ? surroundingText.charsBefore(granularity) : surroundingText.charsAfter(granularity);
+        if (count < 0 && resyncSurroundingText()) {
+            // Boundary outside the cached window, or the cache was out of sync
+            count = backwards ? surroundingText.charsBefore(granularity) : surroundingText.charsAfter(granularity);
+        }
+        if (count < 0) {
+            count = 1; // Editor won't tell us; fall back to single characters
+        }
+        if (count == 0) {
+            return;
+        }
+        if (repeat == KeyboardStateMachine.REPEAT_DELETE) {
+            deleteBefore(count);
+        } else {
+            moveCursor(backwards ? -count : count);
+        }
+    }
+}
@@ -0,0 +1,322 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * The keyboard's modifier and mode state, and the rules for how buttons change it.
+ *
+ * The whole state is one int (see the STATE_ masks) held in a volatile field, so another thread,
+ * such as a renderer, can take a consistent snapshot with a single read and no lock. Input
+ * methods return what the caller has to do as a bit set of ACTION_ flags instead of objects, so
+ * a transition allocates nothing; 0 means the input was not handled.
+ *
+ * Buttons do not have fixed meanings: {@link ButtonBindings} maps each key code to an action, and
+ * each action has one preallocated handler here for its press, release and system repeats.
+ */
+public final class KeyboardStateMachine {
+
+    // Android KeyEvent key codes the keyboard handles
+    public static final int KEYCODE_DPAD_UP = 19;
+    public static final int KEYCODE_DPAD_DOWN = 20;
+    public static final int KEYCODE_BUTTON_A = 96;
+    public static final int KEYCODE_BUTTON_B = 97;
+    public static final int KEYCODE_BUTTON_X = 99;
+    public static final int KEYCODE_BUTTON_Y = 100;
+    public static final int KEYCODE_BUTTON_Z = 101;
+    public static final int KEYCODE_BUTTON_L1 = 102;
+    public static final int KEYCODE_BUTTON_R1 = 103;
+    public static final int KEYCODE_BUTTON_L2 = 104;
+    public static final int KEYCODE_BUTTON_R2 = 105;
+
+    // State layout
+    public static final int STATE_LAYER = 0xFFFF;
+    public static final int STATE_UPPER = 1 << 16;
+    public static final int STATE_ALT = 1 << 17;
+    public static final int STATE_L2 = 1 << 18;
+    public static final int STATE_R2 = 1 << 19;
+    public static final int STATE_REPEAT_SHIFT = 20;
+    public static final int STATE_REPEAT = 3 << STATE_REPEAT_SHIFT;
+    /** L1 is held: the left stick's path is being recorded as a gesture. */
+    public static final int STATE_GESTURE = 1 << 22;
+    /** The left menu shows a page of symbols, and the right stick flips pages instead of layers. */
+    public static final int STATE_SYMBOLS = 1 << 23;
+
+    // What is auto-repeating, stored in the STATE_REPEAT bits
+    public static final int REPEAT_NONE = 0;
+    public static final int REPEAT_DELETE = 1;
+    public static final int REPEAT_LEFT = 2;
+    public static final int REPEAT_RIGHT = 3;
+
+    // Actions, combined as bits
+    public static final int ACTION_HANDLED = 1;
+    /** Layer, case or alt changed: show the rings for the new state. */
+    public static final int ACTION_RELAYOUT = 1 << 1;
+    public static final int ACTION_COMMIT_LEFT = 1 << 2;
+    public static final int ACTION_COMMIT_RIGHT = 1 << 3;
+    public static final int ACTION_COMMIT_SPACE = 1 << 4;
+    public static final int ACTION_ACCEPT_SUGGESTION = 1 << 5;
+    /** Start the auto-repeat in the STATE_REPEAT bits, taking its first step now. */
+    public static final int ACTION_REPEAT_START = 1 << 6;
+    public static final int ACTION_REPEAT_STOP = 1 << 7;
+    /** Start recording a gesture from the hovered slice. */
+    public static final int ACTION_GESTURE_START = 1 << 8;
+    /** Decode the recorded gesture, if the stick went anywhere. */
+    public static final int ACTION_GESTURE_END = 1 << 9;
+
+    /** What one bound action does; the state machine holds one instance per action. */
+    private abstract static class ButtonHandler {
+        int press(KeyboardStateMachine m, int s) {
+            return 0;
+        }
+
+        int release(KeyboardStateMachine m, int s) {
+            return 0;
+        }
+
+        /** A system key repeat while held; 0 lets it through, like an unbound key. */
+        int repeat(KeyboardStateMachine m, int s) {
+            return 0;
+        }
+    }
+
+    /** Starts an engine-timed auto-repeat on press and stops it on release. */
+    private static final class RepeatHandler extends ButtonHandler {
+        private final int repeat;
+
+        RepeatHandler(int repeat) {
+            this.repeat = repeat;
+        }
+
+        @Override
+        int press(KeyboardStateMachine m, int s) {
+            m.state = withRepeat(s, repeat);
+            return ACTION_HANDLED | ACTION_REPEAT_START;
+        }
+
+        @Override
+        int release(KeyboardStateMachine m, int s) {
+            if (repeatOf(s) == repeat) {
+                m.state = withRepeat(s, REPEAT_NONE);
+                return ACTION_HANDLED | ACTION_REPEAT_STOP;
+            }
+            return ACTION_HANDLED;
+        }
+
+        @Override
+        int repeat(KeyboardStateMachine m, int s) {
+            return ACTION_HANDLED;
+        }
+    }
+
+    /** Shows the alt rings while held; {@code heldBit} tells it apart from the other alt button. */
+    private static final class AltHandler extends ButtonHandler {
+        private final int heldBit;
+
+        AltHandler(int heldBit) {
+            this.heldBit = heldBit;
+        }
+
+        @Override
+        int press(KeyboardStateMachine m, int s) {
+            m.state = s | heldBit | STATE_ALT;
+            return ACTION_HANDLED | ACTION_RELAYOUT;
+        }
+
+        @Override
+        int release(KeyboardStateMachine m, int s) {
+            return m.releaseTrigger(s & ~heldBit);
+        }
+    }
+
+    /** Handlers by ButtonBindings action. */
+    private static final ButtonHandler[] HANDLERS = new ButtonHandler[ButtonBindings.ACTION_COUNT];
+
+    static {
+        HANDLERS[ButtonBindings.NONE] = new ButtonHandler() {
+        };
+        HANDLERS[ButtonBindings.NEXT_LAYER] = new ButtonHandler() {
+            @Override
+            int press(KeyboardStateMachine m, int s) {
+                // Also leaves the symbols, back to the letters of the next layer
+                m.state = (s & ~(STATE_LAYER | STATE_UPPER | STATE_SYMBOLS)) | ((layerOf(s) + 1) % m.layerCount);
+                return ACTION_HANDLED | ACTION_RELAYOUT;
+            }
+        };
+        HANDLERS[ButtonBindings.ACCEPT_SUGGESTION] = new ButtonHandler() {
+            @Override
+            int press(KeyboardStateMachine m, int s) {
+                return ACTION_HANDLED | ACTION_ACCEPT_SUGGESTION;
+            }
+        };
+        HANDLERS[ButtonBindings.DELETE] = new RepeatHandler(REPEAT_DELETE);
+        HANDLERS[ButtonBindings.SPACE] = new ButtonHandler() {
+            @Override
+            int press(KeyboardStateMachine m, int s) {
+                return ACTION_HANDLED | ACTION_COMMIT_SPACE;
+            }
+        };
+        HANDLERS[ButtonBindings.UPPER_CASE] = new ButtonHandler() {
+            @Override
+            int press(KeyboardStateMachine m, int s) {
+                return m.onHat(0, -1);
+            }
+        };
+        HANDLERS[ButtonBindings.SYMBOLS] = new ButtonHandler() {
+            @Override
+            int press(KeyboardStateMachine m, int s) {
+                return m.onHat(0, 1);
+            }
+        };
+        HANDLERS[ButtonBindings.ALT_LEFT] = new AltHandler(STATE_L2);
+        HANDLERS[ButtonBindings.ALT_RIGHT] = new AltHandler(STATE_R2);
+        HANDLERS[ButtonBindings.COMMIT_LEFT] = new ButtonHandler() {
+            @Override
+            int press(KeyboardStateMachine m, int s) {
+                if (isSymbols(s)) {
+                    return ACTION_HANDLED | ACTION_COMMIT_LEFT; // Symbols spell no words
+                }
+                // Commit right away so a tap stays instant; a gesture replaces it on release
+                m.state = s | STATE_GESTURE;
+                return ACTION_HANDLED | ACTION_COMMIT_LEFT | ACTION_GESTURE_START;
+            }
+
+            @Override
+            int release(KeyboardStateMachine m, int s) {
+                if (isGesture(s)) {
+                    m.state = s & ~STATE_GESTURE;
+                    return ACTION_HANDLED | ACTION_GESTURE_END;
+                }
+                return 0;
+            }
+        };
+        HANDLERS[ButtonBindings.COMMIT_RIGHT] = new ButtonHandler() {
+            @Override
+            int press(KeyboardStateMachine m, int s) {
+                return ACTION_HANDLED | ACTION_COMMIT_RIGHT;
+            }
+        };
+        HANDLERS[ButtonBindings.CURSOR_LEFT] = new RepeatHandler(REPEAT_LEFT);
+        HANDLERS[ButtonBindings.CURSOR_RIGHT] = new RepeatHandler(REPEAT_RIGHT);
+    }
+
+    private volatile int state;
+    private int layerCount = 1;
+    private boolean hasSymbols;
+    private ButtonBindings bindings = ButtonBindings.DEFAULT;
+
+    public void setLayerCount(int layerCount) {
+        this.layerCount = Math.max(1, Math.min(layerCount, STATE_LAYER + 1));
+        if (layerOf(state) >= this.layerCount) {
+            state &= ~STATE_LAYER;
+        }
+    }
+
+    /** Lets D-pad down switch to the symbol pages, if there are any. */
+    public void setHasSymbols(boolean hasSymbols) {
+        this.hasSymbols = hasSymbols;
+        if (!hasSymbols) {
+            state &= ~STATE_SYMBOLS;
+        }
+    }
+
+    /** Which action each button performs, from now on. */
+    public void setBindings(ButtonBindings bindings) {
+        this.bindings = bindings;
+    }
+
+    public ButtonBindings getBindings() {
+        return bindings;
+    }
+
+    /** Back to layer 0, lower case, no modifiers and nothing repeating. */
+    public void reset() {
+        state = 0;
+    }
+
+    /** The current state, safe to read from any thread. */
+    public int getState() {
+        return state;
+    }
+
+    public static int layerOf(int state) {
+        return state & STATE_LAYER;
+    }
+
+    public static boolean isUpper(int state) {
+        return (state & STATE_UPPER) != 0;
+    }
+
+    public static boolean isAlt(int state) {
+        return (state & STATE_ALT) != 0;
+    }
+
+    public static int repeatOf(int state) {
+        return (state & STATE_REPEAT) >>> STATE_REPEAT_SHIFT;
+    }
+
+    public static boolean isGesture(int state) {
+        return (state & STATE_GESTURE) != 0;
+    }
+
+    public static boolean isSymbols(int state) {
+        return (state & STATE_SYMBOLS) != 0;
+    }
+
+    /**
+     * Handles a button press through the bindings table: one array read picks the action's
+     * handler, so dispatch costs the same for every button and allocates nothing.
+     *
+     * @param repeatCount The system key-repeat count; repeats of auto-repeating actions are
+     *                    swallowed, since the engine repeats them itself.
+     */
+    public int onKeyDown(int keyCode, int repeatCount) {
+        ButtonHandler handler = HANDLERS[bindings.actionFor(keyCode)];
+        return repeatCount > 0 ? handler.repeat(this, state) : handler.press(this, state);
+    }
+
+    public int onKeyUp(int keyCode) {
+        return HANDLERS[bindings.actionFor(keyCode)].release(this, state);
+    }
+
+    /** The hat (or D-pad) moved to (x, y), each -1, 0 or 1. */
+    public int onHat(int x, int y) {
+        int s = state;
+        int actions = ACTION_HANDLED;
+        int repeat = repeatOf(s);
+        if (x == 0 && (repeat == REPEAT_LEFT || repeat == REPEAT_RIGHT)) {
+            s = withRepeat(s, REPEAT_NONE); // Hat left the horizontal, stop moving the cursor
+            actions |= ACTION_REPEAT_STOP;
+        }
+        if (y == -1) {
+            s ^= STATE_UPPER;
+            actions |= ACTION_RELAYOUT;
+        } else if (y == 1) {
+            if (hasSymbols) {
+                s ^= STATE_SYMBOLS;
+            }
+            actions |= ACTION_RELAYOUT;
+        } else if (x != 0) {
+            s = withRepeat(s, x < 0 ? REPEAT_LEFT : REPEAT_RIGHT);
+            actions |= ACTION_REPEAT_START;
+        }
+        state = s;
+        return actions;
+    }
+
+    /** The right stick pointed at {@code layer}. */
+    public int onLayerSelected(int layer) {
+        state = (state & ~STATE_LAYER) | Math.min(layer, layerCount - 1);
+        return ACTION_HANDLED | ACTION_RELAYOUT;
+    }
+
+    private int releaseTrigger(int s) {
+        if ((s & (STATE_L2 | STATE_R2)) == 0) {
+            state = s & ~STATE_ALT;
+            return ACTION_HANDLED | ACTION_RELAYOUT;
+        }
+        state = s;
+        return ACTION_HANDLED;
+    }
+
+    private static int withRepeat(int s, int repeat) {
+        return (s & ~STATE_REPEAT) | (repeat << STATE_REPEAT_SHIFT);
+    }
+}
@@ -0,0 +1,88 @@
+package com.example.gamepadkeyboard.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+
+/**
+ * Reader for the compiled layout format produced by the app module's compileLayouts Gradle task.
+ *
+ * All values are big-endian:
+ * <pre>
+ *   int    magic        'GPKL'
+ *   short  version      1
+ *   short  layerCount
+ *   int    stringCount
+ *   stringCount x { short byteLength, byteLength bytes of UTF-8 }
+ *   layerCount * 8 rings, in CompiledLayout index order (layer, alt, upper, side) x {
+ *       short keyCount, keyCount x short stringIndex
+ *   }
+ * </pre>
+ * Every key is stored once in the string pool, so a ring is just a run of indices into it.
+ */
+public final class LayoutBinary {
+
+    public static final int MAGIC = 0x47504B4C; // "GPKL"
+    public static final int VERSION = 1;
+
+    private LayoutBinary() {
+    }
+
+    /**
+     * Reads a compiled layout from the buffer's current position.
+     *
+     * @throws IllegalArgumentException if the data is not a compiled layout this reader understands.
+     */
+    public static CompiledLayout read(ByteBuffer buffer) {
+        if (buffer.remaining() < 12 || buffer.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a compiled layout");
+        }
+        int version = buffer.getShort() & 0xFFFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported layout version " + version);
+        }
+        int layerCount = buffer.getShort() & 0xFFFF;
+        if (layerCount == 0) {
+            throw new IllegalArgumentException("Layout has no layers");
+        }
+
+        // Counts are checked against what is left before anything is allocated from them, so a
+        // corrupt or truncated file fails here instead of running out of memory
+        int stringCount = buffer.getInt();
+        if (stringCount < 0 || stringCount > buffer.remaining() / 2) {
+            throw new IllegalArgumentException("String count " + stringCount + " exceeds the data");
+        }
+        String[] pool = new String[stringCount];
+        byte[] scratch = new byte[64];
+        for (int i = 0; i < pool.length; i++) {
+            int length = buffer.getShort() & 0xFFFF;
+            if (length > buffer.remaining()) {
+                throw new IllegalArgumentException("Truncated string " + i);
+            }
+            if (scratch.length < length) {
+                scratch = new byte[length];
+            }
+            buffer.get(scratch, 0, length);
+            pool[i] = new String(scratch, 0, length, StandardCharsets.UTF_8);
+        }
+
+        CompiledLayout.Builder builder = new CompiledLayout.Builder(layerCount);
+        for (int layer = 0; layer < layerCount; layer++) {
+            for (int variant = 0; variant < 8; variant++) {
+                int keyCount = buffer.getShort() & 0xFFFF;
+                if (keyCount > buffer.remaining() / 2) {
+                    throw new IllegalArgumentException("Key count " + keyCount + " exceeds the data");
+                }
+                String[] keys = new String[keyCount];
+                for (int k = 0; k < keys.length; k++) {
+                    int index = buffer.getShort() & 0xFFFF;
+                    if (index >= pool.length) {
+                        throw new IllegalArgumentException("String index " + index + " out of range");
+                    }
+                    keys[k] = pool[index];
+                }
+                builder.setKeys(layer, (variant & 4) != 0, (variant & 2) != 0, variant & 1, keys);
+            }
+        }
+        return builder.build();
+    }
+}
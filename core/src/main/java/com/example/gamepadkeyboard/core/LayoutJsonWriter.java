@@ -0,0 +1,58 @@
+package com.example.gamepadkeyboard.core;
+
+import com.fasterxml.jackson.core.JsonEncoding;
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonGenerator;
+
+import java.io.IOException;
+import java.io.OutputStream;
+
+/**
+ * Writes a {@link CompiledLayout} back out as a JSON layout (the RadialMenuSet schema), so a
+ * generated layout can be reviewed, edited and loaded like a hand-written one. Every ring is
+ * written, empty ones as empty arrays.
+ */
+public final class LayoutJsonWriter {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private LayoutJsonWriter() {
+    }
+
+    /** Writes {@code layout} as pretty-printed UTF-8; {@code out} is left open. */
+    public static void write(CompiledLayout layout, OutputStream out) throws IOException {
+        try (JsonGenerator generator = JSON_FACTORY.createGenerator(out, JsonEncoding.UTF8)) {
+            generator.disable(JsonGenerator.Feature.AUTO_CLOSE_TARGET);
+            generator.useDefaultPrettyPrinter();
+            generator.writeStartArray();
+            for (int layer = 0; layer < layout.getLayerCount(); layer++) {
+                generator.writeStartObject();
+                writePair(generator, layout, layer, false);
+                writePair(generator, layout, layer, true);
+                generator.writeEndObject();
+            }
+            generator.writeEndArray();
+        }
+    }
+
+    private static void writePair(JsonGenerator generator, CompiledLayout layout, int layer,
+                                  boolean alt) throws IOException {
+        generator.writeObjectFieldStart(alt ? "alt" : "base");
+        for (int side = CompiledLayout.LEFT; side <= CompiledLayout.RIGHT; side++) {
+            generator.writeObjectFieldStart(side == CompiledLayout.LEFT ? "left" : "right");
+            writeKeys(generator, "lower", layout.ring(layer, alt, false, side));
+            writeKeys(generator, "upper", layout.ring(layer, alt, true, side));
+            generator.writeEndObject();
+        }
+        generator.writeEndObject();
+    }
+
+    private static void writeKeys(JsonGenerator generator, String name, CompiledLayout.Ring ring)
+            throws IOException {
+        generator.writeArrayFieldStart(name);
+        for (int slice = 0; slice < ring.size(); slice++) {
+            generator.writeString(ring.key(slice));
+        }
+        generator.writeEndArray();
+    }
+}
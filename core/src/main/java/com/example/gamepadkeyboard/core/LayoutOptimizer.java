@@ -0,0 +1,516 @@
+package com.example.gamepadkeyboard.core;
+
+import java.io.ByteArrayOutputStream;
+import java.io.File;
+import java.io.FileOutputStream;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Locale;
+import java.util.Map;
+import java.util.SplittableRandom;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveTask;
+
+/**
+ * Searches for a faster layout for a corpus by simulated annealing over which key goes on which
+ * left slice, with independent annealing chains running in parallel on a {@link ForkJoinPool}.
+ *
+ * The left rings are the ones a stick can type on (see {@link TypingCostModel}), so those are what
+ * gets optimized: every (layer, alt, slice) of the input's left lower rings is a position, and
+ * every distinct key is an item, carrying its upper-case partner with it. Letters pair with their
+ * own capital, which also fixes upper rings that do not match their lower ones; other keys keep
+ * the shifted symbol the input had on the same slice. Keys typed in the corpus but found only on
+ * the right rings join the items, so they can become reachable. Ring sizes and the right rings
+ * stay as they were.
+ *
+ * A layout is scored as the sum, over all pairs of consecutive characters in the corpus (spaces
+ * skipped, since Y moves nothing), of the cost of moving from the first key's position to the
+ * second's, using the {@link TypingCostModel} action costs: a quadratic assignment problem. Each
+ * chain keeps, for every item and position, what the item's pairs would cost from there; swapping
+ * two items is then scored in constant time, and only an accepted swap costs a pass over that
+ * table.
+ */
+public final class LayoutOptimizer {
+
+    public static final int DEFAULT_ITERATIONS = 2_000_000;
+
+    private final CompiledLayout input;
+    private final int layerCount;
+    private final int positions;
+    private final int[] positionLayer;
+    private final boolean[] positionAlt;
+    private final int[] positionSlice;
+    private final float[][] distance; // Cost of typing at column after typing at row
+
+    private final String[] lowerKeys; // Per item; items past realItems are filler
+    private final String[] upperKeys;
+    private final int realItems;      // Items with a nonzero row in flow
+    private final float[][] flow;     // Corpus pairs: flow[a][b] = times b followed a
+    private final int[] initial;      // Position of each item in the input layout
+
+    /** The best assignment a chain found. */
+    private static final class Solution {
+        final int[] itemAt;
+        final double cost;
+
+        Solution(int[] itemAt, double cost) {
+            this.itemAt = itemAt;
+            this.cost = cost;
+        }
+    }
+
+    LayoutOptimizer(CompiledLayout input, CharSequence corpus) {
+        this.input = input.materializeAll();
+        this.layerCount = input.getLayerCount();
+
+        // Positions: every slice of the left lower rings, base and alt, of every layer
+        int count = 0;
+        for (int layer = 0; layer < layerCount; layer++) {
+            count += input.ring(layer, false, false, CompiledLayout.LEFT).size()
+                    + input.ring(layer, true, false, CompiledLayout.LEFT).size();
+        }
+        positions = count;
+        positionLayer = new int[count];
+        positionAlt = new boolean[count];
+        positionSlice = new int[count];
+        int p = 0;
+        for (int layer = 0; layer < layerCount; layer++) {
+            for (int alt = 0; alt < 2; alt++) {
+                int size = input.ring(layer, alt == 1, false, CompiledLayout.LEFT).size();
+                for (int slice = 0; slice < size; slice++, p++) {
+                    positionLayer[p] = layer;
+                    positionAlt[p] = alt == 1;
+                    positionSlice[p] = slice;
+                }
+            }
+        }
+        distance = new float[count][count];
+        for (int from = 0; from < count; from++) {
+            for (int to = 0; to < count; to++) {
+                distance[from][to] = transitionMs(from, to);
+            }
+        }
+
+        // Items: distinct left keys in input order, then right-only keys; the rarest go if
+        // there are more than positions
+        Map<String, String> pairs = new LinkedHashMap<>();
+        Map<String, Integer> leftPosition = new HashMap<>();
+        p = 0;
+        for (int layer = 0; layer < layerCount; layer++) {
+            for (int alt = 0; alt < 2; alt++) {
+                CompiledLayout.Ring lower = input.ring(layer, alt == 1, false, CompiledLayout.LEFT);
+                CompiledLayout.Ring upper = input.ring(layer, alt == 1, true, CompiledLayout.LEFT);
+                for (int slice = 0; slice < lower.size(); slice++, p++) {
+                    String key = lower.key(slice);
+                    if (!pairs.containsKey(key)) {
+                        pairs.put(key, upperOf(key, alt == 1 ? upper.key(slice) : null));
+                        leftPosition.put(key, p);
+                    }
+                }
+            }
+        }
+        for (int layer = 0; layer < layerCount; layer++) {
+            for (int alt = 0; alt < 2; alt++) {
+                CompiledLayout.Ring lower = input.ring(layer, alt == 1, false, CompiledLayout.RIGHT);
+                CompiledLayout.Ring upper = input.ring(layer, alt == 1, true, CompiledLayout.RIGHT);
+                for (int slice = 0; slice < lower.size(); slice++) {
+                    String key = lower.key(slice);
+                    if (!pairs.containsKey(key) && !pairs.containsValue(key)) {
+                        pairs.put(key, upperOf(key, alt == 1 ? upper.key(slice) : null));
+                    }
+                }
+            }
+        }
+
+        List<String> keys = new ArrayList<>(pairs.keySet());
+        Map<Integer, Integer> itemOf = new HashMap<>();
+        long[] frequency = new long[keys.size()];
+        for (int i = 0; i < keys.size(); i++) {
+            mapKey(itemOf, keys.get(i), i);
+            mapKey(itemOf, pairs.get(keys.get(i)), i);
+        }
+        for (int i = 0; i < corpus.length(); ) {
+            int codePoint = Character.codePointAt(corpus, i);
+            i += Character.charCount(codePoint);
+            Integer item = itemOf.get(codePoint);
+            if (item != null) {
+                frequency[item]++;
+            }
+        }
+        // Keep the most typed items, left ones first on ties so an unused corpus changes little
+        Integer[] order = new Integer[keys.size()];
+        for (int i = 0; i < order.length; i++) {
+            order[i] = i;
+        }
+        Arrays.sort(order, (a, b) -> frequency[a] != frequency[b]
+                ? Long.compare(frequency[b], frequency[a]) : Integer.compare(a, b));
+        int kept = Math.min(keys.size(), count);
+        int[] keptItems = new int[kept];
+        for (int i = 0; i < kept; i++) {
+            keptItems[i] = order[i];
+        }
+        Arrays.sort(keptItems); // Back to input order
+
+        // Pad with the input's own keys where there are fewer distinct keys than slices
+        lowerKeys = new String[count];
+        upperKeys = new String[count];
+        int[] oldItem = new int[keys.size()];
+        Arrays.fill(oldItem, -1);
+        for (int i = 0; i < kept; i++) {
+            lowerKeys[i] = keys.get(keptItems[i]);
+            upperKeys[i] = pairs.get(lowerKeys[i]);
+            oldItem[keptItems[i]] = i;
+        }
+        realItems = kept;
+        initial = new int[count];
+        boolean[] used = new boolean[count];
+        Arrays.fill(initial, -1);
+        for (int i = 0; i < kept; i++) {
+            Integer position = leftPosition.get(lowerKeys[i]);
+            if (position != null) {
+                initial[i] = position;
+                used[position] = true;
+            }
+        }
+        int free = 0;
+        for (int i = 0; i < count; i++) {
+            if (initial[i] < 0) {
+                while (used[free]) {
+                    free++;
+                }
+                initial[i] = free;
+                used[free] = true;
+            }
+            if (i >= kept) {
+                int position = initial[i];
+                lowerKeys[i] = input.ring(positionLayer[position], positionAlt[position], false,
+                        CompiledLayout.LEFT).key(positionSlice[position]);
+                upperKeys[i] = upperOf(lowerKeys[i], null);
+            }
+        }
+
+        // Pairs of consecutive typed characters, by item
+        flow = new float[count][count];
+        int previous = -1;
+        for (int i = 0; i < corpus.length(); ) {
+            int codePoint = Character.codePointAt(corpus, i);
+            i += Character.charCount(codePoint);
+            if (Character.isWhitespace(codePoint)) {
+                continue;
+            }
+            Integer item = itemOf.get(codePoint);
+            int current = item != null ? oldItem[item] : -1;
+            if (previous >= 0 && current >= 0) {
+                flow[previous][current]++;
+            }
+            previous = current;
+        }
+    }
+
+    private static void mapKey(Map<Integer, Integer> itemOf, String key, int item) {
+        if (key.codePointCount(0, key.length()) == 1) {
+            itemOf.putIfAbsent(key.codePointAt(0), item);
+        }
+    }
+
+    /** A letter's capital, otherwise the shifted key the input had, otherwise the key itself. */
+    private static String upperOf(String key, String inputUpper) {
+        String upper = key.toUpperCase(Locale.ROOT);
+        if (!upper.equals(key)) {
+            return upper;
+        }
+        return inputUpper != null ? inputUpper : key;
+    }
+
+    /** The modeled cost of typing at {@code to} right after typing at {@code from}. */
+    private float transitionMs(int from, int to) {
+        float cost = TypingCostModel.COMMIT_MS + (positionAlt[to] ? TypingCostModel.TRIGGER_HELD_MS : 0);
+        if (from == to) {
+            return cost;
+        }
+        if (positionAlt[from] != positionAlt[to]) {
+            cost += positionAlt[to] ? TypingCostModel.TRIGGER_HOLD_MS : TypingCostModel.TRIGGER_RELEASE_MS;
+        }
+        if (positionLayer[from] != positionLayer[to]) {
+            int presses = (positionLayer[to] - positionLayer[from] + layerCount) % layerCount;
+            cost += Math.min(presses * TypingCostModel.BUTTON_MS, TypingCostModel.LAYER_FLICK_MS);
+        }
+        return cost + TypingCostModel.stickMs(
+                TypingCostModel.sliceDegrees(positionSlice[from], sliceCount(from)),
+                positionSlice[to], sliceCount(to));
+    }
+
+    private int sliceCount(int position) {
+        return input.ring(positionLayer[position], positionAlt[position], false, CompiledLayout.LEFT).size();
+    }
+
+    /** The score of an assignment, from scratch. */
+    double cost(int[] positionOf) {
+        double total = 0;
+        for (int a = 0; a < realItems; a++) {
+            for (int b = 0; b < realItems; b++) {
+                if (flow[a][b] != 0) {
+                    total += flow[a][b] * distance[positionOf[a]][positionOf[b]];
+                }
+            }
+        }
+        return total;
+    }
+
+    /** One annealing run, with its own random stream and scratch tables. */
+    final class Chain {
+        private final SplittableRandom random;
+        final int[] positionOf = initial.clone();
+        private final int[] itemAt = new int[positions];
+        // contribution[x][p]: cost of x's pairs with every other item if x were at p
+        private final double[][] contribution = new double[realItems][positions];
+        double cost;
+
+        Chain(SplittableRandom random) {
+            this.random = random;
+            for (int item = 0; item < positions; item++) {
+                itemAt[positionOf[item]] = item;
+            }
+            // Start each chain from its own shuffle, so they explore different regions
+            for (int i = positions - 1; i > 0; i--) {
+                swapPositions(i, random.nextInt(i + 1));
+            }
+            for (int x = 0; x < realItems; x++) {
+                for (int p = 0; p < positions; p++) {
+                    double sum = 0;
+                    for (int k = 0; k < realItems; k++) {
+                        sum += flow[x][k] * distance[p][positionOf[k]] + flow[k][x] * distance[positionOf[k]][p];
+                    }
+                    contribution[x][p] = sum;
+                }
+            }
+            cost = cost(positionOf);
+        }
+
+        private void swapPositions(int r, int s) {
+            int u = itemAt[r];
+            int v = itemAt[s];
+            itemAt[r] = v;
+            itemAt[s] = u;
+            positionOf[u] = s;
+            positionOf[v] = r;
+        }
+
+        /** contribution[x][p] without the pairs of x with u and v, at their current positions. */
+        private double others(int x, int p, int u, int v) {
+            double c = contribution[x][p];
+            int pu = positionOf[u];
+            int pv = positionOf[v];
+            c -= flow[x][u] * distance[p][pu] + flow[u][x] * distance[pu][p];
+            c -= flow[x][v] * distance[p][pv] + flow[v][x] * distance[pv][p];
+            return c;
+        }
+
+        /** Cost change of swapping the items at positions r and s, in constant time. */
+        double delta(int r, int s) {
+            int u = itemAt[r];
+            int v = itemAt[s];
+            double d = 0;
+            // others() leaves out each item's pair with itself, so a doubled letter is added back
+            // here, also when the other side of the swap is a filler
+            if (u < realItems) {
+                d += others(u, s, u, v) - others(u, r, u, v)
+                        + flow[u][u] * (distance[s][s] - distance[r][r]);
+            }
+            if (v < realItems) {
+                d += others(v, r, u, v) - others(v, s, u, v)
+                        + flow[v][v] * (distance[r][r] - distance[s][s]);
+            }
+            if (u < realItems && v < realItems) {
+                d += flow[u][v] * (distance[s][r] - distance[r][s])
+                        + flow[v][u] * (distance[r][s] - distance[s][r]);
+            }
+            return d;
+        }
+
+        /** Takes the swap and brings every item's contributions up to date. */
+        void accept(int r, int s, double d) {
+            int u = itemAt[r];
+            int v = itemAt[s];
+            swapPositions(r, s);
+            cost += d;
+            for (int x = 0; x < realItems; x++) {
+                float xu = u < realItems ? flow[x][u] : 0;
+                float ux = u < realItems ? flow[u][x] : 0;
+                float xv = v < realItems ? flow[x][v] : 0;
+                float vx = v < realItems ? flow[v][x] : 0;
+                if (xu == 0 && ux == 0 && xv == 0 && vx == 0) {
+                    continue;
+                }
+                double[] row = contribution[x];
+                for (int p = 0; p < positions; p++) {
+                    row[p] += xu * (distance[p][s] - distance[p][r]) + ux * (distance[s][p] - distance[r][p])
+                            + xv * (distance[p][r] - distance[p][s]) + vx * (distance[r][p] - distance[s][p]);
+                }
+            }
+        }
+
+        Solution run(int iterations) {
+            // Start hot enough to take a typical uphill swap half the time
+            double sum = 0;
+            int samples = 1000;
+            for (int i = 0; i < samples; i++) {
+                sum += Math.abs(delta(random.nextInt(positions), random.nextInt(positions)));
+            }
+            double temperature = Math.max(sum / samples, 1e-6) / Math.log(2);
+            double cooling = Math.pow(1e-4, 1.0 / iterations);
+
+            int[] best = itemAt.clone();
+            double bestCost = cost;
+            for (int i = 0; i < iterations; i++, temperature *= cooling) {
+                int r = random.nextInt(positions);
+                int s = random.nextInt(positions);
+                if (r == s) {
+                    continue;
+                }
+                double d = delta(r, s);
+                if (d <= 0 || random.nextDouble() < Math.exp(-d / temperature)) {
+                    accept(r, s, d);
+                    if (cost < bestCost - 1e-9) {
+                        bestCost = cost;
+                        System.arraycopy(itemAt, 0, best, 0, positions);
+                    }
+                }
+            }
+            return new Solution(best, bestCost);
+        }
+    }
+
+    /** Runs chains [from, to) and keeps the best, splitting the range across the pool. */
+    private final class Search extends RecursiveTask<Solution> {
+        private static final long serialVersionUID = 1L;
+
+        private final int from, to;
+        private final int iterations;
+        private final SplittableRandom random;
+
+        Search(int from, int to, int iterations, SplittableRandom random) {
+            this.from = from;
+            this.to = to;
+            this.iterations = iterations;
+            this.random = random;
+        }
+
+        @Override
+        protected Solution compute() {
+            if (to - from == 1) {
+                return new Chain(random).run(iterations);
+            }
+            int middle = (from + to) >>> 1;
+            Search left = new Search(from, middle, iterations, random.split());
+            Search right = new Search(middle, to, iterations, random.split());
+            left.fork();
+            Solution r = right.compute();
+            Solution l = left.join();
+            return l.cost <= r.cost ? l : r;
+        }
+    }
+
+    /**
+     * Optimizes {@code input} for {@code corpus}.
+     *
+     * @param chains     Independent annealing runs; the best one wins.
+     * @param iterations Proposed swaps per chain.
+     * @param seed       Seed for the whole search; equal arguments give equal layouts.
+     */
+    public static CompiledLayout optimize(CompiledLayout input, CharSequence corpus, ForkJoinPool pool,
+                                          int chains, int iterations, long seed) {
+        LayoutOptimizer optimizer = new LayoutOptimizer(input, corpus);
+        Solution best = pool.invoke(optimizer.new Search(0, Math.max(1, chains), iterations,
+                new SplittableRandom(seed)));
+        return optimizer.build(best.itemAt);
+    }
+
+    /** The input layout with its left rings reassigned as {@code itemAt} says. */
+    private CompiledLayout build(int[] itemAt) {
+        CompiledLayout.Builder builder = new CompiledLayout.Builder(layerCount);
+        int p = 0;
+        for (int layer = 0; layer < layerCount; layer++) {
+            for (int alt = 0; alt < 2; alt++) {
+                int size = input.ring(layer, alt == 1, false, CompiledLayout.LEFT).size();
+                String[] lower = new String[size];
+                String[] upper = new String[size];
+                for (int slice = 0; slice < size; slice++, p++) {
+                    lower[slice] = lowerKeys[itemAt[p]];
+                    upper[slice] = upperKeys[itemAt[p]];
+                }
+                builder.setKeys(layer, alt == 1, false, CompiledLayout.LEFT, lower);
+                builder.setKeys(layer, alt == 1, true, CompiledLayout.LEFT, upper);
+                for (int upperCase = 0; upperCase < 2; upperCase++) {
+                    CompiledLayout.Ring right = input.ring(layer, alt == 1, upperCase == 1, CompiledLayout.RIGHT);
+                    String[] keys = new String[right.size()];
+                    for (int slice = 0; slice < keys.length; slice++) {
+                        keys[slice] = right.key(slice);
+                    }
+                    builder.setKeys(layer, alt == 1, upperCase == 1, CompiledLayout.RIGHT, keys);
+                }
+            }
+        }
+        return builder.build();
+    }
+
+    /**
+     * Usage: LayoutOptimizer corpus.txt layout(.gpkl|.json) output.json [chains] [iterations]
+     * Chains default to four per pool worker, also when given as 0.
+     * Writes the optimized layout as JSON and prints the simulated typist's results for the input
+     * and the output layout, as key=value blocks like {@link TypistSimulation}.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 3) {
+            System.err.println("Usage: LayoutOptimizer <corpus.txt> <layout.gpkl|layout.json> <output.json> [chains] [iterations]");
+            System.exit(2);
+        }
+        String corpus = new String(Files.readAllBytes(new File(args[0]).toPath()), StandardCharsets.UTF_8);
+        byte[] layoutBytes = Files.readAllBytes(new File(args[1]).toPath());
+        CompiledLayout input = args[1].endsWith(".json")
+                ? StreamingLayoutLoader.loadAll(layoutBytes)
+                : LayoutBinary.read(ByteBuffer.wrap(layoutBytes));
+        ForkJoinPool pool = ForkJoinPool.commonPool();
+        int chains = args.length > 3 ? Integer.parseInt(args[3]) : 0;
+        if (chains <= 0) {
+            chains = 4 * pool.getParallelism(); // Enough to keep every worker busy while others finish
+        }
+        int iterations = args.length > 4 ? Integer.parseInt(args[4]) : DEFAULT_ITERATIONS;
+
+        long start = System.nanoTime();
+        CompiledLayout output = optimize(input, corpus, pool, chains, iterations, 42);
+        long elapsed = System.nanoTime() - start;
+
+        // Written through a buffer and reloaded, so what is saved is checked to load back
+        ByteArrayOutputStream json = new ByteArrayOutputStream();
+        LayoutJsonWriter.write(output, json);
+        StreamingLayoutLoader.loadAll(json.toByteArray());
+        File target = new File(args[2]);
+        File dir = target.getAbsoluteFile().getParentFile();
+        if (dir != null && !dir.isDirectory() && !dir.mkdirs()) {
+            throw new IOException("Failed to create " + dir);
+        }
+        try (OutputStream out = new FileOutputStream(target)) {
+            json.writeTo(out);
+        }
+
+        System.out.println("chains=" + chains);
+        System.out.println("iterations=" + iterations);
+        System.out.println("parallelism=" + pool.getParallelism());
+        System.out.println("elapsedMillis=" + String.format(Locale.US, "%.0f", elapsed / 1e6));
+        System.out.println();
+        System.out.println("layout=" + args[1]);
+        System.out.println(TypistSimulation.simulate(input, corpus));
+        System.out.println();
+        System.out.println("layout=" + args[2]);
+        System.out.println(TypistSimulation.simulate(output, corpus));
+    }
+}
@@ -0,0 +1,247 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * Turns raw stick/hat samples into keyboard state changes, and only reports actual changes.
+ *
+ * A MotionEvent is fed in as {@link #beginEvent()}, one {@link #addSample} per historical sample
+ * (oldest first) plus the current one, then {@link #endEvent()}. Samples are resolved in order but
+ * only the state at the end of the event is compared against the last applied
+ * (layer, leftSlice, rightSlice, hat) state, so a batch of samples that wiggles around inside one
+ * slice costs no relayout and no invalidate at all.
+ *
+ * Each stick goes through a {@link StickFilter} (smoothing, radial dead zone, slice hysteresis)
+ * before it is resolved. To show what that saves, every sample is also resolved the way it was
+ * before the filters, per-axis dead zones on the raw axes, and the changes that path would have
+ * reported are counted next to the ones actually reported.
+ */
+public final class MotionPipeline {
+
+    public interface Listener {
+        /** The right stick moved onto a different layer. */
+        void onLayerChanged(int layer);
+
+        /** The hovered slice on one side changed; -1 means nothing is hovered. */
+        void onHoverChanged(int side, int slice);
+
+        /** The hat (D-pad reported as axes) changed to a new position. */
+        void onHatChanged(int x, int y);
+    }
+
+    // The unfiltered thresholds, kept only to count what the filters suppress
+    private static final float BASELINE_AXIS_DEAD_ZONE = 0.15f;
+    private static final float BASELINE_LAYER_DEAD_ZONE = 0.1f;
+
+    private final Listener listener;
+    private final StickFilter leftFilter = new StickFilter();
+    private final StickFilter rightFilter = new StickFilter();
+
+    private SliceResolver leftResolver;
+    private SliceResolver rightResolver; // Null while the right stick selects layers instead
+    private SliceResolver layerResolver;
+
+    // Latest resolved state, updated per sample
+    private int leftSlice = -1, rightSlice = -1;
+    private int layer = -1;
+    private int hatX, hatY;
+
+    // Last state pushed to the listener
+    private int appliedLayer = -1;
+    private int appliedLeftSlice = -1;
+    private int appliedRightSlice = -1;
+    private int appliedHatX, appliedHatY;
+
+    private long eventsIn;
+    private long samplesIn;
+    private long relayoutsOut;
+    private long hoverChangesOut;
+
+    // What the unfiltered path would have resolved and reported
+    private int baselineLeftSlice = -1, baselineRightSlice = -1, baselineLayer = -1;
+    private int appliedBaselineLeftSlice = -1, appliedBaselineRightSlice = -1;
+    private int appliedBaselineLayer = -1;
+    private float rawX, rawY, rawRx, rawRy;
+    private long baselineRelayouts;
+    private long baselineHoverChanges;
+
+    public MotionPipeline(Listener listener) {
+        this.listener = listener;
+    }
+
+    /** The left stick's filter, to configure it. */
+    public StickFilter getLeftFilter() {
+        return leftFilter;
+    }
+
+    /** The right stick's filter, to configure it; it also gates layer selection. */
+    public StickFilter getRightFilter() {
+        return rightFilter;
+    }
+
+    /**
+     * Points the pipeline at the rings currently on screen. If the slice under the sticks changes
+     * because of the new geometry, the new hover is reported right away.
+     */
+    public void setResolvers(SliceResolver left, SliceResolver right, SliceResolver layers) {
+        leftResolver = left;
+        rightResolver = right;
+        layerResolver = layers;
+        leftSlice = leftResolver != null ? leftFilter.resolve(leftResolver, -1) : -1;
+        rightSlice = rightResolver != null ? rightFilter.resolve(rightResolver, -1) : -1;
+        resolveBaseline(rawX, rawY, rawRx, rawRy);
+        countBaseline();
+        applyHover();
+    }
+
+    public void beginEvent() {
+        eventsIn++;
+    }
+
+    /** @param timeNanos The sample's time; the smoothing filters need the spacing of samples. */
+    public void addSample(long timeNanos, float x, float y, float rx, float ry,
+                          float hatAxisX, float hatAxisY) {
+        samplesIn++;
+        leftFilter.filter(timeNanos, x, y);
+        leftSlice = leftResolver != null ? leftFilter.resolve(leftResolver, leftSlice) : -1;
+
+        rightFilter.filter(timeNanos, rx, ry);
+        if (rightResolver != null) {
+            rightSlice = rightFilter.resolve(rightResolver, rightSlice);
+        } else if (rightFilter.isDeflected() && layerResolver != null) {
+            layer = rightFilter.resolve(layerResolver, layer);
+        } else {
+            layer = -1; // Released, so pointing at the same layer again counts as a change
+        }
+        resolveBaseline(x, y, rx, ry);
+
+        hatX = Math.round(hatAxisX);
+        hatY = Math.round(hatAxisY);
+    }
+
+    /**
+     * Pushes whatever changed since the last applied state to the listener.
+     *
+     * @return true if anything was reported.
+     */
+    public boolean endEvent() {
+        countBaseline();
+        boolean changed = false;
+        if (layer != appliedLayer) {
+            appliedLayer = layer;
+            if (layer >= 0) {
+                relayoutsOut++;
+                listener.onLayerChanged(layer);
+                changed = true;
+            }
+        }
+        changed |= applyHover();
+        if (hatX != appliedHatX || hatY != appliedHatY) {
+            appliedHatX = hatX;
+            appliedHatY = hatY;
+            listener.onHatChanged(hatX, hatY);
+            changed = true;
+        }
+        return changed;
+    }
+
+    /** Forgets the stick state, e.g. when the input view is shown or hidden. */
+    public void reset() {
+        leftFilter.reset();
+        rightFilter.reset();
+        leftSlice = rightSlice = -1;
+        layer = appliedLayer = -1;
+        appliedLeftSlice = appliedRightSlice = -1;
+        hatX = hatY = appliedHatX = appliedHatY = 0;
+        rawX = rawY = rawRx = rawRy = 0;
+        baselineLeftSlice = baselineRightSlice = baselineLayer = -1;
+        appliedBaselineLeftSlice = appliedBaselineRightSlice = appliedBaselineLayer = -1;
+    }
+
+    public long getEventsIn() {
+        return eventsIn;
+    }
+
+    public long getSamplesIn() {
+        return samplesIn;
+    }
+
+    /** Relayouts plus hover changes: every one of these ends in at least one invalidate(). */
+    public long getRedrawsOut() {
+        return relayoutsOut + hoverChangesOut;
+    }
+
+    /** Hover changes the unfiltered path would have reported but the filters did not. */
+    public long getHoverChangesSuppressed() {
+        return baselineHoverChanges - hoverChangesOut;
+    }
+
+    /** Redraws the unfiltered path would have caused but the filters did not. */
+    public long getRedrawsSuppressed() {
+        return baselineRelayouts + baselineHoverChanges - getRedrawsOut();
+    }
+
+    @Override
+    public String toString() {
+        return "MotionPipeline{eventsIn=" + eventsIn
+                + ", samplesIn=" + samplesIn
+                + ", relayoutsOut=" + relayoutsOut
+                + ", hoverChangesOut=" + hoverChangesOut
+                + ", hoverChangesSuppressed=" + getHoverChangesSuppressed()
+                + ", redrawsSuppressed=" + getRedrawsSuppressed()
+                + ", left=" + leftFilter
+                + ", right=" + rightFilter + "}";
+    }
+
+    private boolean applyHover() {
+        boolean changed = false;
+        if (leftSlice != appliedLeftSlice) {
+            appliedLeftSlice = leftSlice;
+            hoverChangesOut++;
+            listener.onHoverChanged(CompiledLayout.LEFT, leftSlice);
+            changed = true;
+        }
+        if (rightSlice != appliedRightSlice) {
+            appliedRightSlice = rightSlice;
+            hoverChangesOut++;
+            listener.onHoverChanged(CompiledLayout.RIGHT, rightSlice);
+            changed = true;
+        }
+        return changed;
+    }
+
+    private void resolveBaseline(float x, float y, float rx, float ry) {
+        rawX = x;
+        rawY = y;
+        rawRx = rx;
+        rawRy = ry;
+        baselineLeftSlice = leftResolver != null
+                ? leftResolver.resolve(baselineDeadZone(x), baselineDeadZone(y)) : -1;
+        if (rightResolver != null) {
+            baselineRightSlice = rightResolver.resolve(baselineDeadZone(rx), baselineDeadZone(ry));
+        } else if (rx > BASELINE_LAYER_DEAD_ZONE || ry > BASELINE_LAYER_DEAD_ZONE) {
+            baselineLayer = layerResolver != null ? layerResolver.resolve(rx, ry) : -1;
+        } else {
+            baselineLayer = -1;
+        }
+    }
+
+    private void countBaseline() {
+        if (baselineLayer != appliedBaselineLayer) {
+            appliedBaselineLayer = baselineLayer;
+            if (baselineLayer >= 0) {
+                baselineRelayouts++;
+            }
+        }
+        if (baselineLeftSlice != appliedBaselineLeftSlice) {
+            appliedBaselineLeftSlice = baselineLeftSlice;
+            baselineHoverChanges++;
+        }
+        if (baselineRightSlice != appliedBaselineRightSlice) {
+            appliedBaselineRightSlice = baselineRightSlice;
+            baselineHoverChanges++;
+        }
+    }
+
+    private static float baselineDeadZone(float value) {
+        return Math.abs(value) < BASELINE_AXIS_DEAD_ZONE ? 0.0f : value;
+    }
+}
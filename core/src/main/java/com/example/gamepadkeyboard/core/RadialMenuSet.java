@@ -1,4 +1,4 @@
-package com.example.gamepadkeyboard;
+package com.example.gamepadkeyboard.core;
 
 import com.fasterxml.jackson.annotation.JsonProperty;
 
@@ -41,6 +41,33 @@ public class RadialMenuSet {
         return isAlt ? alt : base;
     }
 
+    /**
+     * Flattens the parsed layers into the immutable tables the input path reads from.
+     * Missing pairs or key lists compile to empty rings.
+     */
+    public static CompiledLayout compile(List<RadialMenuSet> sets) {
+        CompiledLayout.Builder builder = new CompiledLayout.Builder(sets.size());
+        for (int layer = 0; layer < sets.size(); layer++) {
+            for (int alt = 0; alt < 2; alt++) {
+                RadialMenuPair pair = sets.get(layer).getPair(alt == 1);
+                if (pair == null) {
+                    continue;
+                }
+                addKeys(builder, layer, alt == 1, CompiledLayout.LEFT, pair.getLeft());
+                addKeys(builder, layer, alt == 1, CompiledLayout.RIGHT, pair.getRight());
+            }
+        }
+        return builder.build();
+    }
+
+    private static void addKeys(CompiledLayout.Builder builder, int layer, boolean alt, int side,
+                                RadialMenuKeys keys) {
+        if (keys != null) {
+            builder.setKeys(layer, alt, false, side, keys.getLower());
+            builder.setKeys(layer, alt, true, side, keys.getUpper());
+        }
+    }
+
     public static class RadialMenuPair {
 
         @JsonProperty("left") // Annotation for Jackson
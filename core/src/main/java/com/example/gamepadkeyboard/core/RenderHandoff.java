@@ -0,0 +1,90 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * Hands what the radial menus should show (both rings and both hovered slices) from the input
+ * thread to a render thread without locks or per-update allocation.
+ *
+ * It is a sequence lock with a single writer: the writer bumps the sequence to odd, writes, and
+ * bumps it back to even; a reader copies the fields and retries if the sequence was odd or moved
+ * meanwhile. All fields are volatile, which is what makes the copy consistent under the Java
+ * memory model. The writer never waits, and a reader only spins for the handful of writes that
+ * make up one update.
+ */
+public final class RenderHandoff {
+
+    /** The reader's copy. Only touch it from the reading thread. */
+    public static final class Snapshot {
+        public CompiledLayout.Ring left = CompiledLayout.Ring.EMPTY;
+        public CompiledLayout.Ring right = CompiledLayout.Ring.EMPTY;
+        public int leftHover = -1;
+        public int rightHover = -1;
+        private int sequence = -1;
+
+        public CompiledLayout.Ring ring(int side) {
+            return side == CompiledLayout.LEFT ? left : right;
+        }
+
+        public int hover(int side) {
+            return side == CompiledLayout.LEFT ? leftHover : rightHover;
+        }
+    }
+
+    private volatile int sequence;
+    private volatile CompiledLayout.Ring left = CompiledLayout.Ring.EMPTY;
+    private volatile CompiledLayout.Ring right = CompiledLayout.Ring.EMPTY;
+    private volatile int leftHover = -1;
+    private volatile int rightHover = -1;
+
+    /** Writer thread only. */
+    public void publishRings(CompiledLayout.Ring newLeft, CompiledLayout.Ring newRight) {
+        sequence++;
+        left = newLeft;
+        right = newRight;
+        sequence++;
+    }
+
+    /** Writer thread only. */
+    public void publishHover(int side, int slice) {
+        sequence++;
+        if (side == CompiledLayout.LEFT) {
+            leftHover = slice;
+        } else {
+            rightHover = slice;
+        }
+        sequence++;
+    }
+
+    /** True if something was published since {@code snapshot} was last filled. Any thread. */
+    public boolean hasChanged(Snapshot snapshot) {
+        return sequence != snapshot.sequence;
+    }
+
+    /**
+     * Copies the latest published state into {@code into}.
+     *
+     * @return false if nothing changed since {@code into} was last filled.
+     */
+    public boolean read(Snapshot into) {
+        while (true) {
+            int before = sequence;
+            if (before == into.sequence) {
+                return false;
+            }
+            if ((before & 1) != 0) {
+                continue; // Writer is mid-update
+            }
+            CompiledLayout.Ring l = left;
+            CompiledLayout.Ring r = right;
+            int lh = leftHover;
+            int rh = rightHover;
+            if (sequence == before) {
+                into.left = l;
+                into.right = r;
+                into.leftHover = lh;
+                into.rightHover = rh;
+                into.sequence = before;
+                return true;
+            }
+        }
+    }
+}
@@ -0,0 +1,75 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * Auto-repeat for a held button, driven by display frames instead of the system key-repeat rate.
+ *
+ * After an initial delay the repeat speeds up from single characters to whole words and finally
+ * to whole lines the longer the button stays down, so clearing or crossing a long field takes a
+ * couple of seconds instead of one key-repeat per character. {@link #onFrame} is called with each
+ * frame's timestamp while the button is held and says what, if anything, to do on that frame; at
+ * most one step is taken per frame.
+ */
+public final class RepeatScheduler {
+
+    public static final int NO_STEP = -1;
+
+    private static final long MS = 1_000_000L;
+    private static final long INITIAL_DELAY = 400 * MS;
+    private static final long WORD_PHASE_START = 1_500 * MS;
+    private static final long LINE_PHASE_START = 3_000 * MS;
+    private static final long FIRST_CHAR_INTERVAL = 100 * MS;
+    private static final long LAST_CHAR_INTERVAL = 30 * MS;
+    private static final long WORD_INTERVAL = 150 * MS;
+    private static final long LINE_INTERVAL = 300 * MS;
+
+    private boolean held;
+    private long pressTime;
+    private long nextStepTime;
+
+    /** Starts a repeat; the caller performs the first (single character) step itself. */
+    public void press(long nowNanos) {
+        held = true;
+        pressTime = nowNanos;
+        nextStepTime = nowNanos + INITIAL_DELAY;
+    }
+
+    public void release() {
+        held = false;
+    }
+
+    public boolean isHeld() {
+        return held;
+    }
+
+    /**
+     * @return the granularity of the step due on this frame, as one of the
+     * {@link SurroundingTextCache} constants, or {@link #NO_STEP}.
+     */
+    public int onFrame(long frameTimeNanos) {
+        if (!held || frameTimeNanos < nextStepTime) {
+            return NO_STEP;
+        }
+        long heldFor = frameTimeNanos - pressTime;
+        int granularity;
+        long interval;
+        if (heldFor >= LINE_PHASE_START) {
+            granularity = SurroundingTextCache.LINE;
+            interval = LINE_INTERVAL;
+        } else if (heldFor >= WORD_PHASE_START) {
+            granularity = SurroundingTextCache.WORD;
+            interval = WORD_INTERVAL;
+        } else {
+            // Ramp the character rate up linearly over the character phase
+            long progress = heldFor - INITIAL_DELAY;
+            long span = WORD_PHASE_START - INITIAL_DELAY;
+            granularity = SurroundingTextCache.CHAR;
+            interval = FIRST_CHAR_INTERVAL
+                    - (FIRST_CHAR_INTERVAL - LAST_CHAR_INTERVAL) * Math.max(0, progress) / span;
+        }
+        nextStepTime += interval;
+        if (nextStepTime <= frameTimeNanos) {
+            nextStepTime = frameTimeNanos + interval; // Don't burst to catch up after a stall
+        }
+        return granularity;
+    }
+}
@@ -0,0 +1,126 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * Maps a stick vector to a radial slice index without trig calls or allocation.
+ *
+ * Coordinates follow the screen/joystick convention (x grows right, y grows down) and slices are
+ * numbered clockwise starting at 12 o'clock. All the trig happens once in the constructor, where
+ * every slice edge is converted to a "pseudo-angle": the octant the edge lies in plus a monotonic
+ * ratio of the folded vector components. At lookup time the vector is folded into its octant with
+ * a few comparisons and one division, and a small bucket table points straight at the candidate
+ * edge, so a lookup is a handful of compares regardless of the slice count.
+ */
+public final class SliceResolver {
+
+    private static final int BUCKETS_PER_OCTANT = 8;
+    private static final int BUCKET_COUNT = 8 * BUCKETS_PER_OCTANT;
+
+    private final int sliceCount;
+    private final float[] edges;          // Pseudo-angles of the slice start edges, ascending
+    private final int[] edgeSlices;       // Slice that starts at edges[i]
+    private final int[] bucketFirstEdge;  // Index of the first edge at or after each bucket start
+
+    /**
+     * @param sliceCount       Number of slices in the ring (0 gives a resolver that never hits).
+     * @param centerFirstSlice True if slice 0 is centered on 12 o'clock (like the radial menus),
+     *                         false if slice 0 starts at 12 o'clock (like the layer selector).
+     */
+    public SliceResolver(int sliceCount, boolean centerFirstSlice) {
+        this.sliceCount = Math.max(0, sliceCount);
+        this.edges = new float[this.sliceCount];
+        this.edgeSlices = new int[this.sliceCount];
+        this.bucketFirstEdge = new int[BUCKET_COUNT];
+
+        double sweep = this.sliceCount > 0 ? 360.0 / this.sliceCount : 360.0;
+        double offset = centerFirstSlice ? -sweep / 2.0 : 0.0;
+        for (int i = 0; i < this.sliceCount; i++) {
+            double degrees = (offset + i * sweep) % 360.0;
+            if (degrees < 0) {
+                degrees += 360.0;
+            }
+            // Insertion sort by pseudo-angle; the edges are already sorted apart from one wrap.
+            float pseudo = pseudoAngle(degrees);
+            int j = i;
+            while (j > 0 && edges[j - 1] > pseudo) {
+                edges[j] = edges[j - 1];
+                edgeSlices[j] = edgeSlices[j - 1];
+                j--;
+            }
+            edges[j] = pseudo;
+            edgeSlices[j] = i;
+        }
+
+        int edge = 0;
+        for (int b = 0; b < BUCKET_COUNT; b++) {
+            float bucketStart = (float) b / BUCKETS_PER_OCTANT;
+            while (edge < this.sliceCount && edges[edge] < bucketStart) {
+                edge++;
+            }
+            bucketFirstEdge[b] = edge;
+        }
+    }
+
+    public int getSliceCount() {
+        return sliceCount;
+    }
+
+    /**
+     * Returns the slice under the vector (x, y), or -1 if the vector is zero or the ring is empty.
+     * Magnitude is ignored; dead zones are the caller's job.
+     */
+    public int resolve(float x, float y) {
+        if (sliceCount == 0) {
+            return -1;
+        }
+
+        // Fold into a quadrant: a runs along the quadrant's starting axis, b along the next one
+        // clockwise, so the in-quadrant angle is atan2(b, a) in [0, 90).
+        float up = -y;
+        float a, b;
+        int quadrant;
+        if (up > 0 && x >= 0) {
+            quadrant = 0; a = up; b = x;
+        } else if (x > 0) {
+            quadrant = 1; a = x; b = -up;
+        } else if (up < 0) {
+            quadrant = 2; a = -up; b = -x;
+        } else if (x < 0) {
+            quadrant = 3; a = -x; b = up;
+        } else {
+            return -1; // Zero (or NaN) vector
+        }
+
+        // Fold into an octant and turn the remaining angle into a monotonic ratio in [0, 1).
+        float pseudo = b < a
+                ? 2 * quadrant + b / a
+                : 2 * quadrant + 2 - a / b;
+
+        int bucket = (int) (pseudo * BUCKETS_PER_OCTANT);
+        if (bucket >= BUCKET_COUNT) {
+            bucket = BUCKET_COUNT - 1;
+        }
+
+        int edge = bucketFirstEdge[bucket];
+        while (edge < sliceCount && edges[edge] <= pseudo) {
+            edge++;
+        }
+        // Before the first edge means we are in the slice that wraps around 12 o'clock.
+        return edge == 0 ? edgeSlices[sliceCount - 1] : edgeSlices[edge - 1];
+    }
+
+    /**
+     * Pseudo-angle for a clockwise angle from 12 o'clock, matching the folding done in
+     * {@link #resolve(float, float)}.
+     */
+    private static float pseudoAngle(double degrees) {
+        int octant = (int) (degrees / 45.0);
+        if (octant > 7) {
+            octant = 7;
+        }
+        double local = Math.toRadians(degrees - octant * 45.0);
+        double ratio = (octant & 1) == 0
+                ? Math.tan(local)
+                : 1.0 - Math.tan(Math.PI / 4.0 - local);
+        return (float) (octant + ratio);
+    }
+}
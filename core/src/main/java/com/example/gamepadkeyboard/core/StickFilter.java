@@ -0,0 +1,191 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * Cleans up one analog stick before its direction picks a slice.
+ *
+ * Three stages, each configurable and each cheap enough to run on every historical sample:
+ * <ol>
+ *   <li>a One Euro low-pass filter on the raw axes: heavy smoothing while the stick rests or moves
+ *       slowly, little lag once it moves fast (the cutoff rises with speed);</li>
+ *   <li>a radial dead zone with an outer saturation ring, so the output magnitude goes from 0 at
+ *       the dead zone edge to 1 at the saturation ring in every direction, instead of the square
+ *       zone that per-axis thresholds give;</li>
+ *   <li>angular hysteresis in {@link #resolve}: the hovered slice only changes once the stick is a
+ *       set fraction of a slice past the shared edge, so noise at an edge cannot flicker the hover
+ *       between two neighbors.</li>
+ * </ol>
+ * Not thread-safe; it belongs to the input thread like the rest of the {@link MotionPipeline}.
+ */
+public final class StickFilter {
+
+    public static final float DEFAULT_DEAD_ZONE = 0.15f;
+    public static final float DEFAULT_SATURATION = 0.95f;
+    public static final float DEFAULT_MIN_CUTOFF_HZ = 4f;
+    public static final float DEFAULT_BETA = 0.5f;
+    public static final float DEFAULT_HYSTERESIS = 0.15f;
+
+    private static final float DERIVATIVE_CUTOFF_HZ = 1f;
+    private static final float MIN_DT_SECONDS = 0.001f; // Samples sharing a timestamp
+
+    private float deadZone;
+    private float saturation;
+    private float minCutoffHz; // 0 disables the low-pass stage
+    private float beta;
+    private float hysteresis;  // Fraction of a slice's sweep
+
+    // One Euro state
+    private boolean primed;
+    private long lastTimeNanos;
+    private float smoothX, smoothY;
+    private float speed;
+
+    // Output of the last filter() call
+    private float x, y;
+
+    // Rotation by the hysteresis margin, cached for the last slice count seen
+    private int marginSliceCount = -1;
+    private float marginCos, marginSin;
+
+    private long samples;
+    private long deadZoneSamples;
+    private long hysteresisHolds;
+
+    public StickFilter() {
+        configure(DEFAULT_DEAD_ZONE, DEFAULT_SATURATION, DEFAULT_MIN_CUTOFF_HZ, DEFAULT_BETA,
+                DEFAULT_HYSTERESIS);
+    }
+
+    /**
+     * @param deadZone    Stick deflection (0..1) below which the output is zero.
+     * @param saturation  Deflection at and beyond which the output magnitude is 1.
+     * @param minCutoffHz One Euro cutoff at rest; lower is smoother but laggier, 0 turns it off.
+     * @param beta        How fast the cutoff rises with stick speed; higher cuts lag on flicks.
+     * @param hysteresis  How far past a slice edge, as a fraction of the slice's sweep, the stick
+     *                    must go before the hover moves to the neighbor; 0 turns it off.
+     */
+    public void configure(float deadZone, float saturation, float minCutoffHz, float beta,
+                          float hysteresis) {
+        if (!(deadZone >= 0 && saturation > deadZone && minCutoffHz >= 0 && beta >= 0
+                && hysteresis >= 0 && hysteresis < 0.5f)) {
+            throw new IllegalArgumentException("Bad stick filter settings");
+        }
+        this.deadZone = deadZone;
+        this.saturation = saturation;
+        this.minCutoffHz = minCutoffHz;
+        this.beta = beta;
+        this.hysteresis = hysteresis;
+        marginSliceCount = -1;
+        reset();
+    }
+
+    /** Forgets the stick's history. */
+    public void reset() {
+        primed = false;
+        speed = 0;
+        x = y = 0;
+    }
+
+    /** Feeds one raw sample; read the result with {@link #getX()} and {@link #getY()}. */
+    public void filter(long timeNanos, float rawX, float rawY) {
+        samples++;
+        if (minCutoffHz <= 0 || !primed) {
+            smoothX = rawX;
+            smoothY = rawY;
+            primed = true;
+        } else {
+            float dt = Math.max(MIN_DT_SECONDS, (timeNanos - lastTimeNanos) * 1e-9f);
+            float dx = rawX - smoothX;
+            float dy = rawY - smoothY;
+            float rawSpeed = (float) Math.sqrt(dx * dx + dy * dy) / dt;
+            speed += alpha(DERIVATIVE_CUTOFF_HZ, dt) * (rawSpeed - speed);
+            float a = alpha(minCutoffHz + beta * speed, dt);
+            smoothX += a * dx;
+            smoothY += a * dy;
+        }
+        lastTimeNanos = timeNanos;
+
+        float magnitude = (float) Math.sqrt(smoothX * smoothX + smoothY * smoothY);
+        if (magnitude <= deadZone) {
+            deadZoneSamples++;
+            x = y = 0;
+            return;
+        }
+        float scaled = Math.min(1f, (magnitude - deadZone) / (saturation - deadZone));
+        x = smoothX * scaled / magnitude;
+        y = smoothY * scaled / magnitude;
+    }
+
+    /** Filtered x, in [-1, 1]; 0 inside the dead zone. */
+    public float getX() {
+        return x;
+    }
+
+    /** Filtered y, in [-1, 1]; 0 inside the dead zone. */
+    public float getY() {
+        return y;
+    }
+
+    /** True if the filtered stick is outside the dead zone. */
+    public boolean isDeflected() {
+        return x != 0 || y != 0;
+    }
+
+    /**
+     * Resolves the filtered direction to a slice, staying on {@code current} while the stick is
+     * within the hysteresis margin past either of its edges.
+     *
+     * @return the slice, or -1 inside the dead zone.
+     */
+    public int resolve(SliceResolver resolver, int current) {
+        int slice = resolver.resolve(x, y);
+        if (slice == current || slice == -1 || current < 0 || hysteresis == 0) {
+            return slice;
+        }
+        int sliceCount = resolver.getSliceCount();
+        if (current >= sliceCount) {
+            return slice;
+        }
+        if (sliceCount != marginSliceCount) {
+            double margin = 2 * Math.PI / sliceCount * hysteresis;
+            marginCos = (float) Math.cos(margin);
+            marginSin = (float) Math.sin(margin);
+            marginSliceCount = sliceCount;
+        }
+        // Turning the vector back by the margin either way lands in the current slice if we are
+        // still within the margin of its edge
+        float cwX = x * marginCos - y * marginSin;
+        float cwY = x * marginSin + y * marginCos;
+        float ccwX = x * marginCos + y * marginSin;
+        float ccwY = -x * marginSin + y * marginCos;
+        if (resolver.resolve(cwX, cwY) == current || resolver.resolve(ccwX, ccwY) == current) {
+            hysteresisHolds++;
+            return current;
+        }
+        return slice;
+    }
+
+    public long getSamples() {
+        return samples;
+    }
+
+    public long getDeadZoneSamples() {
+        return deadZoneSamples;
+    }
+
+    /** Samples where the stick had crossed into a neighbor slice but the hover stayed put. */
+    public long getHysteresisHolds() {
+        return hysteresisHolds;
+    }
+
+    private static float alpha(float cutoffHz, float dt) {
+        float tau = 1f / (2f * (float) Math.PI * cutoffHz);
+        return 1f / (1f + tau / dt);
+    }
+
+    @Override
+    public String toString() {
+        return "StickFilter{samples=" + samples
+                + ", deadZoneSamples=" + deadZoneSamples
+                + ", hysteresisHolds=" + hysteresisHolds + "}";
+    }
+}
@@ -0,0 +1,137 @@
+package com.example.gamepadkeyboard.core;
+
+import com.fasterxml.jackson.core.JsonFactory;
+import com.fasterxml.jackson.core.JsonParser;
+import com.fasterxml.jackson.core.JsonToken;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.util.ArrayList;
+import java.util.Arrays;
+
+/**
+ * Loads a JSON layout (the RadialMenuSet schema) with Jackson's streaming parser, without
+ * building the whole object tree up front.
+ *
+ * {@link #load} makes a single pass that only records where each layer object starts; skipping
+ * over the layers still tokenizes them, so malformed JSON is rejected right there. A layer is
+ * parsed into rings the first time the returned {@link CompiledLayout} is asked for it. Keys of
+ * the wrong type are ignored rather than failing a layer mid-typing.
+ */
+public final class StreamingLayoutLoader implements CompiledLayout.LayerLoader {
+
+    private static final JsonFactory JSON_FACTORY = new JsonFactory();
+
+    private final byte[] json;
+    private final int[] layerOffsets;
+    private final ArrayList<String> scratch = new ArrayList<>();
+
+    private StreamingLayoutLoader(byte[] json, int[] layerOffsets) {
+        this.json = json;
+        this.layerOffsets = layerOffsets;
+    }
+
+    /**
+     * Indexes the layers of a UTF-8 JSON layout. The array is kept, not copied, so callers must
+     * not modify it afterwards.
+     *
+     * @throws IOException if the JSON is malformed or is not a non-empty array of layer objects.
+     */
+    public static CompiledLayout load(byte[] json) throws IOException {
+        int[] offsets = new int[8];
+        int layerCount = 0;
+        try (JsonParser parser = JSON_FACTORY.createParser(json)) {
+            if (parser.nextToken() != JsonToken.START_ARRAY) {
+                throw new IOException("Layout must be an array of layers");
+            }
+            JsonToken token;
+            while ((token = parser.nextToken()) == JsonToken.START_OBJECT) {
+                if (layerCount == offsets.length) {
+                    offsets = Arrays.copyOf(offsets, layerCount * 2);
+                }
+                offsets[layerCount++] = (int) parser.getTokenLocation().getByteOffset();
+                parser.skipChildren();
+            }
+            if (token != JsonToken.END_ARRAY) {
+                throw new IOException("Layer " + layerCount + " is not an object");
+            }
+        }
+        if (layerCount == 0) {
+            throw new IOException("Layout has no layers");
+        }
+        return CompiledLayout.lazy(layerCount,
+                new StreamingLayoutLoader(json, Arrays.copyOf(offsets, layerCount)));
+    }
+
+    /**
+     * Parses every layer of a UTF-8 JSON layout right away and checks that each layer has keys
+     * to show, for loading off the thread that will use the layout.
+     *
+     * @throws IOException if the JSON is malformed or a layer has no base keys on either side.
+     */
+    public static CompiledLayout loadAll(byte[] json) throws IOException {
+        CompiledLayout layout = load(json).materializeAll();
+        for (int layer = 0; layer < layout.getLayerCount(); layer++) {
+            if (layout.ring(layer, false, false, CompiledLayout.LEFT).size() == 0
+                    && layout.ring(layer, false, false, CompiledLayout.RIGHT).size() == 0) {
+                throw new IOException("Layer " + layer + " has no base keys");
+            }
+        }
+        return layout;
+    }
+
+    @Override
+    public void load(int layer, CompiledLayout.Builder builder) {
+        int offset = layerOffsets[layer];
+        try (JsonParser parser = JSON_FACTORY.createParser(json, offset, json.length - offset)) {
+            parser.nextToken(); // START_OBJECT of the layer
+            while (parser.nextToken() == JsonToken.FIELD_NAME) {
+                String name = parser.getCurrentName();
+                JsonToken value = parser.nextToken();
+                if (value == JsonToken.START_OBJECT && ("base".equals(name) || "alt".equals(name))) {
+                    readPair(parser, builder, layer, "alt".equals(name));
+                } else {
+                    parser.skipChildren();
+                }
+            }
+        } catch (IOException e) {
+            // Cannot happen for a buffer that already tokenized cleanly in load()
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    private void readPair(JsonParser parser, CompiledLayout.Builder builder, int layer,
+                          boolean alt) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_OBJECT && ("left".equals(name) || "right".equals(name))) {
+                int side = "left".equals(name) ? CompiledLayout.LEFT : CompiledLayout.RIGHT;
+                readKeys(parser, builder, layer, alt, side);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+
+    private void readKeys(JsonParser parser, CompiledLayout.Builder builder, int layer,
+                          boolean alt, int side) throws IOException {
+        while (parser.nextToken() == JsonToken.FIELD_NAME) {
+            String name = parser.getCurrentName();
+            JsonToken value = parser.nextToken();
+            if (value == JsonToken.START_ARRAY && ("lower".equals(name) || "upper".equals(name))) {
+                scratch.clear();
+                while ((value = parser.nextToken()) != JsonToken.END_ARRAY) {
+                    if (value == JsonToken.VALUE_STRING) {
+                        scratch.add(parser.getText());
+                    } else {
+                        parser.skipChildren();
+                    }
+                }
+                builder.setKeys(layer, alt, "upper".equals(name), side, scratch);
+            } else {
+                parser.skipChildren();
+            }
+        }
+    }
+}
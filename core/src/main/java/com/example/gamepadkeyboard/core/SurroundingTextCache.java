@@ -0,0 +1,407 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * A local copy of the editor text around the cursor, so word and line boundaries can be found
+ * without reading the text back from the editor on every step.
+ *
+ * The cache is seeded with one bounded read when a field starts and then kept up to date from the
+ * edits the keyboard itself makes. Anything it cannot account for (an edit reaching past the
+ * cached window, a selection jump out of it) invalidates it, and the caller re-seeds it the next
+ * time it needs an answer. Positions are absolute editor offsets when the editor reports where the
+ * text it returned starts, and only relative otherwise.
+ *
+ * Counters show how well that works: queries answered from the cache (hits) or not (misses), and
+ * editor reads, split into the one seeding read per field and the resyncs after the cache lost
+ * track. While typing normally there should be no resyncs at all.
+ */
+public final class SurroundingTextCache {
+
+    public static final int CHAR = 0;
+    public static final int WORD = 1;
+    public static final int LINE = 2;
+
+    /** Characters to read on each side of the cursor when seeding. */
+    public static final int WINDOW = 1024;
+
+    private static final int ZERO_WIDTH_JOINER = 0x200D;
+    private static final int EXPECTED_CAPACITY = 8;
+
+    private final StringBuilder text = new StringBuilder(4 * WINDOW);
+    private int windowStart;      // Absolute offset of text.charAt(0), if positionsKnown
+    private boolean reachesStart; // The window starts at the start of the field
+    private boolean reachesEnd;   // The window ends at the end of the field
+    private int cursor;           // Selection start, as an index into text
+    private int selectionLength;
+    private boolean positionsKnown;
+    private boolean valid;
+    private boolean seeded; // Read at least once since the field started
+
+    // Selections our flushed edits leave, oldest first, until the editor reports them. Each flush
+    // gets its own report, which can arrive after later edits were already applied to the cache.
+    private final int[] expectedStart = new int[EXPECTED_CAPACITY];
+    private final int[] expectedEnd = new int[EXPECTED_CAPACITY];
+    private int expectedHead, expectedSize;
+
+    private long hits;
+    private long misses;
+    private long seeds;
+    private long resyncs;
+    private long drifts;
+
+    /**
+     * Seeds the cache from a read of up to {@link #WINDOW} characters on each side of the
+     * selection (InputConnection.getSurroundingText), or invalidates it if the read failed.
+     *
+     * @param surrounding    The text read, or null.
+     * @param selectionStart Selection start within {@code surrounding}.
+     * @param selectionEnd   Selection end within {@code surrounding}.
+     * @param offset         Absolute offset of {@code surrounding} in the field, or -1 if unknown.
+     */
+    public void reset(CharSequence surrounding, int selectionStart, int selectionEnd, int offset) {
+        if (seeded) {
+            resyncs++;
+        } else {
+            seeds++;
+            seeded = true;
+        }
+        text.setLength(0);
+        valid = surrounding != null && 0 <= selectionStart && selectionStart <= selectionEnd
+                && selectionEnd <= surrounding.length();
+        if (!valid) {
+            return;
+        }
+        text.append(surrounding);
+        cursor = selectionStart;
+        selectionLength = selectionEnd - selectionStart;
+        reachesStart = selectionStart < WINDOW || offset == 0;
+        reachesEnd = surrounding.length() - selectionEnd < WINDOW;
+        positionsKnown = offset >= 0;
+        windowStart = positionsKnown ? offset : 0;
+    }
+
+    public void invalidate() {
+        valid = false;
+    }
+
+    /** The field is gone: invalidates the cache, and the next read counts as a seed again. */
+    public void clear() {
+        valid = false;
+        seeded = false;
+        text.setLength(0);
+        expectedSize = 0;
+    }
+
+    public boolean isValid() {
+        return valid;
+    }
+
+    /** True if {@link #getSelectionStart()} is an absolute editor offset. */
+    public boolean hasPositions() {
+        return valid && positionsKnown;
+    }
+
+    public int getSelectionStart() {
+        return windowStart + cursor;
+    }
+
+    public int getSelectionEnd() {
+        return windowStart + cursor + selectionLength;
+    }
+
+    /** Mirrors a commitText: the selection is replaced and the cursor ends up after the text. */
+    public void commit(CharSequence committed) {
+        if (!valid) {
+            return;
+        }
+        text.replace(cursor, cursor + selectionLength, committed.toString());
+        cursor += committed.length();
+        selectionLength = 0;
+        if (cursor > 2 * WINDOW) {
+            // Keep the window bounded by dropping text far behind the cursor
+            int drop = cursor - WINDOW;
+            text.delete(0, drop);
+            windowStart += drop;
+            cursor -= drop;
+            reachesStart = false;
+        }
+    }
+
+    /** Mirrors a deleteSurroundingText(count, 0). */
+    public void delete(int count) {
+        if (!valid) {
+            return;
+        }
+        if (count > cursor && !reachesStart) {
+            valid = false; // Deleted text we never had
+            drifts++;
+            return;
+        }
+        count = Math.min(count, cursor);
+        text.delete(cursor - count, cursor);
+        cursor -= count;
+    }
+
+    /**
+     * Moves the cursor by {@code delta} characters from the selection start (moving left) or end
+     * (moving right), collapsing the selection.
+     */
+    public void moveCursor(int delta) {
+        if (!valid) {
+            return;
+        }
+        int target = (delta > 0 ? cursor + selectionLength : cursor) + delta;
+        if (target < 0 || target > text.length()) {
+            valid = false;
+            drifts++;
+            return;
+        }
+        cursor = target;
+        selectionLength = 0;
+    }
+
+    /**
+     * Our edits up to here were just sent to the editor, which will report the selection they leave
+     * some time later. Nothing to expect if positions are unknown.
+     */
+    public void expectSelection() {
+        if (!valid || !positionsKnown) {
+            return;
+        }
+        if (expectedSize == EXPECTED_CAPACITY) {
+            expectedHead = (expectedHead + 1) % EXPECTED_CAPACITY; // Oldest one never came
+            expectedSize--;
+        }
+        int i = (expectedHead + expectedSize++) % EXPECTED_CAPACITY;
+        expectedStart[i] = getSelectionStart();
+        expectedEnd[i] = getSelectionEnd();
+    }
+
+    /**
+     * Checks a selection reported by the editor. A report of one of our own flushes (or of a later
+     * one, when the editor merged them) is consumed; anything else only counts as drift, and
+     * invalidates the cache, once no report of ours is outstanding and it disagrees with the cache.
+     *
+     * @return true if the cache is still in sync.
+     */
+    public boolean onUpdateSelection(int selectionStart, int selectionEnd) {
+        for (int n = 0; n < expectedSize; n++) {
+            int i = (expectedHead + n) % EXPECTED_CAPACITY;
+            if (expectedStart[i] == selectionStart && expectedEnd[i] == selectionEnd) {
+                expectedHead = (i + 1) % EXPECTED_CAPACITY;
+                expectedSize -= n + 1;
+                return true;
+            }
+        }
+        if (expectedSize > 0) {
+            // Not one we predicted, e.g. an intermediate state; let it use up the oldest entry so
+            // a real drift still shows once our own reports are all in
+            expectedHead = (expectedHead + 1) % EXPECTED_CAPACITY;
+            expectedSize--;
+            return true;
+        }
+        if (valid && positionsKnown
+                && selectionStart == getSelectionStart() && selectionEnd == getSelectionEnd()) {
+            return true;
+        }
+        if (valid) {
+            drifts++;
+        }
+        valid = false;
+        return false;
+    }
+
+    /**
+     * Returns how many characters lie between the selection start and the previous boundary of
+     * the given granularity, or -1 if the cache is invalid or the boundary is outside the window.
+     * A word step skips separators and then the word before them; a line step stops after the
+     * previous line break, or takes just the break if the cursor is right after one.
+     */
+    public int charsBefore(int granularity) {
+        return count(findBefore(granularity));
+    }
+
+    /** The forward counterpart of {@link #charsBefore}, measured from the selection end. */
+    public int charsAfter(int granularity) {
+        return count(findAfter(granularity));
+    }
+
+    /**
+     * Up to {@code length} characters before the cursor, like InputConnection.getTextBeforeCursor
+     * but without the binder call.
+     *
+     * @return the text, shorter only at the start of the field, or null if the cache cannot tell.
+     */
+    public CharSequence getTextBeforeCursor(int length) {
+        if (!valid || (cursor < length && !reachesStart)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return text.subSequence(Math.max(0, cursor - length), cursor);
+    }
+
+    /** The counterpart of {@link #getTextBeforeCursor} after the selection end. */
+    public CharSequence getTextAfterCursor(int length) {
+        int start = cursor + selectionLength;
+        if (!valid || (text.length() - start < length && !reachesEnd)) {
+            misses++;
+            return null;
+        }
+        hits++;
+        return text.subSequence(start, Math.min(text.length(), start + length));
+    }
+
+    public long getHits() {
+        return hits;
+    }
+
+    public long getMisses() {
+        return misses;
+    }
+
+    /** Editor reads, seeds plus resyncs. */
+    public long getReads() {
+        return seeds + resyncs;
+    }
+
+    public long getResyncs() {
+        return resyncs;
+    }
+
+    @Override
+    public String toString() {
+        return "SurroundingTextCache{hits=" + hits
+                + ", misses=" + misses
+                + ", seeds=" + seeds
+                + ", resyncs=" + resyncs
+                + ", drifts=" + drifts + "}";
+    }
+
+    private int count(int found) {
+        if (found < 0) {
+            misses++;
+        } else {
+            hits++;
+        }
+        return found;
+    }
+
+    private int findBefore(int granularity) {
+        if (!valid) {
+            return -1;
+        }
+        int i = cursor;
+        if (granularity == CHAR) {
+            i = stepBack(i);
+        } else if (granularity == WORD) {
+            while (i > 0 && !isWordChar(text.charAt(i - 1))) {
+                i--;
+            }
+            while (i > 0 && isWordChar(text.charAt(i - 1))) {
+                i--;
+            }
+        } else if (i > 0 && text.charAt(i - 1) == '\n') {
+            i--;
+        } else {
+            while (i > 0 && text.charAt(i - 1) != '\n') {
+                i--;
+            }
+        }
+        if (i == 0 && !reachesStart && (granularity != CHAR || cursor == 0)) {
+            return -1; // The boundary may lie before the window
+        }
+        return cursor - i;
+    }
+
+    private int findAfter(int granularity) {
+        if (!valid) {
+            return -1;
+        }
+        int start = cursor + selectionLength;
+        int length = text.length();
+        int i = start;
+        if (granularity == CHAR) {
+            i = stepForward(i);
+        } else if (granularity == WORD) {
+            while (i < length && !isWordChar(text.charAt(i))) {
+                i++;
+            }
+            while (i < length && isWordChar(text.charAt(i))) {
+                i++;
+            }
+        } else if (i < length && text.charAt(i) == '\n') {
+            i++;
+        } else {
+            while (i < length && text.charAt(i) != '\n') {
+                i++;
+            }
+        }
+        if (i == length && !reachesEnd && (granularity != CHAR || start == length)) {
+            return -1;
+        }
+        return i - start;
+    }
+
+    /** The start of the grapheme cluster ending at {@code i}, so a character step never splits an emoji. */
+    private int stepBack(int i) {
+        if (i == 0) {
+            return 0;
+        }
+        int j = i - Character.charCount(Character.codePointBefore(text, i));
+        while (j > 0 && joinsPrevious(j)) {
+            j -= Character.charCount(Character.codePointBefore(text, j));
+        }
+        return j;
+    }
+
+    /** The end of the grapheme cluster starting at {@code i}. */
+    private int stepForward(int i) {
+        int length = text.length();
+        if (i == length) {
+            return i;
+        }
+        int j = i + Character.charCount(Character.codePointAt(text, i));
+        while (j < length && joinsPrevious(j)) {
+            j += Character.charCount(Character.codePointAt(text, j));
+        }
+        return j;
+    }
+
+    /**
+     * True if the code point at {@code j} belongs to the same grapheme cluster as the one before
+     * it: combining marks, variation selectors, skin tones, tags and keycaps attach to what they
+     * follow, a zero width joiner joins both neighbors, and regional indicators pair up into flags.
+     * A subset of the Unicode rules that covers emoji sequences without a break iterator.
+     */
+    private boolean joinsPrevious(int j) {
+        int codePoint = Character.codePointAt(text, j);
+        int before = Character.codePointBefore(text, j);
+        if (before == ZERO_WIDTH_JOINER || codePoint == ZERO_WIDTH_JOINER) {
+            return true;
+        }
+        int type = Character.getType(codePoint);
+        if (type == Character.NON_SPACING_MARK || type == Character.ENCLOSING_MARK
+                || (codePoint >= 0xFE00 && codePoint <= 0xFE0F)        // Variation selectors
+                || (codePoint >= 0x1F3FB && codePoint <= 0x1F3FF)      // Skin tones
+                || (codePoint >= 0xE0020 && codePoint <= 0xE007F)) {   // Tags
+            return true;
+        }
+        if (isRegionalIndicator(codePoint) && isRegionalIndicator(before)) {
+            // Flags pair up from the start of a run, so join after an odd number of indicators
+            int run = 0;
+            for (int k = j; k > 0 && isRegionalIndicator(Character.codePointBefore(text, k)); k -= 2) {
+                run++;
+            }
+            return (run & 1) == 1;
+        }
+        return false;
+    }
+
+    private static boolean isRegionalIndicator(int codePoint) {
+        return codePoint >= 0x1F1E6 && codePoint <= 0x1F1FF;
+    }
+
+    private static boolean isWordChar(char c) {
+        return Character.isLetterOrDigit(c) || c == '\'' || c == '_';
+    }
+}
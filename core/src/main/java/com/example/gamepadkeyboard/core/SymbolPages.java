@@ -0,0 +1,252 @@
+package com.example.gamepadkeyboard.core;
+
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.util.LinkedHashMap;
+import java.util.Map;
+
+/**
+ * Emoji and symbols for the paged symbol mode, read one page at a time from a (typically
+ * memory-mapped) buffer written by {@link SymbolTableCompiler}.
+ *
+ * Format, big-endian:
+ * <pre>
+ *   int    magic        'GPKS'
+ *   short  version      1
+ *   short  pageSize     most entries on one page
+ *   int    pageCount
+ *   short  sectionCount
+ *   sectionCount x { int firstPage, short byteLength, byteLength bytes of UTF-8 name }
+ *   (pageCount + 1) x int entryOffset   where each page starts in the entry region, then its end
+ *   entry region: entries x { byte byteLength, byteLength bytes of UTF-8 }
+ * </pre>
+ * Only the header and the page index are read up front. A page is decoded into a
+ * {@link CompiledLayout.Ring} the first time it is shown and kept in a small LRU, so browsing
+ * through thousands of symbols keeps a bounded number of pages in memory, and flipping back to a
+ * recent page hands the views the same Ring again (which their render caches are keyed by).
+ * Every page also has a navigation ring for the right menu, labeled with where a flick of the
+ * right stick goes. Not thread-safe.
+ */
+public final class SymbolPages {
+
+    public static final int MAGIC = 0x47504B53; // "GPKS"
+    public static final int VERSION = 1;
+    public static final int PAGE_SIZE = 12;
+    static final int MAX_ENTRY_BYTES = 255;
+
+    // Right stick directions on the navigation ring, clockwise from 12 o'clock
+    public static final int FLIP_PREVIOUS_SECTION = 0;
+    public static final int FLIP_NEXT_PAGE = 1;
+    public static final int FLIP_NEXT_SECTION = 2;
+    public static final int FLIP_PREVIOUS_PAGE = 3;
+
+    private static final int HEADER_BYTES = 14;
+    private static final int CACHED_PAGES = 8;
+    private static final SliceResolver NAVIGATION_RESOLVER = new SliceResolver(4, true);
+
+    private final ByteBuffer entries;
+    private final int pageCount;
+    private final int[] pageOffsets;
+    private final int[] sectionFirstPages;
+    private final String[] sectionNames;
+    private final SliceResolver[] resolvers = new SliceResolver[PAGE_SIZE + 1]; // By slice count
+    private byte[] scratch = new byte[64];
+
+    // Page -> {page ring, navigation ring}, least recently shown first
+    private final LinkedHashMap<Integer, CompiledLayout.Ring[]> cache =
+            new LinkedHashMap<Integer, CompiledLayout.Ring[]>(CACHED_PAGES * 2, 0.75f, true) {
+                @Override
+                protected boolean removeEldestEntry(Map.Entry<Integer, CompiledLayout.Ring[]> eldest) {
+                    return size() > CACHED_PAGES;
+                }
+            };
+
+    private long pageHits;
+    private long pageLoads;
+
+    private SymbolPages(ByteBuffer entries, int[] pageOffsets, int[] sectionFirstPages, String[] sectionNames) {
+        this.entries = entries;
+        this.pageCount = pageOffsets.length - 1;
+        this.pageOffsets = pageOffsets;
+        this.sectionFirstPages = sectionFirstPages;
+        this.sectionNames = sectionNames;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the buffer does not hold a symbol table this reader understands.
+     */
+    public static SymbolPages read(ByteBuffer buffer) {
+        ByteBuffer data = buffer.slice();
+        if (data.remaining() < HEADER_BYTES || data.getInt() != MAGIC) {
+            throw new IllegalArgumentException("Not a compiled symbol table");
+        }
+        int version = data.getShort() & 0xFFFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported symbol table version " + version);
+        }
+        int pageSize = data.getShort() & 0xFFFF;
+        int pageCount = data.getInt();
+        int sectionCount = data.getShort() & 0xFFFF;
+        if (pageSize != PAGE_SIZE || pageCount <= 0 || sectionCount == 0) {
+            throw new IllegalArgumentException("Symbol table has no pages of " + PAGE_SIZE);
+        }
+
+        int[] sectionFirstPages = new int[sectionCount];
+        String[] sectionNames = new String[sectionCount];
+        for (int s = 0; s < sectionCount; s++) {
+            sectionFirstPages[s] = data.getInt();
+            byte[] name = new byte[data.getShort() & 0xFFFF];
+            data.get(name);
+            sectionNames[s] = new String(name, StandardCharsets.UTF_8);
+            if (sectionFirstPages[s] >= pageCount || (s > 0 && sectionFirstPages[s] <= sectionFirstPages[s - 1])) {
+                throw new IllegalArgumentException("Section " + sectionNames[s] + " is out of order");
+            }
+        }
+        int[] pageOffsets = new int[pageCount + 1];
+        for (int p = 0; p <= pageCount; p++) {
+            pageOffsets[p] = data.getInt();
+            if (p > 0 && pageOffsets[p] <= pageOffsets[p - 1]) {
+                throw new IllegalArgumentException("Page " + (p - 1) + " is empty");
+            }
+        }
+        if (pageOffsets[0] != 0 || pageOffsets[pageCount] > data.remaining()) {
+            throw new IllegalArgumentException("Truncated symbol table");
+        }
+        data.limit(data.position() + pageOffsets[pageCount]);
+        return new SymbolPages(data.slice(), pageOffsets, sectionFirstPages, sectionNames);
+    }
+
+    public int getPageCount() {
+        return pageCount;
+    }
+
+    public int getSectionCount() {
+        return sectionNames.length;
+    }
+
+    public String getSectionName(int section) {
+        return sectionNames[section];
+    }
+
+    /** The section {@code page} belongs to. */
+    public int sectionOf(int page) {
+        int low = 0, high = sectionFirstPages.length - 1;
+        while (low < high) {
+            int mid = (low + high + 1) >>> 1;
+            if (sectionFirstPages[mid] <= page) {
+                low = mid;
+            } else {
+                high = mid - 1;
+            }
+        }
+        return low;
+    }
+
+    /**
+     * Where a flick of the right stick in {@code direction} (a FLIP_ constant, or its slice on the
+     * navigation ring) goes from {@code page}. Pages and sections wrap around at both ends.
+     */
+    public int flip(int page, int direction) {
+        int section = sectionOf(page);
+        int sectionCount = sectionNames.length;
+        switch (direction) {
+            case FLIP_PREVIOUS_SECTION:
+                // From inside a section, go back to its start first
+                return page != sectionFirstPages[section]
+                        ? sectionFirstPages[section]
+                        : sectionFirstPages[(section + sectionCount - 1) % sectionCount];
+            case FLIP_NEXT_PAGE:
+                return (page + 1) % pageCount;
+            case FLIP_NEXT_SECTION:
+                return sectionFirstPages[(section + 1) % sectionCount];
+            case FLIP_PREVIOUS_PAGE:
+                return (page + pageCount - 1) % pageCount;
+            default:
+                return page;
+        }
+    }
+
+    /** The entries of {@code page}, decoded on first use. */
+    public CompiledLayout.Ring page(int page) {
+        return rings(page)[0];
+    }
+
+    /**
+     * The ring for the right menu while {@code page} is shown: one slice per FLIP_ direction,
+     * labeled with the first symbol of the section it leads to or an arrow for the page.
+     */
+    public CompiledLayout.Ring navigation(int page) {
+        return rings(page)[1];
+    }
+
+    private CompiledLayout.Ring[] rings(int page) {
+        CompiledLayout.Ring[] rings = cache.get(page);
+        if (rings != null) {
+            pageHits++;
+            return rings;
+        }
+        pageLoads++;
+        String[] keys = decode(page);
+        String[] navigation = {
+                firstEntry(flip(page, FLIP_PREVIOUS_SECTION)),
+                "\u2192", // Right arrow
+                firstEntry(flip(page, FLIP_NEXT_SECTION)),
+                "\u2190"  // Left arrow
+        };
+        rings = new CompiledLayout.Ring[] {
+                new CompiledLayout.Ring(keys, resolverFor(keys.length)),
+                new CompiledLayout.Ring(navigation, NAVIGATION_RESOLVER)
+        };
+        cache.put(page, rings);
+        return rings;
+    }
+
+    private String[] decode(int page) {
+        int position = pageOffsets[page];
+        int end = pageOffsets[page + 1];
+        String[] keys = new String[PAGE_SIZE];
+        int count = 0;
+        while (position < end && count < PAGE_SIZE) {
+            int length = entries.get(position++) & 0xFF;
+            keys[count++] = readString(position, length);
+            position += length;
+        }
+        if (count < PAGE_SIZE) {
+            String[] trimmed = new String[count];
+            System.arraycopy(keys, 0, trimmed, 0, count);
+            keys = trimmed;
+        }
+        return keys;
+    }
+
+    private String firstEntry(int page) {
+        int position = pageOffsets[page];
+        return readString(position + 1, entries.get(position) & 0xFF);
+    }
+
+    private String readString(int position, int length) {
+        if (scratch.length < length) {
+            scratch = new byte[length];
+        }
+        for (int i = 0; i < length; i++) {
+            scratch[i] = entries.get(position + i);
+        }
+        return new String(scratch, 0, length, StandardCharsets.UTF_8);
+    }
+
+    private SliceResolver resolverFor(int sliceCount) {
+        if (resolvers[sliceCount] == null) {
+            resolvers[sliceCount] = new SliceResolver(sliceCount, true);
+        }
+        return resolvers[sliceCount];
+    }
+
+    @Override
+    public String toString() {
+        return "SymbolPages{pages=" + pageCount
+                + ", sections=" + sectionNames.length
+                + ", cachedPages=" + cache.size()
+                + ", pageHits=" + pageHits
+                + ", pageLoads=" + pageLoads + "}";
+    }
+}
@@ -0,0 +1,142 @@
+package com.example.gamepadkeyboard.core;
+
+import java.io.BufferedReader;
+import java.io.ByteArrayOutputStream;
+import java.io.DataOutputStream;
+import java.io.File;
+import java.io.IOException;
+import java.io.InputStreamReader;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.ArrayList;
+import java.util.List;
+
+/**
+ * Build-time tool that compiles symbol lists into the {@link SymbolPages} format.
+ *
+ * A symbol list is UTF-8 text. A line {@code [Name]} starts a section; every other line lists
+ * entries separated by spaces, each one grapheme cluster (an emoji sequence is one entry), and a
+ * line whose first entry is a lone '#' is a comment. Sections are cut into pages of
+ * {@link SymbolPages#PAGE_SIZE} entries, and each section starts on a new page. Run by the app
+ * module's compileSymbols task as {@code SymbolTableCompiler <sourceDir> <outputDir>}, turning
+ * every {@code name.txt} into {@code name.gpks}.
+ */
+public final class SymbolTableCompiler {
+
+    /** A named run of entries, in file order. */
+    static final class Section {
+        final String name;
+        final List<String> entries = new ArrayList<>();
+
+        Section(String name) {
+            this.name = name;
+        }
+    }
+
+    private SymbolTableCompiler() {
+    }
+
+    public static void main(String[] args) throws IOException {
+        if (args.length != 2) {
+            throw new IllegalArgumentException("Usage: SymbolTableCompiler <sourceDir> <outputDir>");
+        }
+        File[] sources = new File(args[0]).listFiles((dir, name) -> name.endsWith(".txt"));
+        File outputDir = new File(args[1]);
+        if (sources == null) {
+            throw new IOException("Not a directory: " + args[0]);
+        }
+        if (!outputDir.isDirectory() && !outputDir.mkdirs()) {
+            throw new IOException("Cannot create " + outputDir);
+        }
+        for (File source : sources) {
+            List<Section> sections = readSymbolList(source);
+            String name = source.getName().substring(0, source.getName().length() - 4);
+            Files.write(new File(outputDir, name + ".gpks").toPath(), compile(sections));
+        }
+    }
+
+    static List<Section> readSymbolList(File source) throws IOException {
+        List<Section> sections = new ArrayList<>();
+        try (BufferedReader reader = new BufferedReader(new InputStreamReader(
+                Files.newInputStream(source.toPath()), StandardCharsets.UTF_8))) {
+            String line;
+            int lineNumber = 0;
+            while ((line = reader.readLine()) != null) {
+                lineNumber++;
+                line = line.trim();
+                if (line.isEmpty() || line.equals("#") || line.startsWith("# ")) {
+                    continue;
+                }
+                if (line.startsWith("[") && line.endsWith("]")) {
+                    sections.add(new Section(line.substring(1, line.length() - 1).trim()));
+                    continue;
+                }
+                if (sections.isEmpty()) {
+                    throw new IOException(source.getName() + ":" + lineNumber + ": entries before the first [section]");
+                }
+                for (String entry : line.split(" +")) {
+                    if (entry.getBytes(StandardCharsets.UTF_8).length > SymbolPages.MAX_ENTRY_BYTES) {
+                        throw new IOException(source.getName() + ":" + lineNumber + ": entry too long: " + entry);
+                    }
+                    sections.get(sections.size() - 1).entries.add(entry);
+                }
+            }
+        }
+        return sections;
+    }
+
+    /**
+     * Compiles sections, in order, into a symbol table image. Empty sections are dropped.
+     */
+    static byte[] compile(List<Section> sections) throws IOException {
+        List<Section> kept = new ArrayList<>();
+        List<Integer> firstPages = new ArrayList<>();
+        int pageCount = 0;
+        for (Section section : sections) {
+            if (!section.entries.isEmpty()) {
+                kept.add(section);
+                firstPages.add(pageCount);
+                pageCount += (section.entries.size() + SymbolPages.PAGE_SIZE - 1) / SymbolPages.PAGE_SIZE;
+            }
+        }
+        if (kept.isEmpty() || kept.size() > 0xFFFF) {
+            throw new IOException("Expected 1..65535 sections with entries, found " + kept.size());
+        }
+
+        // Entries page by page, with the offset each page starts at
+        ByteArrayOutputStream entryBytes = new ByteArrayOutputStream();
+        int[] pageOffsets = new int[pageCount + 1];
+        int page = 0;
+        for (Section section : kept) {
+            for (int i = 0; i < section.entries.size(); i++) {
+                if (i % SymbolPages.PAGE_SIZE == 0) {
+                    pageOffsets[page++] = entryBytes.size();
+                }
+                byte[] utf8 = section.entries.get(i).getBytes(StandardCharsets.UTF_8);
+                entryBytes.write(utf8.length);
+                entryBytes.write(utf8);
+            }
+        }
+        pageOffsets[pageCount] = entryBytes.size();
+
+        ByteArrayOutputStream bytes = new ByteArrayOutputStream(entryBytes.size() + 4 * pageCount + 1024);
+        DataOutputStream out = new DataOutputStream(bytes);
+        out.writeInt(SymbolPages.MAGIC);
+        out.writeShort(SymbolPages.VERSION);
+        out.writeShort(SymbolPages.PAGE_SIZE);
+        out.writeInt(pageCount);
+        out.writeShort(kept.size());
+        for (int s = 0; s < kept.size(); s++) {
+            byte[] name = kept.get(s).name.getBytes(StandardCharsets.UTF_8);
+            out.writeInt(firstPages.get(s));
+            out.writeShort(name.length);
+            out.write(name);
+        }
+        for (int offset : pageOffsets) {
+            out.writeInt(offset);
+        }
+        entryBytes.writeTo(out);
+        out.flush();
+        return bytes.toByteArray();
+    }
+}
@@ -0,0 +1,269 @@
+package com.example.gamepadkeyboard.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Feeds a {@link GamepadTrace} through a {@link KeyboardEngine} on a plain JVM, against an
+ * in-memory editor, as fast as possible.
+ *
+ * Time is virtual: frames are simulated every 16.7 ms of trace time while the engine asked for
+ * one, so auto-repeat and edit flushing behave as they did on the device, but nothing waits.
+ * Run it with {@code ./gradlew :core:replayTrace -Ptrace=<file>}, which replays against the
+ * app's default layout and word list unless -Playout / -Pdictionary say otherwise.
+ */
+public final class TraceReplay implements KeyboardEngine.Host {
+
+    private static final long FRAME_NANOS = 16_666_667L;
+    private static final long MILLIS = 1_000_000L;
+
+    /** What a replay did and how fast. */
+    public static final class Result {
+        public final long events;
+        public final long samples;
+        public final long frames;
+        public final long elapsedNanos;
+        public final long redraws;
+        public final long editorCalls;
+        /** Reads of the editor text, seeds plus resyncs of the surrounding text cache. */
+        public final long editorReads;
+        public final String text;
+
+        Result(long events, long samples, long frames, long elapsedNanos, long redraws,
+               long editorCalls, long editorReads, String text) {
+            this.events = events;
+            this.samples = samples;
+            this.frames = frames;
+            this.elapsedNanos = elapsedNanos;
+            this.redraws = redraws;
+            this.editorCalls = editorCalls;
+            this.editorReads = editorReads;
+            this.text = text;
+        }
+
+        public double getEventsPerSecond() {
+            return elapsedNanos > 0 ? events * 1e9 / elapsedNanos : 0;
+        }
+
+        /** One key=value pair per line, for scripts. */
+        @Override
+        public String toString() {
+            return "events=" + events
+                    + "\nsamples=" + samples
+                    + "\nframes=" + frames
+                    + "\nelapsedMillis=" + String.format(Locale.US, "%.3f", elapsedNanos / 1e6)
+                    + "\neventsPerSecond=" + String.format(Locale.US, "%.0f", getEventsPerSecond())
+                    + "\nredraws=" + redraws
+                    + "\neditorCalls=" + editorCalls
+                    + "\neditorReads=" + editorReads
+                    + "\ncommittedText=" + text.replace("\\", "\\\\").replace("\n", "\\n");
+        }
+    }
+
+    /** Stand-in for the InputConnection: a text buffer with a selection. */
+    private static final class FakeEditor implements EditBatcher.Target {
+        final StringBuilder text = new StringBuilder();
+        int selectionStart, selectionEnd;
+
+        @Override
+        public void beginBatchEdit() {
+        }
+
+        @Override
+        public void endBatchEdit() {
+        }
+
+        @Override
+        public void commitText(CharSequence committed) {
+            text.replace(selectionStart, selectionEnd, committed.toString());
+            selectionStart = selectionEnd = selectionStart + committed.length();
+        }
+
+        @Override
+        public void deleteBefore(int count) {
+            int from = Math.max(0, selectionStart - count);
+            text.delete(from, selectionStart);
+            selectionEnd -= selectionStart - from;
+            selectionStart = from;
+        }
+
+        @Override
+        public void moveCursor(int direction) {
+            int position = direction < 0 ? selectionStart - 1 : selectionEnd + 1;
+            setSelection(position, position);
+        }
+
+        @Override
+        public void setSelection(int start, int end) {
+            selectionStart = Math.max(0, Math.min(start, text.length()));
+            selectionEnd = Math.max(selectionStart, Math.min(end, text.length()));
+        }
+    }
+
+    private final KeyboardEngine engine = new KeyboardEngine(this);
+    private final FakeEditor editor = new FakeEditor();
+    private float[] samples = new float[6 * 64];
+    private long[] sampleTimes = new long[64];
+    private long nowNanos;
+    private long nextFrameNanos;
+    private boolean framePending;
+    private boolean flushRequested;
+    private boolean framesRequested;
+    private long frames;
+
+    private TraceReplay(CompiledLayout layout, WordDictionary dictionary) {
+        engine.setLayout(layout);
+        if (dictionary != null) {
+            engine.setWordCompleter(new WordCompleter(dictionary, 3));
+            engine.setGestureDecoder(new GestureDecoder(dictionary, layout));
+        }
+    }
+
+    /**
+     * Replays a whole trace into a fresh engine and an empty editor.
+     *
+     * @param dictionary May be null to replay without word completion.
+     * @throws IllegalArgumentException if the trace is malformed.
+     */
+    public static Result replay(ByteBuffer trace, CompiledLayout layout, WordDictionary dictionary) {
+        return new TraceReplay(layout, dictionary).run(trace);
+    }
+
+    private Result run(ByteBuffer trace) {
+        long start = System.nanoTime();
+        GamepadTrace.Reader reader = new GamepadTrace.Reader(trace);
+        nowNanos = reader.getTimeMillis() * MILLIS;
+        engine.startInput(editor);
+        long events = 0;
+        long sampleTotal = 0;
+        int type;
+        while ((type = reader.next()) != -1) {
+            events++;
+            if (type == GamepadTrace.MOTION) {
+                int count = reader.getSampleCount();
+                if (samples.length < count * 6) {
+                    samples = new float[count * 6];
+                    sampleTimes = new long[count];
+                }
+                for (int i = 0; reader.nextSample(); i += 6) {
+                    sampleTimes[i / 6] = reader.getTimeMillis() * MILLIS;
+                    samples[i] = reader.getX();
+                    samples[i + 1] = reader.getY();
+                    samples[i + 2] = reader.getZ();
+                    samples[i + 3] = reader.getRz();
+                    samples[i + 4] = reader.getHatX();
+                    samples[i + 5] = reader.getHatY();
+                }
+                sampleTotal += count;
+                // Like a MotionEvent, the event time is that of its newest sample
+                advanceTo(reader.getTimeMillis() * MILLIS);
+                if (engine.beginMotion(nowNanos)) {
+                    for (int i = 0; i < count * 6; i += 6) {
+                        engine.addMotionSample(sampleTimes[i / 6], samples[i], samples[i + 1],
+                                samples[i + 2], samples[i + 3], samples[i + 4], samples[i + 5]);
+                    }
+                    engine.endMotion();
+                }
+            } else {
+                advanceTo(reader.getTimeMillis() * MILLIS);
+                if (type == GamepadTrace.KEY_DOWN) {
+                    engine.onKeyDown(reader.getKeyCode(), reader.getRepeatCount(), nowNanos);
+                } else {
+                    engine.onKeyUp(reader.getKeyCode(), nowNanos);
+                }
+            }
+        }
+        engine.finishInput();
+        long elapsed = System.nanoTime() - start;
+        return new Result(events, sampleTotal, frames, elapsed, engine.getRedrawRequests(),
+                engine.getEditBatcher().getCallsSent(), engine.getSurroundingText().getReads(),
+                editor.text.toString());
+    }
+
+    /** Runs the frames that would have happened before {@code timeNanos}. */
+    private void advanceTo(long timeNanos) {
+        while (framePending && nextFrameNanos <= timeNanos) {
+            nowNanos = nextFrameNanos;
+            framePending = false;
+            if (flushRequested) {
+                flushRequested = false;
+                engine.flushEdits();
+            }
+            if (framesRequested) {
+                framesRequested = engine.onFrame(nowNanos);
+            }
+            frames++;
+            framePending = flushRequested || framesRequested;
+            nextFrameNanos = nowNanos + FRAME_NANOS;
+        }
+        nowNanos = timeNanos;
+    }
+
+    private void scheduleFrame() {
+        if (!framePending) {
+            framePending = true;
+            nextFrameNanos = nowNanos + FRAME_NANOS;
+        }
+    }
+
+    @Override
+    public void onRingsChanged(CompiledLayout.Ring left, CompiledLayout.Ring right) {
+    }
+
+    @Override
+    public void onHoverChanged(int side, int slice) {
+    }
+
+    @Override
+    public void onSuggestionsChanged() {
+    }
+
+    @Override
+    public void requestFlush() {
+        flushRequested = true;
+        scheduleFrame();
+    }
+
+    @Override
+    public void requestFrames() {
+        framesRequested = true;
+        scheduleFrame();
+    }
+
+    @Override
+    public boolean readSurroundingText(SurroundingTextCache cache) {
+        int from = Math.max(0, editor.selectionStart - SurroundingTextCache.WINDOW);
+        int to = Math.min(editor.text.length(), editor.selectionEnd + SurroundingTextCache.WINDOW);
+        cache.reset(editor.text.subSequence(from, to), editor.selectionStart - from,
+                editor.selectionEnd - from, from);
+        return true;
+    }
+
+    /**
+     * Usage: TraceReplay trace.gpkt layout(.gpkl|.json) [dictionary(.gpkd|.txt)]
+     * Prints the {@link Result} as key=value lines.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TraceReplay <trace.gpkt> <layout.gpkl|layout.json> [dictionary.gpkd|words.txt]");
+            System.exit(2);
+        }
+        ByteBuffer trace = ByteBuffer.wrap(Files.readAllBytes(new File(args[0]).toPath()));
+        byte[] layoutBytes = Files.readAllBytes(new File(args[1]).toPath());
+        CompiledLayout layout = args[1].endsWith(".json")
+                ? StreamingLayoutLoader.load(layoutBytes)
+                : LayoutBinary.read(ByteBuffer.wrap(layoutBytes));
+        WordDictionary dictionary = null;
+        if (args.length > 2) {
+            File source = new File(args[2]);
+            byte[] image = args[2].endsWith(".txt")
+                    ? DictionaryCompiler.compile(DictionaryCompiler.readWordList(source))
+                    : Files.readAllBytes(source.toPath());
+            dictionary = WordDictionary.read(ByteBuffer.wrap(image));
+        }
+        System.out.println(replay(trace, layout, dictionary));
+    }
+}
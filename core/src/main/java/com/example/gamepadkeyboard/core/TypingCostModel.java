@@ -0,0 +1,275 @@
+package com.example.gamepadkeyboard.core;
+
+import java.util.HashMap;
+import java.util.Map;
+
+/**
+ * Estimates how long a typist takes to enter text on a layout, one character at a time, by
+ * planning the cheapest sequence of controller actions from the keyboard's current state.
+ *
+ * A character is typed by getting the left stick onto its slice and tapping L1, after switching
+ * to its layer (A, which cycles layers and drops upper case, or a right stick flick), its case
+ * (D-pad up) and its alt rings (holding L2, released once a character no longer needs it). Space
+ * is Y. The right rings cannot be typed on: the right stick selects layers instead of hovering
+ * them, so characters found only there are unreachable, as are characters on no ring at all.
+ *
+ * Costs are rough per-action times in milliseconds. Stick motion costs a fixed settle time plus
+ * the angle the stick turns through, and more the further the slice is from the four directions
+ * a thumb finds without looking. The planner is greedy: it picks the cheapest way to type the
+ * next character without looking ahead. A model is bound to one layout and is not thread-safe.
+ */
+public final class TypingCostModel {
+
+    // Milliseconds per action
+    public static final float STICK_SETTLE_MS = 110f;
+    public static final float STICK_MS_PER_DEGREE = 0.6f;
+    /** Extra for a slice centered 45 degrees off the nearest cardinal direction, pro rata below. */
+    public static final float DIAGONAL_MS = 45f;
+    public static final float COMMIT_MS = 90f;
+    public static final float BUTTON_MS = 140f;
+    public static final float LAYER_FLICK_MS = 180f;
+    public static final float CASE_TOGGLE_MS = 160f;
+    public static final float TRIGGER_HOLD_MS = 120f;
+    public static final float TRIGGER_RELEASE_MS = 60f;
+    /** Per character typed with the trigger held, for the hand that keeps holding it. */
+    public static final float TRIGGER_HELD_MS = 30f;
+
+    // What a step consists of, as indices into the action counts
+    public static final int ACTION_STICK = 0;
+    public static final int ACTION_COMMIT = 1;
+    public static final int ACTION_LAYER_BUTTON = 2;
+    public static final int ACTION_LAYER_FLICK = 3;
+    public static final int ACTION_CASE_TOGGLE = 4;
+    public static final int ACTION_TRIGGER_HOLD = 5;
+    public static final int ACTION_TRIGGER_RELEASE = 6;
+    public static final int ACTION_SPACE = 7;
+    public static final int ACTION_KINDS = 8;
+    static final String[] ACTION_NAMES = {
+            "stickMoves", "commits", "layerButtonPresses", "layerFlicks",
+            "caseToggles", "triggerHolds", "triggerReleases", "spaces"
+    };
+
+    /** How to type one character, filled in by {@link #plan}. */
+    public static final class Step {
+        public int layer;
+        public boolean alt;
+        public boolean upper;
+        public int slice;
+        public int sliceCount;
+        /** 0 for no layer change, otherwise A presses, or -1 for a right stick flick. */
+        public int layerPresses;
+        public boolean caseToggle;
+        public boolean holdTrigger;
+        public boolean releaseTrigger;
+        public boolean moveStick;
+        public boolean space;
+        public float costMs;
+    }
+
+    private final CompiledLayout layout;
+    private final int layerCount;
+    // Code point -> packed (layer << 8 | alt << 7 | upper << 6 | slice) of every left slice showing it
+    private final Map<Integer, int[]> places = new HashMap<>();
+    private final Step candidate = new Step();
+
+    // The keyboard and controller as the typist left them
+    private int layer;
+    private boolean alt;
+    private boolean upper;
+    private float stickDegrees = Float.NaN; // Left stick angle, NaN while centered
+
+    public TypingCostModel(CompiledLayout layout) {
+        this.layout = layout;
+        this.layerCount = layout.getLayerCount();
+        for (int l = 0; l < layerCount; l++) {
+            for (int variant = 0; variant < 4; variant++) {
+                boolean a = (variant & 2) != 0;
+                boolean u = (variant & 1) != 0;
+                CompiledLayout.Ring ring = layout.ring(l, a, u, CompiledLayout.LEFT);
+                for (int s = 0; s < Math.min(ring.size(), 64); s++) {
+                    String key = ring.key(s);
+                    if (key.codePointCount(0, key.length()) != 1) {
+                        continue; // Multi-character keys are not something a corpus spells out
+                    }
+                    int packed = l << 8 | (a ? 1 << 7 : 0) | (u ? 1 << 6 : 0) | s;
+                    places.merge(key.codePointAt(0), new int[] {packed}, TypingCostModel::concat);
+                }
+            }
+        }
+    }
+
+    private static int[] concat(int[] a, int[] b) {
+        int[] joined = new int[a.length + b.length];
+        System.arraycopy(a, 0, joined, 0, a.length);
+        System.arraycopy(b, 0, joined, a.length, b.length);
+        return joined;
+    }
+
+    public CompiledLayout getLayout() {
+        return layout;
+    }
+
+    /** Back to the state a field starts in: layer 0, lower case, no trigger, stick centered. */
+    public void reset() {
+        layer = 0;
+        alt = false;
+        upper = false;
+        stickDegrees = Float.NaN;
+    }
+
+    /** True if the character can be typed at all. */
+    public boolean isReachable(int codePoint) {
+        return codePoint == ' ' || places.containsKey(codePoint);
+    }
+
+    /**
+     * Plans the cheapest way to type {@code codePoint} from the current state into {@code step}
+     * and moves the state past it.
+     *
+     * @return false, leaving the state alone, if the character is unreachable.
+     */
+    public boolean plan(int codePoint, Step step) {
+        if (codePoint == ' ') {
+            clear(step);
+            step.space = true;
+            step.costMs = BUTTON_MS;
+            return true;
+        }
+        int[] options = places.get(codePoint);
+        if (options == null) {
+            return false;
+        }
+        step.costMs = Float.MAX_VALUE;
+        for (int packed : options) {
+            cost(packed, candidate);
+            if (candidate.costMs < step.costMs) {
+                copy(candidate, step);
+            }
+        }
+        layer = step.layer;
+        alt = step.alt;
+        upper = step.upper;
+        stickDegrees = sliceDegrees(step.slice, step.sliceCount);
+        return true;
+    }
+
+    /** What typing the slice {@code packed} would take from the current state. */
+    private void cost(int packed, Step step) {
+        clear(step);
+        step.layer = packed >>> 8;
+        step.alt = (packed & 1 << 7) != 0;
+        step.upper = (packed & 1 << 6) != 0;
+        step.slice = packed & 63;
+        step.sliceCount = layout.ring(step.layer, step.alt, step.upper, CompiledLayout.LEFT).size();
+        float cost = COMMIT_MS;
+
+        if (step.alt != alt) {
+            step.holdTrigger = step.alt;
+            step.releaseTrigger = !step.alt;
+            cost += step.alt ? TRIGGER_HOLD_MS : TRIGGER_RELEASE_MS;
+        }
+        if (step.alt) {
+            cost += TRIGGER_HELD_MS;
+        }
+
+        boolean upperAfterLayer = upper;
+        if (step.layer != layer) {
+            // A keeps alt but drops upper case; a flick keeps both
+            int presses = (step.layer - layer + layerCount) % layerCount;
+            float byButton = presses * BUTTON_MS + (step.upper ? CASE_TOGGLE_MS : 0);
+            float byFlick = LAYER_FLICK_MS + (step.upper != upper ? CASE_TOGGLE_MS : 0);
+            if (byButton < byFlick) {
+                step.layerPresses = presses;
+                upperAfterLayer = false;
+                cost += presses * BUTTON_MS;
+            } else {
+                step.layerPresses = -1;
+                cost += LAYER_FLICK_MS;
+            }
+        }
+        if (step.upper != upperAfterLayer) {
+            step.caseToggle = true;
+            cost += CASE_TOGGLE_MS;
+        }
+
+        float stickMs = stickMs(stickDegrees, step.slice, step.sliceCount);
+        step.moveStick = stickMs > 0;
+        cost += stickMs;
+        step.costMs = cost;
+    }
+
+    /**
+     * Getting the left stick from {@code fromDegrees} (NaN for centered) onto a slice, or 0 if it
+     * is well inside that slice already.
+     */
+    static float stickMs(float fromDegrees, int slice, int sliceCount) {
+        float target = sliceDegrees(slice, sliceCount);
+        float turn = Float.isNaN(fromDegrees) ? 0 : angleBetween(fromDegrees, target);
+        if (!Float.isNaN(fromDegrees) && turn <= 90f / sliceCount) {
+            return 0;
+        }
+        float offCardinal = target % 90f;
+        offCardinal = Math.min(offCardinal, 90f - offCardinal);
+        return STICK_SETTLE_MS + turn * STICK_MS_PER_DEGREE + DIAGONAL_MS * offCardinal / 45f;
+    }
+
+    /** Clockwise from 12 o'clock; slice 0 is centered there, as on the radial menus. */
+    public static float sliceDegrees(int slice, int sliceCount) {
+        return slice * 360f / sliceCount;
+    }
+
+    private static float angleBetween(float a, float b) {
+        float d = Math.abs(a - b) % 360f;
+        return d > 180f ? 360f - d : d;
+    }
+
+    private static void clear(Step step) {
+        step.layerPresses = 0;
+        step.caseToggle = false;
+        step.holdTrigger = false;
+        step.releaseTrigger = false;
+        step.moveStick = false;
+        step.space = false;
+    }
+
+    private static void copy(Step from, Step to) {
+        to.layer = from.layer;
+        to.alt = from.alt;
+        to.upper = from.upper;
+        to.slice = from.slice;
+        to.sliceCount = from.sliceCount;
+        to.layerPresses = from.layerPresses;
+        to.caseToggle = from.caseToggle;
+        to.holdTrigger = from.holdTrigger;
+        to.releaseTrigger = from.releaseTrigger;
+        to.moveStick = from.moveStick;
+        to.space = from.space;
+        to.costMs = from.costMs;
+    }
+
+    /** Adds the actions of {@code step} to {@code counts}, indexed by the ACTION_ constants. */
+    public static void countActions(Step step, long[] counts) {
+        if (step.space) {
+            counts[ACTION_SPACE]++;
+            return;
+        }
+        if (step.releaseTrigger) {
+            counts[ACTION_TRIGGER_RELEASE]++;
+        }
+        if (step.holdTrigger) {
+            counts[ACTION_TRIGGER_HOLD]++;
+        }
+        if (step.layerPresses > 0) {
+            counts[ACTION_LAYER_BUTTON] += step.layerPresses;
+        } else if (step.layerPresses < 0) {
+            counts[ACTION_LAYER_FLICK]++;
+        }
+        if (step.caseToggle) {
+            counts[ACTION_CASE_TOGGLE]++;
+        }
+        if (step.moveStick) {
+            counts[ACTION_STICK]++;
+        }
+        counts[ACTION_COMMIT]++;
+    }
+}
@@ -0,0 +1,373 @@
+package com.example.gamepadkeyboard.core;
+
+import java.io.File;
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.util.Locale;
+
+/**
+ * Types a text corpus on a layout with a simulated typist, to compare how fast layouts are to
+ * type on.
+ *
+ * The typist plans each character with a {@link TypingCostModel} and carries the plan out on a
+ * real {@link KeyboardEngine}: button presses go in as key events and stick motion as 125 Hz
+ * samples, through the same filters and resolvers as on a device. Virtual time advances by each
+ * action's modeled cost, plus the time of any extra samples the stick needed to land on its
+ * slice. At the end the text the engine committed is checked against the reachable part of the
+ * corpus, so a layout that the planner and the engine disagree on shows up as unverified.
+ *
+ * Whitespace runs in the corpus count as one space, since line breaks are formatting, except
+ * that a blank line ends a paragraph: each paragraph is typed into a new field, which starts from
+ * the keyboard's reset state as on a device. Run it with {@code ./gradlew :core:simulateTypist},
+ * which prints one key=value block per layout.
+ */
+public final class TypistSimulation implements KeyboardEngine.Host {
+
+    private static final long MILLIS = 1_000_000L;
+    private static final long SAMPLE_NANOS = 8 * MILLIS;
+    private static final int MAX_SETTLE_SAMPLES = 32;
+
+    /** What typing the corpus took. */
+    public static final class Result {
+        public final int characters;
+        public final int typed;
+        public final String unreachableCharacters; // Distinct, in order of first appearance
+        public final int unreachable;
+        public final long[] actions;
+        public final long stickCorrections;
+        public final long elapsedNanos;
+        public final boolean verified;
+
+        Result(int characters, int typed, int unreachable, String unreachableCharacters,
+               long[] actions, long stickCorrections, long elapsedNanos, boolean verified) {
+            this.characters = characters;
+            this.typed = typed;
+            this.unreachable = unreachable;
+            this.unreachableCharacters = unreachableCharacters;
+            this.actions = actions;
+            this.stickCorrections = stickCorrections;
+            this.elapsedNanos = elapsedNanos;
+            this.verified = verified;
+        }
+
+        public long getActionCount() {
+            long total = stickCorrections;
+            for (long count : actions) {
+                total += count;
+            }
+            return total;
+        }
+
+        public double getCharactersPerMinute() {
+            return elapsedNanos > 0 ? typed * 60e9 / elapsedNanos : 0;
+        }
+
+        public double getActionsPerCharacter() {
+            return typed > 0 ? (double) getActionCount() / typed : 0;
+        }
+
+        public double getUnreachableShare() {
+            return characters > 0 ? (double) unreachable / characters : 0;
+        }
+
+        /** One key=value pair per line, for scripts. */
+        @Override
+        public String toString() {
+            StringBuilder out = new StringBuilder()
+                    .append("characters=").append(characters)
+                    .append("\ntyped=").append(typed)
+                    .append("\nunreachable=").append(unreachable)
+                    .append("\nunreachableShare=").append(String.format(Locale.US, "%.4f", getUnreachableShare()))
+                    .append("\nunreachableCharacters=").append(unreachableCharacters
+                            .replace("\\", "\\\\").replace("\n", "\\n"))
+                    .append("\nestimatedMillis=").append(String.format(Locale.US, "%.0f", elapsedNanos / 1e6))
+                    .append("\ncharactersPerMinute=").append(String.format(Locale.US, "%.1f", getCharactersPerMinute()))
+                    .append("\nactions=").append(getActionCount())
+                    .append("\nactionsPerCharacter=").append(String.format(Locale.US, "%.3f", getActionsPerCharacter()));
+            for (int kind = 0; kind < TypingCostModel.ACTION_KINDS; kind++) {
+                out.append('\n').append(TypingCostModel.ACTION_NAMES[kind]).append('=').append(actions[kind]);
+            }
+            return out.append("\nstickCorrections=").append(stickCorrections)
+                    .append("\nverified=").append(verified)
+                    .toString();
+        }
+    }
+
+    /** Stand-in for the InputConnection; the typist only ever appends. */
+    private static final class Editor implements EditBatcher.Target {
+        final StringBuilder text = new StringBuilder();
+
+        @Override
+        public void beginBatchEdit() {
+        }
+
+        @Override
+        public void endBatchEdit() {
+        }
+
+        @Override
+        public void commitText(CharSequence committed) {
+            text.append(committed);
+        }
+
+        @Override
+        public void deleteBefore(int count) {
+            text.setLength(Math.max(0, text.length() - count));
+        }
+
+        @Override
+        public void moveCursor(int direction) {
+        }
+
+        @Override
+        public void setSelection(int start, int end) {
+        }
+    }
+
+    private final KeyboardEngine engine = new KeyboardEngine(this);
+    private final TypingCostModel model;
+    private final CompiledLayout layout;
+    private final Editor editor = new Editor();
+    private final TypingCostModel.Step step = new TypingCostModel.Step();
+    private final long[] actions = new long[TypingCostModel.ACTION_KINDS];
+    private long stickCorrections;
+    private long nowNanos;
+    private float leftX, leftY, rightX, rightY;
+    private int hoveredLeft = -1;
+    private CompiledLayout.Ring shownLeft;
+
+    private TypistSimulation(CompiledLayout layout) {
+        this.layout = layout.materializeAll();
+        this.model = new TypingCostModel(this.layout);
+        engine.setLayout(this.layout);
+    }
+
+    /** Types {@code corpus} on a fresh engine, with the keyboard in its start state. */
+    public static Result simulate(CompiledLayout layout, CharSequence corpus) {
+        return new TypistSimulation(layout).run(corpus);
+    }
+
+    private Result run(CharSequence corpus) {
+        model.reset();
+        engine.startInput(editor);
+        StringBuilder expected = new StringBuilder();
+        StringBuilder unreachableCharacters = new StringBuilder();
+        int characters = 0;
+        int unreachable = 0;
+        boolean pendingSpace = false;
+        int lineBreaks = 0;
+        for (int i = 0; i < corpus.length(); ) {
+            int codePoint = Character.codePointAt(corpus, i);
+            i += Character.charCount(codePoint);
+            if (Character.isWhitespace(codePoint)) {
+                pendingSpace = characters > 0;
+                lineBreaks += codePoint == '\n' ? 1 : 0;
+                continue;
+            }
+            if (lineBreaks >= 2) {
+                startField();
+            } else if (pendingSpace) {
+                characters++;
+                type(' ', expected);
+            }
+            pendingSpace = false;
+            lineBreaks = 0;
+            characters++;
+            if (!type(codePoint, expected)) {
+                unreachable++;
+                if (unreachableCharacters.indexOf(new String(Character.toChars(codePoint))) < 0) {
+                    unreachableCharacters.appendCodePoint(codePoint);
+                }
+            }
+        }
+        engine.finishInput();
+        return new Result(characters, characters - unreachable, unreachable,
+                unreachableCharacters.toString(), actions.clone(), stickCorrections, nowNanos,
+                editor.text.toString().contentEquals(expected));
+    }
+
+    /** Moves on to a new field, with the typist's hands back at rest. */
+    private void startField() {
+        engine.finishInput();
+        leftX = leftY = rightX = rightY = 0;
+        model.reset();
+        engine.startInput(editor);
+    }
+
+    /** Plans and performs one character. @return false if it cannot be typed. */
+    private boolean type(int codePoint, StringBuilder expected) {
+        if (!model.plan(codePoint, step)) {
+            return false;
+        }
+        TypingCostModel.countActions(step, actions);
+        expected.appendCodePoint(codePoint);
+        if (step.space) {
+            press(KeyboardStateMachine.KEYCODE_BUTTON_Y, TypingCostModel.BUTTON_MS);
+            engine.flushEdits();
+            return true;
+        }
+        if (step.releaseTrigger) {
+            release(KeyboardStateMachine.KEYCODE_BUTTON_L2, TypingCostModel.TRIGGER_RELEASE_MS);
+        }
+        if (step.holdTrigger) {
+            hold(KeyboardStateMachine.KEYCODE_BUTTON_L2, TypingCostModel.TRIGGER_HOLD_MS);
+        }
+        for (int p = 0; p < step.layerPresses; p++) {
+            press(KeyboardStateMachine.KEYCODE_BUTTON_A, TypingCostModel.BUTTON_MS);
+        }
+        if (step.layerPresses < 0) {
+            flickToLayer(step.layer);
+        }
+        if (step.caseToggle) {
+            press(KeyboardStateMachine.KEYCODE_DPAD_UP, TypingCostModel.CASE_TOGGLE_MS);
+        }
+        if (step.moveStick) {
+            moveLeftStick(TypingCostModel.sliceDegrees(step.slice, step.sliceCount),
+                    step.costMs - TypingCostModel.COMMIT_MS - otherCostMs());
+        }
+        settle();
+        press(KeyboardStateMachine.KEYCODE_BUTTON_L1,
+                TypingCostModel.COMMIT_MS + (step.alt ? TypingCostModel.TRIGGER_HELD_MS : 0));
+        engine.flushEdits();
+        return true;
+    }
+
+    /** The part of the current step's cost that is not stick motion or the commit. */
+    private float otherCostMs() {
+        float cost = step.alt ? TypingCostModel.TRIGGER_HELD_MS : 0;
+        if (step.releaseTrigger) {
+            cost += TypingCostModel.TRIGGER_RELEASE_MS;
+        }
+        if (step.holdTrigger) {
+            cost += TypingCostModel.TRIGGER_HOLD_MS;
+        }
+        cost += step.layerPresses > 0 ? step.layerPresses * TypingCostModel.BUTTON_MS
+                : step.layerPresses < 0 ? TypingCostModel.LAYER_FLICK_MS : 0;
+        if (step.caseToggle) {
+            cost += TypingCostModel.CASE_TOGGLE_MS;
+        }
+        return cost;
+    }
+
+    private void press(int keyCode, float costMs) {
+        engine.onKeyDown(keyCode, 0, nowNanos);
+        advance(costMs / 2);
+        engine.onKeyUp(keyCode, nowNanos);
+        advance(costMs / 2);
+    }
+
+    private void hold(int keyCode, float costMs) {
+        engine.onKeyDown(keyCode, 0, nowNanos);
+        advance(costMs);
+    }
+
+    private void release(int keyCode, float costMs) {
+        engine.onKeyUp(keyCode, nowNanos);
+        advance(costMs);
+    }
+
+    /** Right stick out to the layer and back to center, sampled throughout. */
+    private void flickToLayer(int layer) {
+        double radians = Math.toRadians((layer + 0.5) * 360.0 / layout.getLayerCount());
+        rightX = (float) Math.sin(radians);
+        rightY = (float) -Math.cos(radians);
+        sampleFor(TypingCostModel.LAYER_FLICK_MS / 2);
+        rightX = rightY = 0;
+        sampleFor(TypingCostModel.LAYER_FLICK_MS / 2);
+    }
+
+    private void moveLeftStick(float degrees, float costMs) {
+        double radians = Math.toRadians(degrees);
+        leftX = (float) Math.sin(radians);
+        leftY = (float) -Math.cos(radians);
+        sampleFor(costMs);
+    }
+
+    /**
+     * Keeps sampling until the engine shows the planned ring and hovers the planned slice; each
+     * extra sample is a stick correction the model did not account for.
+     */
+    private void settle() {
+        CompiledLayout.Ring ring = layout.ring(step.layer, step.alt, step.upper, CompiledLayout.LEFT);
+        for (int n = 0; n < MAX_SETTLE_SAMPLES && (shownLeft != ring || hoveredLeft != step.slice); n++) {
+            stickCorrections++;
+            sample();
+            nowNanos += SAMPLE_NANOS;
+        }
+    }
+
+    private void sampleFor(float millis) {
+        long end = nowNanos + (long) (millis * MILLIS);
+        while (nowNanos < end) {
+            sample();
+            nowNanos = Math.min(end, nowNanos + SAMPLE_NANOS);
+        }
+    }
+
+    private void sample() {
+        if (engine.beginMotion(nowNanos)) {
+            engine.addMotionSample(nowNanos, leftX, leftY, rightX, rightY, 0, 0);
+            engine.endMotion();
+        }
+    }
+
+    private void advance(float millis) {
+        nowNanos += (long) (millis * MILLIS);
+    }
+
+    @Override
+    public void onRingsChanged(CompiledLayout.Ring left, CompiledLayout.Ring right) {
+        shownLeft = left;
+    }
+
+    @Override
+    public void onHoverChanged(int side, int slice) {
+        if (side == CompiledLayout.LEFT) {
+            hoveredLeft = slice;
+        }
+    }
+
+    @Override
+    public void onSuggestionsChanged() {
+    }
+
+    @Override
+    public void requestFlush() {
+        // Flushed after every character instead of on a frame
+    }
+
+    @Override
+    public void requestFrames() {
+    }
+
+    @Override
+    public boolean readSurroundingText(SurroundingTextCache cache) {
+        return false;
+    }
+
+    /**
+     * Usage: TypistSimulation corpus.txt layout(.gpkl|.json)...
+     * Prints one {@link Result} per layout as key=value lines, each block starting with its
+     * layout= line and separated by an empty line.
+     */
+    public static void main(String[] args) throws IOException {
+        if (args.length < 2) {
+            System.err.println("Usage: TypistSimulation <corpus.txt> <layout.gpkl|layout.json>...");
+            System.exit(2);
+        }
+        String corpus = new String(Files.readAllBytes(new File(args[0]).toPath()), StandardCharsets.UTF_8);
+        for (int i = 1; i < args.length; i++) {
+            byte[] layoutBytes = Files.readAllBytes(new File(args[i]).toPath());
+            CompiledLayout layout = args[i].endsWith(".json")
+                    ? StreamingLayoutLoader.load(layoutBytes)
+                    : LayoutBinary.read(ByteBuffer.wrap(layoutBytes));
+            if (i > 1) {
+                System.out.println();
+            }
+            System.out.println("layout=" + args[i]);
+            System.out.println(simulate(layout, corpus));
+        }
+    }
+}
@@ -0,0 +1,109 @@
+package com.example.gamepadkeyboard.core;
+
+/**
+ * Tracks the word being typed from the text the keyboard commits and keeps the best dictionary
+ * completions for it.
+ *
+ * Letters (and apostrophes inside a word) extend the current word; anything else ends it. The
+ * word and the suggestion buffers are preallocated and reused, so feeding a keystroke allocates
+ * nothing.
+ */
+public final class WordCompleter {
+
+    private final WordDictionary dictionary;
+    private final StringBuilder word = new StringBuilder(WordDictionary.MAX_WORD_LENGTH);
+    private final StringBuilder[] suggestions;
+    private int suggestionCount;
+    private int replacedLength; // Non-zero while the suggestions replace text instead of completing it
+
+    public WordCompleter(WordDictionary dictionary, int maxSuggestions) {
+        this.dictionary = dictionary;
+        this.suggestions = new StringBuilder[maxSuggestions];
+        for (int i = 0; i < maxSuggestions; i++) {
+            suggestions[i] = new StringBuilder(WordDictionary.MAX_WORD_LENGTH);
+        }
+    }
+
+    /** Feeds text that was just committed. @return true if the suggestions changed. */
+    public boolean onCommit(CharSequence text) {
+        replacedLength = 0;
+        for (int i = 0; i < text.length(); i++) {
+            char c = text.charAt(i);
+            if (Character.isLetter(c) || (c == '\'' && word.length() > 0)) {
+                if (word.length() < WordDictionary.MAX_WORD_LENGTH - 1) {
+                    word.append(Character.toLowerCase(c));
+                }
+            } else {
+                word.setLength(0);
+            }
+        }
+        return refresh();
+    }
+
+    /** Feeds a delete of {@code count} characters before the cursor. */
+    public boolean onDelete(int count) {
+        replacedLength = 0;
+        // Deleting past the start of the word leaves us not knowing what is there; start over
+        word.setLength(count >= word.length() ? 0 : word.length() - count);
+        return refresh();
+    }
+
+    /** Forgets the current word, e.g. when the cursor moved or a new field got focus. */
+    public boolean reset() {
+        replacedLength = 0;
+        word.setLength(0);
+        return refresh();
+    }
+
+    /**
+     * Offers {@code words[from..from+count)} as replacements for the {@code replacedLength}
+     * characters just committed, e.g. the runners-up of a gesture, until the next commit or delete.
+     */
+    public void offerAlternatives(StringBuilder[] words, int from, int count, int replacedLength) {
+        suggestionCount = Math.min(count, suggestions.length);
+        for (int i = 0; i < suggestionCount; i++) {
+            suggestions[i].setLength(0);
+            suggestions[i].append(words[from + i]);
+        }
+        this.replacedLength = suggestionCount > 0 ? replacedLength : 0;
+    }
+
+    /** How many characters before the cursor a suggestion replaces; 0 when it completes the word. */
+    public int getReplacedLength() {
+        return replacedLength;
+    }
+
+    public int getSuggestionCount() {
+        return suggestionCount;
+    }
+
+    public CharSequence getSuggestion(int index) {
+        return suggestions[index];
+    }
+
+    /**
+     * @return what has to be committed, after deleting {@link #getReplacedLength()} characters,
+     * to turn the current word into suggestion {@code index}, or null if there is no such suggestion.
+     */
+    public String getRemainder(int index) {
+        if (index >= suggestionCount) {
+            return null;
+        }
+        return suggestions[index].substring(replacedLength > 0 ? 0 : word.length());
+    }
+
+    private boolean refresh() {
+        int previousCount = suggestionCount;
+        suggestionCount = word.length() == 0 ? 0 : dictionary.complete(word, suggestions);
+        // Drop a suggestion that is exactly what was typed; accepting it would add nothing
+        for (int i = 0; i < suggestionCount; i++) {
+            if (suggestions[i].length() == word.length()) {
+                StringBuilder typed = suggestions[i];
+                System.arraycopy(suggestions, i + 1, suggestions, i, suggestionCount - i - 1);
+                suggestions[--suggestionCount] = typed;
+                break;
+            }
+        }
+        return suggestionCount > 0 || previousCount > 0;
+    }
+}
@@ -0,0 +1,250 @@
+package com.example.gamepadkeyboard.core;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Read-only word trie with frequency ranks, read in place from a (typically memory-mapped) buffer
+ * written by {@link DictionaryCompiler}.
+ *
+ * Format, big-endian:
+ * <pre>
+ *   int    magic      'GPKD'
+ *   short  version    1
+ *   int    wordCount
+ *   int    nodeBytes  size of the node region that follows; the root is its first node
+ *   nodes x {
+ *       short childCount
+ *       int   rank       rank of the word ending here (0 = most frequent), -1 if none
+ *       int   bestRank   lowest rank anywhere in this subtree
+ *       childCount x { short char, int offset }   sorted by char, offsets into the node region
+ *   }
+ * </pre>
+ * Because every node knows the best rank below it, {@link #complete} runs a best-first search
+ * from the prefix node and stops after the top results, instead of walking the whole subtree.
+ * All search state is preallocated, so a lookup allocates nothing. Not thread-safe.
+ */
+public final class WordDictionary {
+
+    public static final int MAGIC = 0x47504B44; // "GPKD"
+    public static final int VERSION = 1;
+    public static final int MAX_WORD_LENGTH = 48;
+
+    static final int HEADER_BYTES = 14;
+    static final int NODE_HEADER_BYTES = 10;
+    static final int CHILD_BYTES = 6;
+
+    private static final int HEAP_CAPACITY = 2048;
+    private static final int PATH_CAPACITY = 4096;
+
+    private final ByteBuffer buffer;
+    private final int wordCount;
+
+    // Best-first search state: a binary min-heap of (rank, node, path, isWord) items
+    private final int[] heapRank = new int[HEAP_CAPACITY];
+    private final int[] heapNode = new int[HEAP_CAPACITY];
+    private final int[] heapPath = new int[HEAP_CAPACITY];
+    private final boolean[] heapWord = new boolean[HEAP_CAPACITY];
+    private int heapSize;
+
+    // Characters below the prefix node, stored as a parent-linked tree of search paths
+    private final char[] pathChar = new char[PATH_CAPACITY];
+    private final int[] pathParent = new int[PATH_CAPACITY];
+    private int pathSize;
+    private final char[] wordScratch = new char[MAX_WORD_LENGTH];
+
+    private WordDictionary(ByteBuffer buffer, int wordCount) {
+        this.buffer = buffer;
+        this.wordCount = wordCount;
+    }
+
+    /**
+     * @throws IllegalArgumentException if the buffer does not hold a dictionary this reader understands.
+     */
+    public static WordDictionary read(ByteBuffer buffer) {
+        ByteBuffer data = buffer.slice();
+        if (data.remaining() < HEADER_BYTES || data.getInt(0) != MAGIC) {
+            throw new IllegalArgumentException("Not a compiled dictionary");
+        }
+        int version = data.getShort(4) & 0xFFFF;
+        if (version != VERSION) {
+            throw new IllegalArgumentException("Unsupported dictionary version " + version);
+        }
+        int wordCount = data.getInt(6);
+        int nodeBytes = data.getInt(10);
+        if (nodeBytes < NODE_HEADER_BYTES || HEADER_BYTES + nodeBytes > data.remaining()) {
+            throw new IllegalArgumentException("Truncated dictionary");
+        }
+        data.position(HEADER_BYTES);
+        data.limit(HEADER_BYTES + nodeBytes);
+        return new WordDictionary(data.slice(), wordCount);
+    }
+
+    public int getWordCount() {
+        return wordCount;
+    }
+
+    /**
+     * Finds the most frequent words starting with {@code prefix}, best first, including the
+     * prefix itself if it is a word.
+     *
+     * @param results receives the words; its length is the number of completions wanted.
+     * @return how many entries of {@code results} were filled.
+     */
+    public int complete(CharSequence prefix, StringBuilder[] results) {
+        int node = 0;
+        for (int i = 0; i < prefix.length() && node >= 0; i++) {
+            node = findChild(node, prefix.charAt(i));
+        }
+        if (node < 0 || prefix.length() >= MAX_WORD_LENGTH) {
+            return 0;
+        }
+
+        heapSize = 0;
+        pathSize = 0;
+        push(buffer.getInt(node + 6), node, -1, false);
+
+        int found = 0;
+        while (found < results.length && heapSize > 0) {
+            int itemNode = heapNode[0];
+            int itemPath = heapPath[0];
+            boolean isWord = heapWord[0];
+            pop();
+
+            if (isWord) {
+                writeWord(prefix, itemPath, results[found++]);
+                continue;
+            }
+            int rank = buffer.getInt(itemNode + 2);
+            if (rank >= 0) {
+                push(rank, itemNode, itemPath, true);
+            }
+            int childCount = buffer.getShort(itemNode) & 0xFFFF;
+            int child = itemNode + NODE_HEADER_BYTES;
+            for (int c = 0; c < childCount && pathSize < PATH_CAPACITY; c++, child += CHILD_BYTES) {
+                int childNode = buffer.getInt(child + 2);
+                pathChar[pathSize] = buffer.getChar(child);
+                pathParent[pathSize] = itemPath;
+                push(buffer.getInt(childNode + 6), childNode, pathSize++, false);
+            }
+        }
+        return found;
+    }
+
+    /** @return the rank of {@code word} (0 = most frequent), or -1 if it is not in the dictionary. */
+    public int rankOf(CharSequence word) {
+        int node = 0;
+        for (int i = 0; i < word.length() && node >= 0; i++) {
+            node = findChild(node, word.charAt(i));
+        }
+        return node < 0 ? -1 : buffer.getInt(node + 2);
+    }
+
+    // Raw trie access for decoders that walk it themselves, like GestureDecoder
+
+    static final int ROOT = 0;
+
+    /** @return the child of {@code node} for {@code c}, or -1 if there is none. */
+    int child(int node, char c) {
+        return findChild(node, c);
+    }
+
+    /** @return the rank of the word ending at {@code node}, or -1 if no word ends there. */
+    int rankAt(int node) {
+        return buffer.getInt(node + 2);
+    }
+
+    /** @return the lowest rank in the subtree below {@code node}. */
+    int bestRankAt(int node) {
+        return buffer.getInt(node + 6);
+    }
+
+    private int findChild(int node, char c) {
+        int low = 0;
+        int high = (buffer.getShort(node) & 0xFFFF) - 1;
+        int children = node + NODE_HEADER_BYTES;
+        while (low <= high) {
+            int mid = (low + high) >>> 1;
+            char midChar = buffer.getChar(children + mid * CHILD_BYTES);
+            if (midChar < c) {
+                low = mid + 1;
+            } else if (midChar > c) {
+                high = mid - 1;
+            } else {
+                return buffer.getInt(children + mid * CHILD_BYTES + 2);
+            }
+        }
+        return -1;
+    }
+
+    private void writeWord(CharSequence prefix, int path, StringBuilder out) {
+        int length = 0;
+        for (int p = path; p >= 0 && length < wordScratch.length; p = pathParent[p]) {
+            wordScratch[wordScratch.length - 1 - length++] = pathChar[p];
+        }
+        out.setLength(0);
+        out.append(prefix);
+        out.append(wordScratch, wordScratch.length - length, length);
+    }
+
+    private void push(int rank, int node, int path, boolean isWord) {
+        int i;
+        if (heapSize < HEAP_CAPACITY) {
+            i = heapSize++;
+        } else {
+            // Only reachable on pathological fan-out: the worst candidate is dropped, which in a
+            // min-heap is one of the leaves, and may be the new one
+            i = HEAP_CAPACITY / 2;
+            for (int leaf = i + 1; leaf < HEAP_CAPACITY; leaf++) {
+                if (heapRank[leaf] > heapRank[i]) {
+                    i = leaf;
+                }
+            }
+            if (heapRank[i] <= rank) {
+                return;
+            }
+        }
+        while (i > 0) {
+            int parent = (i - 1) >>> 1;
+            if (heapRank[parent] <= rank) {
+                break;
+            }
+            moveHeapItem(parent, i);
+            i = parent;
+        }
+        heapRank[i] = rank;
+        heapNode[i] = node;
+        heapPath[i] = path;
+        heapWord[i] = isWord;
+    }
+
+    private void pop() {
+        int last = --heapSize;
+        if (last == 0) {
+            return;
+        }
+        int rank = heapRank[last];
+        int i = 0;
+        while (true) {
+            int child = 2 * i + 1;
+            if (child >= last) {
+                break;
+            }
+            if (child + 1 < last && heapRank[child + 1] < heapRank[child]) {
+                child++;
+            }
+            if (heapRank[child] >= rank) {
+                break;
+            }
+            moveHeapItem(child, i);
+            i = child;
+        }
+        moveHeapItem(last, i);
+    }
+
+    private void moveHeapItem(int from, int to) {
+        heapRank[to] = heapRank[from];
+        heapNode[to] = heapNode[from];
+        heapPath[to] = heapPath[from];
+        heapWord[to] = heapWord[from];
+    }
+}
@@ -0,0 +1,58 @@
+package com.example.gamepadkeyboard.core;
+
+import org.junit.Test;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNull;
+
+public class AdaptiveLayoutTest {
+
+    private static final int SLOTS = 8 * KeyUsageStats.MAX_SLICES; // One layer
+    private static final String[] LOWER = {"a", "b", "c", "d", "e", "f", "g", "h"};
+    private static final String[] UPPER = {"A", "B", "C", "D", "E", "F", "G", "H"};
+
+    private final CompiledLayout base = new CompiledLayout.Builder(1)
+            .setKeys(0, false, false, CompiledLayout.LEFT, LOWER)
+            .setKeys(0, false, true, CompiledLayout.LEFT, UPPER)
+            .build();
+
+    @Test
+    public void unusedLayoutStaysAsItIs() {
+        assertNull(AdaptiveLayout.reorder(base, new int[SLOTS]));
+    }
+
+    @Test
+    public void bothCasesOfASliceMoveTogether() {
+        int[] counts = new int[SLOTS];
+        counts[slot(false, 1)] = 10;   // b
+        counts[slot(true, 2)] = 50;    // C, typed more than b only as a capital
+        counts[slot(false, 3)] = 30;   // d
+
+        CompiledLayout reordered = AdaptiveLayout.apply(base, AdaptiveLayout.reorder(base, counts));
+        CompiledLayout.Ring lower = reordered.ring(0, false, false, CompiledLayout.LEFT);
+        CompiledLayout.Ring upper = reordered.ring(0, false, true, CompiledLayout.LEFT);
+        for (int slice = 0; slice < lower.size(); slice++) {
+            assertEquals(lower.key(slice).toUpperCase(), upper.key(slice));
+        }
+        // Busiest first on the cardinal slices 0, 2, 4 and 6
+        assertEquals("c", lower.key(0));
+        assertEquals("d", lower.key(2));
+        assertEquals("b", lower.key(4));
+    }
+
+    @Test
+    public void combinedUsageDecidesTheOrder() {
+        int[] counts = new int[SLOTS];
+        counts[slot(false, 1)] = 40;   // b
+        counts[slot(false, 3)] = 30;   // d
+        counts[slot(true, 3)] = 30;    // D, so d beats b
+
+        CompiledLayout reordered = AdaptiveLayout.apply(base, AdaptiveLayout.reorder(base, counts));
+        assertEquals("d", reordered.ring(0, false, false, CompiledLayout.LEFT).key(0));
+        assertEquals("B", reordered.ring(0, false, true, CompiledLayout.LEFT).key(2));
+    }
+
+    private static int slot(boolean upper, int slice) {
+        return KeyUsageStats.slot(0, false, upper, CompiledLayout.LEFT, slice);
+    }
+}
@@ -0,0 +1,93 @@
+package com.example.gamepadkeyboard.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class ButtonBindingsTest {
+
+    private static final int KEYCODE_BUTTON_THUMBR = 107;
+    private static final int KEYCODE_BUTTON_3 = 190;
+
+    @Test
+    public void emptyConfigKeepsTheBuiltInBindings() throws IOException {
+        ButtonBindings bindings = parse("{}").forDevice("Pad", 1, 2);
+        assertEquals(ButtonBindings.DEFAULT.toString(), bindings.toString());
+        assertEquals(ButtonBindings.NEXT_LAYER, bindings.actionFor(KeyboardStateMachine.KEYCODE_BUTTON_A));
+    }
+
+    @Test
+    public void defaultOverridesApplyToEveryController() throws IOException {
+        ButtonBindings bindings = parse("{\"default\": {\"BUTTON_THUMBR\": \"space\", "
+                + "\"KEYCODE_BUTTON_Y\": \"none\", \"button_3\": \"delete\", \"42\": null}}")
+                .forDevice("Pad", 1, 2);
+        assertEquals(ButtonBindings.SPACE, bindings.actionFor(KEYCODE_BUTTON_THUMBR));
+        assertEquals(ButtonBindings.NONE, bindings.actionFor(KeyboardStateMachine.KEYCODE_BUTTON_Y));
+        assertEquals(ButtonBindings.DELETE, bindings.actionFor(KEYCODE_BUTTON_3));
+        assertEquals(ButtonBindings.NEXT_LAYER, bindings.actionFor(KeyboardStateMachine.KEYCODE_BUTTON_A));
+    }
+
+    @Test
+    public void devicesAreMatchedByNameThenId() throws IOException {
+        ButtonBindings.Config config = parse("{"
+                + "\"default\": {\"BUTTON_Y\": \"none\"},"
+                + "\"devices\": {"
+                + "  \"Xbox Wireless Controller\": {\"BUTTON_L1\": \"nextLayer\"},"
+                + "  \"045E:0B13\": {\"BUTTON_R1\": \"delete\"}"
+                + "}}");
+
+        ButtonBindings byName = config.forDevice("Xbox Wireless Controller", 0x045e, 0x0b13);
+        assertEquals(ButtonBindings.NEXT_LAYER, byName.actionFor(KeyboardStateMachine.KEYCODE_BUTTON_L1));
+        assertEquals(ButtonBindings.COMMIT_RIGHT, byName.actionFor(KeyboardStateMachine.KEYCODE_BUTTON_R1));
+        // Device tables start from the user's defaults
+        assertEquals(ButtonBindings.NONE, byName.actionFor(KeyboardStateMachine.KEYCODE_BUTTON_Y));
+
+        ButtonBindings byId = config.forDevice("Other name", 0x045e, 0x0b13);
+        assertEquals(ButtonBindings.DELETE, byId.actionFor(KeyboardStateMachine.KEYCODE_BUTTON_R1));
+
+        ButtonBindings neither = config.forDevice(null, 1, 2);
+        assertSame(neither, config.forDevice("Unknown", 3, 4));
+        assertEquals(ButtonBindings.NONE, neither.actionFor(KeyboardStateMachine.KEYCODE_BUTTON_Y));
+    }
+
+    @Test
+    public void unknownTopLevelFieldsAreIgnored() throws IOException {
+        ButtonBindings bindings = parse("{\"version\": 2, \"comment\": {\"x\": [1]}}").forDevice("Pad", 1, 2);
+        assertEquals(ButtonBindings.DEFAULT.toString(), bindings.toString());
+    }
+
+    @Test
+    public void outOfRangeKeyCodesAreUnbound() {
+        assertEquals(ButtonBindings.NONE, ButtonBindings.DEFAULT.actionFor(-1));
+        assertEquals(ButtonBindings.NONE, ButtonBindings.DEFAULT.actionFor(ButtonBindings.KEYCODE_LIMIT));
+    }
+
+    @Test
+    public void typosAreErrors() {
+        assertRejected("[]");
+        assertRejected("{\"default\": {\"BUTTON_Q\": \"space\"}}");
+        assertRejected("{\"default\": {\"BUTTON_A\": \"spcae\"}}");
+        assertRejected("{\"default\": {\"BUTTON_A\": 3}}");
+        assertRejected("{\"default\": {\"BUTTON_17\": \"space\"}}");
+        assertRejected("{\"default\": {\"512\": \"space\"}}");
+        assertRejected("{\"devices\": {\"Pad\": \"space\"}}");
+        assertRejected("{\"default\": {");
+    }
+
+    private static ButtonBindings.Config parse(String json) throws IOException {
+        return ButtonBindings.parseConfig(json.getBytes(StandardCharsets.UTF_8));
+    }
+
+    private static void assertRejected(String json) {
+        try {
+            parse(json);
+            fail("Accepted " + json);
+        } catch (IOException expected) {
+        }
+    }
+}
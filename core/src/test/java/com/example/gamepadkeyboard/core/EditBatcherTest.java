@@ -0,0 +1,192 @@
+package com.example.gamepadkeyboard.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class EditBatcherTest {
+
+    /** Logs each call, with the event time the batcher reports while it is made. */
+    private static final class RecordingTarget implements EditBatcher.Target {
+        final List<String> calls = new ArrayList<>();
+        final List<Long> eventTimes = new ArrayList<>();
+        EditBatcher batcher;
+
+        @Override
+        public void beginBatchEdit() {
+            calls.add("begin");
+        }
+
+        @Override
+        public void endBatchEdit() {
+            calls.add("end");
+        }
+
+        @Override
+        public void commitText(CharSequence text) {
+            record("commit " + text);
+        }
+
+        @Override
+        public void deleteBefore(int count) {
+            record("delete " + count);
+        }
+
+        @Override
+        public void moveCursor(int direction) {
+            record("move " + direction);
+        }
+
+        @Override
+        public void setSelection(int start, int end) {
+            record("select " + start + "," + end);
+        }
+
+        private void record(String call) {
+            calls.add(call);
+            eventTimes.add(batcher.getSendingEventTime());
+        }
+    }
+
+    private EditBatcher batcher;
+    private RecordingTarget target;
+
+    @Before
+    public void setUp() {
+        batcher = new EditBatcher();
+        target = new RecordingTarget();
+        target.batcher = batcher;
+        batcher.setTarget(target);
+    }
+
+    @Test
+    public void onlyTheFirstEditAsksForAFlush() {
+        assertTrue(batcher.commitText("a"));
+        assertFalse(batcher.commitText("b"));
+        assertFalse(batcher.moveCursor(-1));
+    }
+
+    @Test
+    public void commitsAreConcatenated() {
+        batcher.commitText("he");
+        batcher.commitText("llo");
+        batcher.flush();
+        assertEquals(Arrays.asList("commit hello"), target.calls);
+        assertEquals(2, batcher.getCallsRequested());
+        assertEquals(1, batcher.getCallsSent());
+    }
+
+    @Test
+    public void deleteEatsIntoUnsentText() {
+        batcher.commitText("ab");
+        batcher.commitText("c");
+        batcher.deleteBefore(2);
+        batcher.flush();
+        assertEquals(Arrays.asList("commit a"), target.calls);
+    }
+
+    @Test
+    public void deleteBeyondUnsentTextReachesTheEditor() {
+        batcher.commitText("ab");
+        batcher.deleteBefore(3);
+        batcher.deleteBefore(2);
+        batcher.flush();
+        assertEquals(Arrays.asList("delete 3"), target.calls);
+    }
+
+    @Test
+    public void deleteCountsUtf16Units() {
+        batcher.commitText("x");
+        batcher.commitText("😀"); // One emoji, two units
+        batcher.deleteBefore(2);
+        batcher.flush();
+        assertEquals(Arrays.asList("commit x"), target.calls);
+    }
+
+    @Test
+    public void movesAddUpAndCancelOut() {
+        batcher.moveCursor(1);
+        batcher.moveCursor(-1);
+        assertTrue(batcher.isEmpty());
+
+        batcher.moveCursor(-1);
+        batcher.moveCursor(-1);
+        batcher.flush();
+        assertEquals(Arrays.asList("begin", "move -1", "move -1", "end"), target.calls);
+    }
+
+    @Test
+    public void onlyTheLastSelectionIsKept() {
+        batcher.setSelection(1, 1);
+        batcher.setSelection(2, 4);
+        batcher.flush();
+        assertEquals(Arrays.asList("select 2,4"), target.calls);
+    }
+
+    @Test
+    public void severalCallsAreWrappedInABatchEdit() {
+        batcher.deleteBefore(1);
+        batcher.commitText("a");
+        batcher.flush();
+        assertEquals(Arrays.asList("begin", "delete 1", "commit a", "end"), target.calls);
+        assertEquals(4, batcher.getCallsSent());
+    }
+
+    @Test
+    public void fullQueueIsFlushedBeforeGrowing() {
+        for (int i = 0; i < 17; i++) {
+            if (i % 2 == 0) {
+                batcher.commitText("a");
+            } else {
+                batcher.setSelection(i, i);
+            }
+        }
+        assertEquals(18, target.calls.size()); // 16 edits between begin and end
+        assertFalse(batcher.isEmpty());
+    }
+
+    @Test
+    public void editsKeepTheTimeOfTheEventThatCausedThem() {
+        batcher.setEventTime(100);
+        batcher.commitText("a");
+        batcher.setEventTime(200);
+        batcher.commitText("b"); // Merged, still sent for the first event
+        batcher.setSelection(0, 0);
+        batcher.setEventTime(-1);
+        batcher.moveCursor(1);
+        batcher.flush();
+        assertEquals(Arrays.asList(100L, 200L, -1L), target.eventTimes);
+        assertEquals(-1, batcher.getSendingEventTime());
+    }
+
+    @Test
+    public void mergeGivesAnUntimedEditATime() {
+        batcher.commitText("a");
+        batcher.setEventTime(300);
+        batcher.commitText("b");
+        batcher.flush();
+        assertEquals(Arrays.asList(300L), target.eventTimes);
+    }
+
+    @Test
+    public void switchingTargetsFlushesToThePreviousOne() {
+        int[] flushed = new int[1];
+        batcher.setOnFlushed(() -> flushed[0]++);
+        batcher.commitText("a");
+        batcher.setTarget(null);
+        assertEquals(Arrays.asList("commit a"), target.calls);
+        assertEquals(1, flushed[0]);
+
+        batcher.commitText("b");
+        batcher.flush();
+        assertTrue(batcher.isEmpty());
+        assertEquals(1, flushed[0]);
+    }
+}
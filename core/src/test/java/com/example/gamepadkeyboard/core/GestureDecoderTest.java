@@ -0,0 +1,132 @@
+package com.example.gamepadkeyboard.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class GestureDecoderTest {
+
+    private static final long DWELL = 200_000_000L;
+    private static final long TRANSIT = 20_000_000L;
+
+    private final GesturePath path = new GesturePath();
+    private final StringBuilder[] results = new StringBuilder[3];
+    private GestureDecoder decoder;
+    private long now;
+
+    @Before
+    public void setUp() throws IOException {
+        // Most frequent first
+        WordDictionary dictionary = WordDictionary.read(ByteBuffer.wrap(DictionaryCompiler.compile(
+                Arrays.asList("cab", "add", "bad", "bed", "ace", "fed"))));
+        CompiledLayout layout = new CompiledLayout.Builder(1)
+                .setKeys(0, false, false, CompiledLayout.LEFT,
+                        new String[] {"a", "b", "c", "d", "e", "f", "g", "h"})
+                .setKeys(0, false, false, CompiledLayout.RIGHT, new String[] {".", ",", "?", "!"})
+                .build();
+        decoder = new GestureDecoder(dictionary, layout);
+        for (int i = 0; i < results.length; i++) {
+            results[i] = new StringBuilder();
+        }
+    }
+
+    @Test
+    public void exactPathSpellsTheWord() {
+        record(DWELL, "c", "a", "b");
+        assertEquals("cab", best());
+    }
+
+    @Test
+    public void slicesPassedThroughCanBeSkipped() {
+        begin();
+        visit("b", DWELL);
+        visit("c", TRANSIT); // On the way from b to e
+        visit("d", TRANSIT);
+        visit("e", DWELL);
+        visit("d", DWELL);
+        assertEquals("bed", best());
+    }
+
+    @Test
+    public void overshootMatchesTheNeighboringLetter() {
+        record(DWELL, "c", "a", "c"); // Meant b, next to c
+        assertEquals("cab", best());
+    }
+
+    @Test
+    public void oneVisitCanStandForADoubledLetter() {
+        record(DWELL, "a", "d");
+        assertEquals("add", best());
+    }
+
+    @Test
+    public void moreFrequentWordsComeFirst() {
+        record(DWELL, "b", "a", "e", "d"); // Either bad or bed
+        decoder.decode(path, results);
+        assertEquals("bad", results[0].toString());
+        assertEquals("bed", results[1].toString());
+    }
+
+    @Test
+    public void firstAndLastVisitsAreNeverSkipped() {
+        record(DWELL, "g", "c", "a", "b");
+        assertEquals(0, decoder.decode(path, results));
+    }
+
+    @Test
+    public void letterFarFromTheWordMatchesNothing() {
+        record(DWELL, "c", "a", "f"); // f is not next to b
+        assertEquals(0, decoder.decode(path, results));
+    }
+
+    @Test
+    public void layoutIsOnlyReadOnTheFirstDecode() throws IOException {
+        CompiledLayout lazy = CompiledLayout.lazy(1, (layer, builder) -> builder.setKeys(
+                layer, false, false, CompiledLayout.LEFT, new String[] {"a", "b", "c", "d"}));
+        WordDictionary dictionary = WordDictionary.read(ByteBuffer.wrap(
+                DictionaryCompiler.compile(Arrays.asList("cab"))));
+        GestureDecoder lazyDecoder = new GestureDecoder(dictionary, lazy);
+        assertFalse(lazy.isMaterialized(0));
+
+        record(DWELL, "c", "a", "b");
+        assertEquals(1, lazyDecoder.decode(path, results));
+        assertTrue(lazy.isMaterialized(0));
+    }
+
+    @Test
+    public void emptyPathDecodesToNothing() {
+        begin();
+        assertEquals(0, decoder.decode(path, results));
+        record(DWELL, "c", "a", "b");
+        assertEquals(0, decoder.decode(path, new StringBuilder[0]));
+    }
+
+    private void begin() {
+        path.begin();
+        now = 0;
+    }
+
+    private void visit(String key, long dwellNanos) {
+        path.visit(key, now);
+        now += dwellNanos;
+    }
+
+    private void record(long dwellNanos, String... keys) {
+        begin();
+        for (String key : keys) {
+            visit(key, dwellNanos);
+        }
+    }
+
+    private String best() {
+        assertTrue(decoder.decode(path, results) > 0);
+        return results[0].toString();
+    }
+}
@@ -0,0 +1,136 @@
+package com.example.gamepadkeyboard.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.example.gamepadkeyboard.core.KeyboardStateMachine.*;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+public class KeyboardStateMachineTest {
+
+    private KeyboardStateMachine machine;
+
+    @Before
+    public void setUp() {
+        machine = new KeyboardStateMachine();
+        machine.setLayerCount(3);
+    }
+
+    @Test
+    public void aCyclesLayersAndWraps() {
+        for (int expected : new int[] {1, 2, 0}) {
+            int actions = machine.onKeyDown(KEYCODE_BUTTON_A, 0);
+            assertEquals(ACTION_HANDLED | ACTION_RELAYOUT, actions);
+            assertEquals(expected, layerOf(machine.getState()));
+        }
+    }
+
+    @Test
+    public void nextLayerDropsUpperCase() {
+        machine.onKeyDown(KEYCODE_DPAD_UP, 0);
+        assertTrue(isUpper(machine.getState()));
+        machine.onKeyDown(KEYCODE_BUTTON_A, 0);
+        assertFalse(isUpper(machine.getState()));
+    }
+
+    @Test
+    public void layerSelectionIsClampedToTheLayout() {
+        machine.onLayerSelected(7);
+        assertEquals(2, layerOf(machine.getState()));
+        machine.setLayerCount(2);
+        assertEquals(0, layerOf(machine.getState()));
+    }
+
+    @Test
+    public void altStaysWhileEitherTriggerIsHeld() {
+        assertEquals(ACTION_HANDLED | ACTION_RELAYOUT, machine.onKeyDown(KEYCODE_BUTTON_L2, 0));
+        assertTrue(isAlt(machine.getState()));
+        machine.onKeyDown(KEYCODE_BUTTON_R2, 0);
+
+        // Releasing one of two held triggers changes nothing on screen
+        assertEquals(ACTION_HANDLED, machine.onKeyUp(KEYCODE_BUTTON_L2));
+        assertTrue(isAlt(machine.getState()));
+
+        assertEquals(ACTION_HANDLED | ACTION_RELAYOUT, machine.onKeyUp(KEYCODE_BUTTON_R2));
+        assertFalse(isAlt(machine.getState()));
+    }
+
+    @Test
+    public void deleteRepeatsUntilReleased() {
+        assertEquals(ACTION_HANDLED | ACTION_REPEAT_START, machine.onKeyDown(KEYCODE_BUTTON_X, 0));
+        assertEquals(REPEAT_DELETE, repeatOf(machine.getState()));
+        // System repeats are swallowed, the engine repeats by itself
+        assertEquals(ACTION_HANDLED, machine.onKeyDown(KEYCODE_BUTTON_X, 1));
+        assertEquals(ACTION_HANDLED | ACTION_REPEAT_STOP, machine.onKeyUp(KEYCODE_BUTTON_X));
+        assertEquals(REPEAT_NONE, repeatOf(machine.getState()));
+    }
+
+    @Test
+    public void hatMovesTheCursorUntilCentered() {
+        assertEquals(ACTION_HANDLED | ACTION_REPEAT_START, machine.onHat(-1, 0));
+        assertEquals(REPEAT_LEFT, repeatOf(machine.getState()));
+        machine.onHat(1, 0);
+        assertEquals(REPEAT_RIGHT, repeatOf(machine.getState()));
+        assertEquals(ACTION_HANDLED | ACTION_REPEAT_STOP, machine.onHat(0, 0));
+        assertEquals(REPEAT_NONE, repeatOf(machine.getState()));
+    }
+
+    @Test
+    public void releasingAnotherRepeatKeyDoesNotStopTheRepeat() {
+        machine.onHat(1, 0);
+        assertEquals(ACTION_HANDLED, machine.onKeyUp(KEYCODE_BUTTON_X));
+        assertEquals(REPEAT_RIGHT, repeatOf(machine.getState()));
+    }
+
+    @Test
+    public void l1CommitsAndRecordsAGestureUntilReleased() {
+        int actions = machine.onKeyDown(KEYCODE_BUTTON_L1, 0);
+        assertEquals(ACTION_HANDLED | ACTION_COMMIT_LEFT | ACTION_GESTURE_START, actions);
+        assertTrue(isGesture(machine.getState()));
+        assertEquals(ACTION_HANDLED | ACTION_GESTURE_END, machine.onKeyUp(KEYCODE_BUTTON_L1));
+        assertFalse(isGesture(machine.getState()));
+        assertEquals(0, machine.onKeyUp(KEYCODE_BUTTON_L1));
+    }
+
+    @Test
+    public void dpadDownTogglesSymbolsOnlyIfThereAreAny() {
+        assertEquals(ACTION_HANDLED | ACTION_RELAYOUT, machine.onKeyDown(KEYCODE_DPAD_DOWN, 0));
+        assertFalse(isSymbols(machine.getState()));
+
+        machine.setHasSymbols(true);
+        machine.onKeyDown(KEYCODE_DPAD_DOWN, 0);
+        assertTrue(isSymbols(machine.getState()));
+        // Symbols spell no words, so L1 commits without starting a gesture
+        assertEquals(ACTION_HANDLED | ACTION_COMMIT_LEFT, machine.onKeyDown(KEYCODE_BUTTON_L1, 0));
+        assertFalse(isGesture(machine.getState()));
+        machine.onKeyDown(KEYCODE_DPAD_DOWN, 0);
+        assertFalse(isSymbols(machine.getState()));
+    }
+
+    @Test
+    public void nextLayerLeavesSymbols() {
+        machine.setHasSymbols(true);
+        machine.onKeyDown(KEYCODE_DPAD_DOWN, 0);
+        machine.onKeyDown(KEYCODE_BUTTON_A, 0);
+        assertFalse(isSymbols(machine.getState()));
+        assertEquals(1, layerOf(machine.getState()));
+    }
+
+    @Test
+    public void unboundKeysAreNotHandled() {
+        assertEquals(0, machine.onKeyDown(KEYCODE_BUTTON_Y + 100, 0));
+        assertEquals(0, machine.onKeyUp(KEYCODE_BUTTON_Y + 100));
+        assertEquals(0, machine.getState());
+    }
+
+    @Test
+    public void resetClearsEverything() {
+        machine.onKeyDown(KEYCODE_BUTTON_A, 0);
+        machine.onKeyDown(KEYCODE_BUTTON_L2, 0);
+        machine.onKeyDown(KEYCODE_BUTTON_X, 0);
+        machine.reset();
+        assertEquals(0, machine.getState());
+    }
+}
@@ -0,0 +1,29 @@
+package com.example.gamepadkeyboard.core;
+
+import org.junit.Test;
+
+import java.util.SplittableRandom;
+
+import static org.junit.Assert.assertEquals;
+
+public class LayoutOptimizerTest {
+
+    @Test
+    public void incrementalCostMatchesAFullRecount() {
+        // Eight keys on twelve slices, so four of the slices hold fillers
+        CompiledLayout layout = new CompiledLayout.Builder(1)
+                .setKeys(0, false, false, CompiledLayout.LEFT,
+                        new String[] {"a", "b", "c", "d", "e", "f", "g", "h"})
+                .setKeys(0, true, false, CompiledLayout.LEFT, new String[] {"a", "b", "c", "d"})
+                .build();
+        // Doubled letters, whose cost changes when their key swaps with a filler
+        String corpus = "aa bee cabbage deed feed egg hedge ebb add ache head beef fad gaff had";
+        LayoutOptimizer optimizer = new LayoutOptimizer(layout, corpus);
+
+        for (long seed = 0; seed < 4; seed++) {
+            LayoutOptimizer.Chain chain = optimizer.new Chain(new SplittableRandom(seed));
+            chain.run(20_000);
+            assertEquals(optimizer.cost(chain.positionOf), chain.cost, 1e-3);
+        }
+    }
+}
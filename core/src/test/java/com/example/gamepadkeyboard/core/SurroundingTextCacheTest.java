@@ -0,0 +1,152 @@
+package com.example.gamepadkeyboard.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import static com.example.gamepadkeyboard.core.SurroundingTextCache.CHAR;
+import static com.example.gamepadkeyboard.core.SurroundingTextCache.LINE;
+import static com.example.gamepadkeyboard.core.SurroundingTextCache.WORD;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertNull;
+import static org.junit.Assert.assertTrue;
+
+public class SurroundingTextCacheTest {
+
+    private SurroundingTextCache cache;
+
+    @Before
+    public void setUp() {
+        cache = new SurroundingTextCache();
+    }
+
+    @Test
+    public void editsAreMirroredWithoutReadingBack() {
+        cache.reset("hello world", 11, 11, 0);
+        cache.delete(5);
+        cache.commit("there");
+        assertEquals("hello there", cache.getTextBeforeCursor(20).toString());
+        assertEquals(11, cache.getSelectionStart());
+        assertEquals(1, cache.getReads());
+        assertEquals(0, cache.getResyncs());
+    }
+
+    @Test
+    public void commitReplacesTheSelection() {
+        cache.reset("one two", 4, 7, 10);
+        cache.commit("2");
+        assertEquals("one 2", cache.getTextBeforeCursor(10).toString());
+        assertEquals(15, cache.getSelectionStart());
+        assertEquals(15, cache.getSelectionEnd());
+    }
+
+    @Test
+    public void boundariesAreFoundInTheWindow() {
+        cache.reset("first line\nsecond  word", 21, 21, 0);
+        assertEquals(1, cache.charsBefore(CHAR));
+        assertEquals(2, cache.charsBefore(WORD));
+        assertEquals(10, cache.charsBefore(LINE));
+        assertEquals(2, cache.charsAfter(WORD));
+    }
+
+    @Test
+    public void characterStepsKeepEmojiWhole() {
+        String text = "a👨‍👩‍👧🇩🇪🇫🇷"; // A family joined by ZWJs, then two flags
+        cache.reset(text, text.length(), text.length(), 0);
+        assertEquals(4, cache.charsBefore(CHAR));
+        cache.delete(4);
+        assertEquals(4, cache.charsBefore(CHAR));
+        cache.delete(4);
+        assertEquals(8, cache.charsBefore(CHAR));
+        cache.delete(8);
+        assertEquals("a", cache.getTextBeforeCursor(10).toString());
+    }
+
+    @Test
+    public void shortReadReachesTheStartOfTheField() {
+        cache.reset("abc", 3, 3, -1);
+        assertEquals(3, cache.charsBefore(WORD));
+        assertEquals("abc", cache.getTextBeforeCursor(10).toString());
+    }
+
+    @Test
+    public void boundaryBeforeTheWindowIsUnknown() {
+        String word = fullWindow();
+        cache.reset(word, word.length(), word.length(), 5000); // The field goes on before it
+        assertEquals(-1, cache.charsBefore(WORD));
+        assertNull(cache.getTextBeforeCursor(word.length() + 1));
+        assertEquals(2, cache.getMisses());
+    }
+
+    @Test
+    public void deletingPastTheWindowInvalidates() {
+        String word = fullWindow();
+        cache.reset(word, word.length(), word.length(), 5000);
+        cache.delete(word.length() + 1);
+        assertFalse(cache.isValid());
+    }
+
+    @Test
+    public void ownReportsAreConsumedInOrder() {
+        cache.reset("hello", 5, 5, 0);
+        cache.commit("a");
+        cache.expectSelection();
+        cache.commit("b");
+        cache.expectSelection();
+        cache.commit("c");
+        // The reports of the first two flushes arrive after the third edit
+        assertTrue(cache.onUpdateSelection(6, 6));
+        assertTrue(cache.onUpdateSelection(7, 7));
+        assertTrue(cache.onUpdateSelection(8, 8));
+        assertTrue(cache.isValid());
+    }
+
+    @Test
+    public void mergedReportsSkipOlderOnes() {
+        cache.reset("hello", 5, 5, 0);
+        cache.commit("a");
+        cache.expectSelection();
+        cache.commit("b");
+        cache.expectSelection();
+        assertTrue(cache.onUpdateSelection(7, 7)); // The editor only reported the last one
+        assertFalse(cache.onUpdateSelection(6, 6));
+        assertFalse(cache.isValid());
+    }
+
+    @Test
+    public void unexpectedSelectionIsDriftOnceReportsAreIn() {
+        cache.reset("hello", 5, 5, 0);
+        cache.commit("a");
+        cache.expectSelection();
+        cache.commit("b");
+        cache.expectSelection();
+        cache.commit("c");
+        assertTrue(cache.onUpdateSelection(6, 6));
+        assertTrue(cache.onUpdateSelection(7, 7));
+        assertFalse(cache.onUpdateSelection(9, 9));
+        assertFalse(cache.isValid());
+        assertTrue(cache.toString().contains("drifts=1"));
+    }
+
+    @Test
+    public void resyncIsCountedApartFromTheSeed() {
+        cache.reset("abc", 3, 3, 0);
+        cache.invalidate();
+        cache.reset("abc", 3, 3, 0);
+        assertEquals(2, cache.getReads());
+        assertEquals(1, cache.getResyncs());
+
+        cache.clear();
+        cache.reset("xyz", 0, 0, 0);
+        assertEquals(1, cache.getResyncs());
+    }
+
+    /** One word as long as a full read, so the read stopped before the start of the field. */
+    private static String fullWindow() {
+        StringBuilder word = new StringBuilder();
+        while (word.length() < SurroundingTextCache.WINDOW) {
+            word.append('x');
+        }
+        return word.toString();
+    }
+}
@@ -0,0 +1,140 @@
+package com.example.gamepadkeyboard.core;
+
+import org.junit.Before;
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.Arrays;
+
+import static com.example.gamepadkeyboard.core.SymbolPages.FLIP_NEXT_PAGE;
+import static com.example.gamepadkeyboard.core.SymbolPages.FLIP_NEXT_SECTION;
+import static com.example.gamepadkeyboard.core.SymbolPages.FLIP_PREVIOUS_PAGE;
+import static com.example.gamepadkeyboard.core.SymbolPages.FLIP_PREVIOUS_SECTION;
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertNotSame;
+import static org.junit.Assert.assertSame;
+import static org.junit.Assert.fail;
+
+public class SymbolPagesTest {
+
+    // Pages 0-8 (the last one short), 9, and 10-11
+    private static final int SMILEYS = 100;
+    private static final int ARROWS = 5;
+    private static final int MATH = 13;
+
+    private byte[] image;
+    private SymbolPages pages;
+
+    @Before
+    public void setUp() throws IOException {
+        image = SymbolTableCompiler.compile(Arrays.asList(
+                section("Smileys", "s", SMILEYS),
+                new SymbolTableCompiler.Section("Empty"),
+                section("Arrows", "a", ARROWS - 1, "👍🏽"),
+                section("Math", "m", MATH)));
+        pages = SymbolPages.read(ByteBuffer.wrap(image));
+    }
+
+    @Test
+    public void sectionsStartOnTheirOwnPage() {
+        assertEquals(12, pages.getPageCount());
+        assertEquals(3, pages.getSectionCount()); // The empty one is dropped
+        assertEquals("Arrows", pages.getSectionName(1));
+        assertEquals(0, pages.sectionOf(8));
+        assertEquals(1, pages.sectionOf(9));
+        assertEquals(2, pages.sectionOf(11));
+    }
+
+    @Test
+    public void pagesHoldTheirEntriesInOrder() {
+        CompiledLayout.Ring full = pages.page(1);
+        assertEquals(SymbolPages.PAGE_SIZE, full.size());
+        assertEquals("s12", full.key(0));
+
+        CompiledLayout.Ring last = pages.page(8);
+        assertEquals(SMILEYS - 8 * SymbolPages.PAGE_SIZE, last.size());
+        assertEquals("s99", last.key(last.size() - 1));
+
+        assertEquals("👍🏽", pages.page(9).key(ARROWS - 1));
+    }
+
+    @Test
+    public void flipsWrapAroundAtBothEnds() {
+        assertEquals(1, pages.flip(0, FLIP_NEXT_PAGE));
+        assertEquals(0, pages.flip(11, FLIP_NEXT_PAGE));
+        assertEquals(11, pages.flip(0, FLIP_PREVIOUS_PAGE));
+        assertEquals(9, pages.flip(3, FLIP_NEXT_SECTION));
+        assertEquals(0, pages.flip(11, FLIP_NEXT_SECTION));
+        assertEquals(10, pages.flip(0, FLIP_PREVIOUS_SECTION));
+    }
+
+    @Test
+    public void previousSectionGoesToTheSectionStartFirst() {
+        assertEquals(10, pages.flip(11, FLIP_PREVIOUS_SECTION));
+        assertEquals(9, pages.flip(10, FLIP_PREVIOUS_SECTION));
+    }
+
+    @Test
+    public void navigationShowsWhereEachFlickGoes() {
+        CompiledLayout.Ring navigation = pages.navigation(3);
+        assertEquals(4, navigation.size());
+        assertEquals("s0", navigation.key(FLIP_PREVIOUS_SECTION));
+        assertEquals("a0", navigation.key(FLIP_NEXT_SECTION));
+        assertEquals("→", navigation.key(FLIP_NEXT_PAGE));
+        assertEquals("←", navigation.key(FLIP_PREVIOUS_PAGE));
+    }
+
+    @Test
+    public void recentPagesAreReusedAndOldOnesEvicted() {
+        CompiledLayout.Ring first = pages.page(0);
+        assertSame(first, pages.page(0));
+        assertSame(pages.navigation(0), pages.navigation(0));
+
+        for (int page = 1; page <= 8; page++) {
+            pages.page(page);
+        }
+        assertSame(pages.page(8), pages.page(8));
+        assertNotSame(first, pages.page(0));
+        assertEquals("SymbolPages{pages=12, sections=3, cachedPages=8, pageHits=5, pageLoads=10}",
+                pages.toString());
+    }
+
+    @Test
+    public void damagedImagesAreRejected() {
+        assertRejected(Arrays.copyOf(image, 10));
+        assertRejected(Arrays.copyOf(image, image.length - 1));
+        byte[] version = image.clone();
+        version[5] = 2;
+        assertRejected(version);
+        byte[] magic = image.clone();
+        magic[0] = 'X';
+        assertRejected(magic);
+    }
+
+    @Test
+    public void tableWithNoEntriesIsNotCompiled() {
+        try {
+            SymbolTableCompiler.compile(Arrays.asList(new SymbolTableCompiler.Section("Empty")));
+            fail();
+        } catch (IOException expected) {
+        }
+    }
+
+    private static SymbolTableCompiler.Section section(String name, String prefix, int count, String... more) {
+        SymbolTableCompiler.Section section = new SymbolTableCompiler.Section(name);
+        for (int i = 0; i < count; i++) {
+            section.entries.add(prefix + i);
+        }
+        section.entries.addAll(Arrays.asList(more));
+        return section;
+    }
+
+    private static void assertRejected(byte[] image) {
+        try {
+            SymbolPages.read(ByteBuffer.wrap(image));
+            fail("Read a damaged table");
+        } catch (IllegalArgumentException expected) {
+        }
+    }
+}
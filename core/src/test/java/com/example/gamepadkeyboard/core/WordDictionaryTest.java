@@ -0,0 +1,51 @@
+package com.example.gamepadkeyboard.core;
+
+import org.junit.Test;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+public class WordDictionaryTest {
+
+    @Test
+    public void completionsComeBestFirst() throws IOException {
+        WordDictionary dictionary = read(Arrays.asList("the", "then", "them", "to", "there"));
+        StringBuilder[] results = results(3);
+        assertEquals(3, dictionary.complete("th", results));
+        assertEquals("the", results[0].toString());
+        assertEquals("then", results[1].toString());
+        assertEquals("them", results[2].toString());
+        assertEquals(0, dictionary.complete("x", results));
+    }
+
+    @Test
+    public void fullSearchDropsTheWorstCandidates() throws IOException {
+        // More one-letter words than the search holds, pushed worst first
+        List<String> words = new ArrayList<>();
+        for (int i = 0; i < 3000; i++) {
+            words.add(String.valueOf((char) (0x4E00 + 3000 - i)));
+        }
+        WordDictionary dictionary = read(words);
+        StringBuilder[] results = results(2);
+        assertEquals(2, dictionary.complete("", results));
+        assertEquals(words.get(0), results[0].toString());
+        assertEquals(words.get(1), results[1].toString());
+    }
+
+    private static WordDictionary read(List<String> wordsByRank) throws IOException {
+        return WordDictionary.read(ByteBuffer.wrap(DictionaryCompiler.compile(wordsByRank)));
+    }
+
+    private static StringBuilder[] results(int count) {
+        StringBuilder[] results = new StringBuilder[count];
+        for (int i = 0; i < count; i++) {
+            results[i] = new StringBuilder();
+        }
+        return results;
+    }
+}
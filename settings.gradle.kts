@@ -21,3 +21,4 @@ dependencyResolutionManagement {
 
 rootProject.name = "GamepadKeyboard"
 include(":app")
+include(":core")